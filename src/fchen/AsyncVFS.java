@@ -0,0 +1,274 @@
+package fchen;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class is an asynchronous view of a DynamicVFS. Every call returns at
+ * once with a CompletableFuture and runs on an executor, so a caller can have
+ * thousands of searches and verifications outstanding without a thread of its
+ * own for each. Searches and verifications take no lock and run in parallel;
+ * additions and deletions are still serialized by the DynamicVFS.
+ *
+ * The default executor starts one virtual thread per call on JDK 21 and later,
+ * and is the common ForkJoinPool otherwise. At most 'maxInFlight' calls may be
+ * queued or running at once; a call beyond the limit fails at once with a
+ * RejectedExecutionException, so the caller can shed load instead of queuing
+ * without bound. A call may have a deadline: when it passes, the future fails
+ * with a TimeoutException, and a call that has not started by then is not run
+ * at all. An update that has started is always finished, since the tree must
+ * stay consistent; only its future fails.
+ */
+public class AsyncVFS {
+	public final static int MAX_IN_FLIGHT = 65536; // default limit of queued or running calls
+
+	private DynamicVFS vfs = null;
+	private Executor executor = null;
+	private ExecutorService ownExecutor = null; // the executor created here, shut down by 'close()'
+	private Semaphore inFlight = null;
+	private int maxInFlight = 0;
+	private long timeout = 0; // default deadline in milliseconds after submission; 0 for none
+	private ScheduledExecutorService timer = null; // fails the calls whose deadline has passed
+
+	/**
+	 * It constructs the asynchronous view with the default executor and limit.
+	 *
+	 * @param vfs - the outsourced data
+	 */
+	public AsyncVFS(DynamicVFS vfs) {
+		this(vfs, null, MAX_IN_FLIGHT);
+	}
+
+	/**
+	 * It constructs the asynchronous view.
+	 *
+	 * @param vfs         - the outsourced data
+	 * @param executor    - runs the calls; null for the default executor
+	 * @param maxInFlight - most calls queued or running at once
+	 */
+	public AsyncVFS(DynamicVFS vfs, Executor executor, int maxInFlight) {
+		super();
+		this.vfs = vfs;
+		if (executor == null) {
+			this.ownExecutor = newVirtualThreadExecutor();
+			executor = (this.ownExecutor != null) ? this.ownExecutor : ForkJoinPool.commonPool();
+		}
+		this.executor = executor;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.inFlight = new Semaphore(this.maxInFlight);
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "AsyncVFS-timer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * This function creates an executor with one virtual thread per task. It is
+	 * looked up by reflection, so this class also runs on JDKs without virtual
+	 * threads.
+	 *
+	 * @return the executor, or null before JDK 21
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * This function searches a query token; see 'DynamicVFS.search()'.
+	 *
+	 * @param queryFile - a query token send by the data user
+	 * @return the query result
+	 */
+	public CompletableFuture<ProofData> searchAsync(byte[] queryFile) {
+		return this.searchAsync(queryFile, this.timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public CompletableFuture<ProofData> searchAsync(final byte[] queryFile, long timeout, TimeUnit unit) {
+		return this.submit(new Callable<ProofData>() {
+			public ProofData call() {
+				return vfs.search(queryFile);
+			}
+		}, timeout, unit);
+	}
+
+	/**
+	 * This function verifies a search result; see 'DynamicVFS.verify()'.
+	 *
+	 * @param queryFile - the query token sent to the cloud by the data user
+	 * @param proof     - the returned result from the cloud
+	 * @return true if the cloud is honest; false if the cloud cheats
+	 */
+	public CompletableFuture<Boolean> verifyAsync(byte[] queryFile, ProofData proof) {
+		return this.verifyAsync(queryFile, proof, this.timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public CompletableFuture<Boolean> verifyAsync(final byte[] queryFile, final ProofData proof, long timeout,
+			TimeUnit unit) {
+		return this.submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return vfs.verify(queryFile, proof);
+			}
+		}, timeout, unit);
+	}
+
+	/**
+	 * This function adds a file; see 'DynamicVFS.add()'.
+	 *
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 * @return completed when the new root is published
+	 */
+	public CompletableFuture<Void> addAsync(byte[] queryFile) {
+		return this.addAsync(queryFile, this.timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public CompletableFuture<Void> addAsync(final byte[] queryFile, long timeout, TimeUnit unit) {
+		return this.submit(new Callable<Void>() {
+			public Void call() {
+				vfs.add(queryFile);
+				return null;
+			}
+		}, timeout, unit);
+	}
+
+	/**
+	 * This function deletes a file; see 'DynamicVFS.delete()'.
+	 *
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 * @return completed when the new root is published
+	 */
+	public CompletableFuture<Void> deleteAsync(byte[] queryFile) {
+		return this.deleteAsync(queryFile, this.timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public CompletableFuture<Void> deleteAsync(final byte[] queryFile, long timeout, TimeUnit unit) {
+		return this.submit(new Callable<Void>() {
+			public Void call() {
+				vfs.delete(queryFile);
+				return null;
+			}
+		}, timeout, unit);
+	}
+
+	/**
+	 * This function runs a call on the executor within the limit of calls in
+	 * flight and with a deadline.
+	 *
+	 * @param timeout - time until the deadline; 0 for none
+	 */
+	private <T> CompletableFuture<T> submit(final Callable<T> call, long timeout, TimeUnit unit) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		if (this.inFlight.tryAcquire() == false) {
+			result.completeExceptionally(
+					new RejectedExecutionException("more than " + this.maxInFlight + " calls in flight"));
+			return result;
+		}
+
+		ScheduledFuture<?> deadline = null;
+		if (timeout > 0)
+			deadline = this.timer.schedule(new Runnable() {
+				public void run() {
+					result.completeExceptionally(new TimeoutException("the deadline has passed"));
+				}
+			}, timeout, unit);
+		final ScheduledFuture<?> pendingDeadline = deadline;
+
+		try {
+			this.executor.execute(new Runnable() {
+				public void run() {
+					T value = null;
+					Throwable failure = null;
+					try {
+						if (result.isDone() == false) // not run after its deadline
+							value = call.call();
+					} catch (Throwable e) {
+						failure = e;
+					}
+
+					// the call leaves the limit before its future completes
+					inFlight.release();
+					if (pendingDeadline != null)
+						pendingDeadline.cancel(false);
+					if (failure != null)
+						result.completeExceptionally(failure);
+					else
+						result.complete(value);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.inFlight.release();
+			if (deadline != null)
+				deadline.cancel(false);
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * This function stops the timer and the executor created by this object, if
+	 * any; an executor given to the constructor is left running.
+	 */
+	public void close() {
+		this.timer.shutdown();
+		if (this.ownExecutor != null)
+			this.ownExecutor.shutdown();
+	}
+
+	public DynamicVFS getVfs() {
+		return vfs;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * This function tells whether the calls run on virtual threads.
+	 */
+	public boolean isVirtualThreads() {
+		return ownExecutor != null;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * This function gets the number of calls queued or running.
+	 */
+	public int getInFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * This function sets the deadline of the calls without their own.
+	 *
+	 * @param timeout - milliseconds after submission; 0 for no deadline
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+}
@@ -0,0 +1,220 @@
+package fchen;
+
+import java.security.MessageDigest;
+
+/**
+ * This class is a pure-Java BLAKE2s-256 (RFC 7693) without a key, as a
+ * MessageDigest, so it can be used wherever SHA-256 is. BLAKE2s works on 32-bit
+ * words with 10 rounds per 64-byte block instead of the 64 rounds of SHA-256,
+ * and is much faster on processors without SHA instructions.
+ */
+public class Blake2s extends MessageDigest implements Cloneable {
+	public final static int DIGEST_LENGTH = 32;
+	private final static int BLOCK_LENGTH = 64;
+
+	private final static int[] IV = { 0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C,
+			0x1F83D9AB, 0x5BE0CD19 };
+
+	private final static byte[][] SIGMA = { { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+			{ 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 },
+			{ 11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4 },
+			{ 7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8 },
+			{ 9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13 },
+			{ 2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9 },
+			{ 12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11 },
+			{ 13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10 },
+			{ 6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5 },
+			{ 10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0 } };
+
+	private int[] h = new int[8]; // chained state
+	private int[] m = new int[16]; // message words of a block
+	private byte[] buffer = new byte[BLOCK_LENGTH]; // bytes not yet compressed
+	private int buffered = 0;
+	private long counter = 0; // bytes compressed so far
+
+	public Blake2s() {
+		super("BLAKE2s-256");
+		this.engineReset();
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return DIGEST_LENGTH;
+	}
+
+	@Override
+	protected void engineReset() {
+		System.arraycopy(IV, 0, this.h, 0, 8);
+		this.h[0] ^= 0x01010000 | DIGEST_LENGTH; // parameter block: fanout 1, depth 1, no key
+		this.buffered = 0;
+		this.counter = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		if (this.buffered == BLOCK_LENGTH) {
+			this.counter = this.counter + BLOCK_LENGTH;
+			this.compress(this.buffer, 0, false);
+			this.buffered = 0;
+		}
+		this.buffer[this.buffered++] = input;
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length) {
+		// the last block is compressed differently, so a full buffer waits for more input
+		while (length > 0) {
+			if (this.buffered == BLOCK_LENGTH) {
+				this.counter = this.counter + BLOCK_LENGTH;
+				this.compress(this.buffer, 0, false);
+				this.buffered = 0;
+			}
+			if (this.buffered == 0) {
+				while (length > BLOCK_LENGTH) { // whole blocks straight from the input
+					this.counter = this.counter + BLOCK_LENGTH;
+					this.compress(input, offset, false);
+					offset = offset + BLOCK_LENGTH;
+					length = length - BLOCK_LENGTH;
+				}
+			}
+			int count = Math.min(length, BLOCK_LENGTH - this.buffered);
+			System.arraycopy(input, offset, this.buffer, this.buffered, count);
+			this.buffered = this.buffered + count;
+			offset = offset + count;
+			length = length - count;
+		}
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		byte[] result = new byte[DIGEST_LENGTH];
+		this.finish(result, 0);
+		return result;
+	}
+
+	@Override
+	protected int engineDigest(byte[] result, int offset, int length) {
+		if (length < DIGEST_LENGTH)
+			throw new IllegalArgumentException("the output buffer is too short");
+		this.finish(result, offset);
+		return DIGEST_LENGTH;
+	}
+
+	private void finish(byte[] result, int offset) {
+		this.counter = this.counter + this.buffered;
+		for (int i = this.buffered; i < BLOCK_LENGTH; i++)
+			this.buffer[i] = 0;
+		this.compress(this.buffer, 0, true);
+
+		for (int i = 0; i < 8; i++) {
+			result[offset + 4 * i] = (byte) this.h[i];
+			result[offset + 4 * i + 1] = (byte) (this.h[i] >>> 8);
+			result[offset + 4 * i + 2] = (byte) (this.h[i] >>> 16);
+			result[offset + 4 * i + 3] = (byte) (this.h[i] >>> 24);
+		}
+		this.engineReset();
+	}
+
+	private void compress(byte[] block, int offset, boolean last) {
+		int[] m = this.m;
+		for (int i = 0; i < 16; i++) {
+			int p = offset + 4 * i;
+			m[i] = (block[p] & 0xff) | ((block[p + 1] & 0xff) << 8) | ((block[p + 2] & 0xff) << 16)
+					| ((block[p + 3] & 0xff) << 24);
+		}
+
+		// the working vector is kept in local variables, which the JIT holds in registers
+		int v0 = this.h[0], v1 = this.h[1], v2 = this.h[2], v3 = this.h[3];
+		int v4 = this.h[4], v5 = this.h[5], v6 = this.h[6], v7 = this.h[7];
+		int v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3];
+		int v12 = IV[4] ^ (int) this.counter, v13 = IV[5] ^ (int) (this.counter >>> 32);
+		int v14 = last ? ~IV[6] : IV[6], v15 = IV[7];
+
+		for (int round = 0; round < 10; round++) {
+			byte[] s = SIGMA[round];
+			v0 += v4 + m[s[0]];
+			v12 = Integer.rotateRight(v12 ^ v0, 16);
+			v8 += v12;
+			v4 = Integer.rotateRight(v4 ^ v8, 12);
+			v0 += v4 + m[s[1]];
+			v12 = Integer.rotateRight(v12 ^ v0, 8);
+			v8 += v12;
+			v4 = Integer.rotateRight(v4 ^ v8, 7);
+			v1 += v5 + m[s[2]];
+			v13 = Integer.rotateRight(v13 ^ v1, 16);
+			v9 += v13;
+			v5 = Integer.rotateRight(v5 ^ v9, 12);
+			v1 += v5 + m[s[3]];
+			v13 = Integer.rotateRight(v13 ^ v1, 8);
+			v9 += v13;
+			v5 = Integer.rotateRight(v5 ^ v9, 7);
+			v2 += v6 + m[s[4]];
+			v14 = Integer.rotateRight(v14 ^ v2, 16);
+			v10 += v14;
+			v6 = Integer.rotateRight(v6 ^ v10, 12);
+			v2 += v6 + m[s[5]];
+			v14 = Integer.rotateRight(v14 ^ v2, 8);
+			v10 += v14;
+			v6 = Integer.rotateRight(v6 ^ v10, 7);
+			v3 += v7 + m[s[6]];
+			v15 = Integer.rotateRight(v15 ^ v3, 16);
+			v11 += v15;
+			v7 = Integer.rotateRight(v7 ^ v11, 12);
+			v3 += v7 + m[s[7]];
+			v15 = Integer.rotateRight(v15 ^ v3, 8);
+			v11 += v15;
+			v7 = Integer.rotateRight(v7 ^ v11, 7);
+
+			v0 += v5 + m[s[8]];
+			v15 = Integer.rotateRight(v15 ^ v0, 16);
+			v10 += v15;
+			v5 = Integer.rotateRight(v5 ^ v10, 12);
+			v0 += v5 + m[s[9]];
+			v15 = Integer.rotateRight(v15 ^ v0, 8);
+			v10 += v15;
+			v5 = Integer.rotateRight(v5 ^ v10, 7);
+			v1 += v6 + m[s[10]];
+			v12 = Integer.rotateRight(v12 ^ v1, 16);
+			v11 += v12;
+			v6 = Integer.rotateRight(v6 ^ v11, 12);
+			v1 += v6 + m[s[11]];
+			v12 = Integer.rotateRight(v12 ^ v1, 8);
+			v11 += v12;
+			v6 = Integer.rotateRight(v6 ^ v11, 7);
+			v2 += v7 + m[s[12]];
+			v13 = Integer.rotateRight(v13 ^ v2, 16);
+			v8 += v13;
+			v7 = Integer.rotateRight(v7 ^ v8, 12);
+			v2 += v7 + m[s[13]];
+			v13 = Integer.rotateRight(v13 ^ v2, 8);
+			v8 += v13;
+			v7 = Integer.rotateRight(v7 ^ v8, 7);
+			v3 += v4 + m[s[14]];
+			v14 = Integer.rotateRight(v14 ^ v3, 16);
+			v9 += v14;
+			v4 = Integer.rotateRight(v4 ^ v9, 12);
+			v3 += v4 + m[s[15]];
+			v14 = Integer.rotateRight(v14 ^ v3, 8);
+			v9 += v14;
+			v4 = Integer.rotateRight(v4 ^ v9, 7);
+		}
+
+		this.h[0] ^= v0 ^ v8;
+		this.h[1] ^= v1 ^ v9;
+		this.h[2] ^= v2 ^ v10;
+		this.h[3] ^= v3 ^ v11;
+		this.h[4] ^= v4 ^ v12;
+		this.h[5] ^= v5 ^ v13;
+		this.h[6] ^= v6 ^ v14;
+		this.h[7] ^= v7 ^ v15;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		Blake2s result = (Blake2s) super.clone();
+		result.h = this.h.clone();
+		result.m = new int[16];
+		result.buffer = this.buffer.clone();
+		return result;
+	}
+}
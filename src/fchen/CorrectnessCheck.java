@@ -1,67 +1,271 @@
-package fchen;
-
-/**
- * It checks the correctness of the protocol.
- * 
- * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
- * @author Last revision on 15-01-2020
- * @author Email: chenfeiorange@163.com
- */
-public class CorrectnessCheck {
-	public static void main(String[] args) {
-		String rootDirectory = "D:\\test\\files\\test1"; // This directory contains all files listed below.
-		String[] allFiles = { "a", "aaa", "ab1", "b23", "c" };
-
-		DynamicVFS test = new DynamicVFS(rootDirectory, 0.5);
-		test.prepareOutsource();
-		test.outsource();
-
-		System.out.println("The hash tree is as follows:");
-		test.getHashTree().print();
-		System.out.println("query and verification tests:");
-		run(test, allFiles);
-		
-		System.out.println("root value initial:");
-		test.getHashTree().printRoot();
-		
-		System.out.println("\ndelete and add operation tests:\n");
-		String deletedFile = "aaa";
-		byte[] query = test.query(deletedFile);
-		test.delete(query);		
-		test.getHashTree().print();
-		allFiles = new String[] {"a", "aaa", "c"};
-		run(test, allFiles);
-		
-		System.out.println("root value after delete:");
-		test.getHashTree().printRoot();
-		
-		String addedFile = "aaa";
-		query = test.query(addedFile);
-		test.add(query);
-		
-		System.out.println("root value after add:");
-		test.getHashTree().printRoot();
-		
-		allFiles = new String[] {"aaa", "c"};
-		run(test, allFiles);		
-	}
-	
-	private static void run(DynamicVFS protocol, String[] allFiles) {
-		for (String temp : allFiles) {
-			byte[] query = protocol.query(temp);
-			System.out.println("\nthe query file is: " + temp + " ; " + DynamicVFS.bytes2HexString(query));
-
-			ProofData proof = null;
-			proof = protocol.search(query);
-			System.out.println("The proof is:\n");
-			proof.print();
-
-			boolean result = protocol.verify(query, proof);
-			if (result == true)
-				System.out.println("verification succesful. (The cloud is honest.)\n");
-			else
-				System.out.println("verificatio failed. (The cloud cheats.)\n");
-		}
-	}
-
-}
+package fchen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * It checks the correctness of the protocol.
+ * 
+ * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
+ * @author Last revision on 15-01-2020
+ * @author Email: chenfeiorange@163.com
+ */
+public class CorrectnessCheck {
+	public final static int FILE_COUNT = 2000; // generated filenames outsourced by the checks below
+
+	public static void main(String[] args) throws IOException {
+		checkStoreModes();
+		checkParallelBuild();
+		checkBatchUpdates();
+		checkGrowthAndRecovery();
+
+		String rootDirectory = "D:\\test\\files\\test1"; // This directory contains all files listed below.
+		String[] allFiles = { "a", "aaa", "ab1", "b23", "c" };
+
+		DynamicVFS test = new DynamicVFS(rootDirectory, 0.5);
+		test.prepareOutsource();
+		test.outsource();
+
+		System.out.println("The hash tree is as follows:");
+		test.getHashTree().print();
+		System.out.println("query and verification tests:");
+		run(test, allFiles);
+		
+		System.out.println("root value initial:");
+		test.getHashTree().printRoot();
+		
+		System.out.println("\ndelete and add operation tests:\n");
+		String deletedFile = "aaa";
+		byte[] query = test.query(deletedFile);
+		test.delete(query);		
+		test.getHashTree().print();
+		allFiles = new String[] {"a", "aaa", "c"};
+		run(test, allFiles);
+		
+		System.out.println("root value after delete:");
+		test.getHashTree().printRoot();
+		
+		String addedFile = "aaa";
+		query = test.query(addedFile);
+		test.add(query);
+		
+		System.out.println("root value after add:");
+		test.getHashTree().printRoot();
+		
+		allFiles = new String[] {"aaa", "c"};
+		run(test, allFiles);		
+	}
+	
+	private static void run(DynamicVFS protocol, String[] allFiles) {
+		for (String temp : allFiles) {
+			byte[] query = protocol.query(temp);
+			System.out.println("\nthe query file is: " + temp + " ; " + DynamicVFS.bytes2HexString(query));
+
+			ProofData proof = null;
+			proof = protocol.search(query);
+			System.out.println("The proof is:\n");
+			proof.print();
+
+			boolean result = protocol.verify(query, proof);
+			if (result == true)
+				System.out.println("verification succesful. (The cloud is honest.)\n");
+			else
+				System.out.println("verificatio failed. (The cloud cheats.)\n");
+		}
+	}
+
+	/**
+	 * This function checks that the dense, the sparse and the off-heap hash tree
+	 * of the same files have the same root, before and after some deletions and
+	 * additions, and that their proofs verify.
+	 */
+	public static void checkStoreModes() {
+		DynamicVFS dense = new DynamicVFS(null, 0.5);
+		DynamicVFS sparse = new DynamicVFS(null, 0.5);
+		sparse.setSparse(true);
+		DynamicVFS offHeap = new DynamicVFS(null, 0.5);
+		offHeap.setOffHeap(true);
+		DynamicVFS[] protocols = { dense, sparse, offHeap };
+
+		for (DynamicVFS protocol : protocols)
+			outsource(protocol, dense);
+		check(sameRoots(protocols), "dense, sparse and off-heap trees have the same root");
+
+		for (DynamicVFS protocol : protocols) {
+			for (int i = 0; i < 100; i++)
+				protocol.delete(protocol.query(fileName(i)));
+			for (int i = 0; i < 50; i++)
+				protocol.add(protocol.query("added" + i));
+		}
+		check(sameRoots(protocols), "dense, sparse and off-heap trees have the same root after updates");
+
+		for (DynamicVFS protocol : protocols)
+			check(verifies(protocol, 100, FILE_COUNT, 1) && verifies(protocol, 0, 100, 0),
+					"proofs of the dense, sparse and off-heap trees verify");
+	}
+
+	/**
+	 * This function checks that a tree built on several threads has the same root
+	 * as one built on a single thread, for binary and 4-ary trees on and off the
+	 * heap. The table is sized so that the parallel build splits it.
+	 */
+	public static void checkParallelBuild() {
+		for (int arity : new int[] { 2, 4 }) {
+			for (boolean offHeap : new boolean[] { false, true }) {
+				DynamicVFS sequential = new DynamicVFS(null, 0.1);
+				sequential.setArity(arity);
+				sequential.setOffHeap(offHeap);
+				outsource(sequential, sequential);
+
+				DynamicVFS parallel = new DynamicVFS(null, 0.1);
+				parallel.setArity(arity);
+				parallel.setOffHeap(offHeap);
+				parallel.setThreads(4);
+				outsource(parallel, sequential);
+
+				check(parallel.getLeafSize() > (1 << HashTree.SEQUENTIAL_HEIGHT)
+						&& sameRoots(new DynamicVFS[] { sequential, parallel }),
+						"a parallel build gives the root of a sequential one (arity " + arity
+								+ (offHeap ? ", off the heap)" : ")"));
+			}
+		}
+	}
+
+	/**
+	 * This function checks that one batch of deletions and additions gives the
+	 * same root as the same deletions followed by the same additions one by one.
+	 * Some deleted files are added again in the batch.
+	 */
+	public static void checkBatchUpdates() {
+		DynamicVFS sequential = new DynamicVFS(null, 0.1);
+		outsource(sequential, sequential);
+		DynamicVFS batch = new DynamicVFS(null, 0.1);
+		batch.setThreads(4);
+		outsource(batch, sequential);
+
+		byte[][] deletes = new byte[300][];
+		byte[][] adds = new byte[300][];
+		for (int i = 0; i < 300; i++) {
+			deletes[i] = sequential.query(fileName(i));
+			adds[i] = sequential.query((i < 100) ? fileName(i) : "added" + i);
+		}
+
+		for (byte[] query : deletes)
+			sequential.delete(query);
+		for (byte[] query : adds)
+			sequential.add(query);
+		batch.applyBatch(adds, deletes);
+
+		check(sameRoots(new DynamicVFS[] { sequential, batch }),
+				"a batch of updates gives the root of sequential updates");
+		check(verifies(batch, 0, 100, 1) && verifies(batch, 100, 300, 0) && verifies(batch, 300, FILE_COUNT, 1),
+				"proofs verify after a batch of updates");
+	}
+
+	/**
+	 * This function checks that the proofs of old, new and absent files verify
+	 * after every addition while the table grows, and that 'recover()' from the
+	 * update log reproduces the root in the middle of the growth and after it.
+	 */
+	public static void checkGrowthAndRecovery() throws IOException {
+		File treeFile = File.createTempFile("check", ".vfst");
+		File logFile = File.createTempFile("check", ".log");
+		try {
+			DynamicVFS protocol = new DynamicVFS(null, 0.5);
+			protocol.setResizeStep(16);
+			outsource(protocol, protocol);
+			protocol.enableLog(treeFile.getPath(), logFile.getPath());
+			int leafSize = protocol.getLeafSize();
+
+			protocol.grow();
+			boolean valid = protocol.isGrowing();
+			int added = 0;
+			while (protocol.isGrowing() && added < 10 * FILE_COUNT) {
+				byte[] query = protocol.query("grown" + added);
+				protocol.add(query);
+				ProofData proof = protocol.search(query);
+				valid = valid && proof.getExistingFlag() == 1 && protocol.verify(query, proof);
+				valid = valid && verifies(protocol, (7 * added) % FILE_COUNT, (7 * added) % FILE_COUNT + 1, 1);
+				query = protocol.query("absent" + added);
+				proof = protocol.search(query);
+				valid = valid && proof.getExistingFlag() == 0 && protocol.verify(query, proof);
+				added = added + 1;
+
+				if (added == 100) {
+					DynamicVFS recovered = recover(protocol, treeFile, logFile);
+					check(recovered.isGrowing() && sameRoots(new DynamicVFS[] { protocol, recovered }),
+							"recover() reproduces the root while the table grows");
+				}
+			}
+			check(valid && protocol.getLeafSize() == 2 * leafSize, "proofs verify throughout a growth");
+
+			for (int i = 0; i < 100; i++)
+				protocol.delete(protocol.query(fileName(i)));
+			DynamicVFS recovered = recover(protocol, treeFile, logFile);
+			check(sameRoots(new DynamicVFS[] { protocol, recovered }) && recovered.getLeafSize() == 2 * leafSize
+					&& verifies(recovered, 0, 100, 0) && verifies(recovered, 100, FILE_COUNT, 1),
+					"recover() reproduces the root after a growth and updates");
+		} finally {
+			treeFile.delete();
+			logFile.delete();
+		}
+	}
+
+	private static DynamicVFS recover(DynamicVFS protocol, File treeFile, File logFile) {
+		DynamicVFS result = new DynamicVFS(null, 0.5);
+		result.setSecretKey(protocol.getSecretKey());
+		result.recover(treeFile.getPath(), logFile.getPath());
+		return result;
+	}
+
+	/**
+	 * This function outsources FILE_COUNT generated filenames with the secret key
+	 * of 'keyOwner'.
+	 */
+	private static void outsource(DynamicVFS protocol, DynamicVFS keyOwner) {
+		protocol.setSecretKey(keyOwner.getSecretKey());
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < FILE_COUNT; i++)
+			files.add(fileName(i));
+		protocol.prepareOutsource(files.iterator(), files.size());
+		protocol.outsource();
+	}
+
+	private static String fileName(int i) {
+		return "file" + i;
+	}
+
+	private static boolean sameRoots(DynamicVFS[] protocols) {
+		for (DynamicVFS protocol : protocols)
+			if (Arrays.equals(protocol.getHashTree().getRoot(), protocols[0].getHashTree().getRoot()) == false)
+				return false;
+		return true;
+	}
+
+	/**
+	 * This function searches the generated files 'from', ..., 'to' - 1 and tells
+	 * whether every result has the flag 'existingFlag' and verifies.
+	 */
+	private static boolean verifies(DynamicVFS protocol, int from, int to, int existingFlag) {
+		for (int i = from; i < to; i++) {
+			byte[] query = protocol.query(fileName(i));
+			ProofData proof = protocol.search(query);
+			if (proof.getExistingFlag() != existingFlag || protocol.verify(query, proof) == false)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * This function stops the checks at the first failure.
+	 */
+	private static void check(boolean passed, String name) {
+		if (passed == false)
+			throw new IllegalStateException("correctness check failed: " + name);
+		System.out.println("passed: " + name);
+	}
+
+}
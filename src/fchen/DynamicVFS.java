@@ -1,375 +1,2067 @@
-package fchen;
-
-import java.util.*;
-import java.security.*;
-import javax.crypto.*;
-import java.io.*;
-
-/**
- * This class implements the protocol of verifiable encrypted file search on a
- * cloud. The basic tool is the hash authentication tree.
- * 
- * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
- * @author Last revision 15-01-2020
- * @author Email: chenfeiorange@163.com
- *
- */
-public class DynamicVFS {
-	private String rootDirectory = null; // system parameter; files to be outsourced
-	private int hashSize = 32; // system parameter; depends on the HASH algorithm used; 32 * 8byte = 256bits
-	private byte[] specialFile = null; // system parameter; denotes all non-existing files
-
-	private byte[] seed = null; // used for HMAC to protect filename privacy
-	private SecureRandom sr = null; // used for key generator
-	private KeyGenerator kg = null; // key generator to generate a secrete key
-	private SecretKey sk = null; // secret key for HMAC
-	private Mac mac = null;
-
-	private MetaProofData[] leafFiles = null; // one part of the outsourced data: index + filename MAC
-	private HashTree ht = null; // the other part of the outsourced data: hash(index + filename MAC)
-	private byte[] root = null; // the root value of the hash tree
-
-	private int currentSize = 0; // performance parameter;
-	private int leafSize = 0; // performance parameter; 8 * # of maximal files
-	private int treeHeight = 0;
-	private int treeSize = 0;
-	private double loadFactor = 0.1; // performance parameter;
-	private byte[] visited = null; // indicating whether an index has been used when allocating indices
-
-	/**
-	 * It constructs the main object.
-	 * 
-	 * @param rootDirectory - the directory to be outsourced
-	 */
-	public DynamicVFS(String rootDirectory) {
-		super();
-		this.rootDirectory = rootDirectory;
-
-		this.specialFile = new byte[this.hashSize];
-		for (int i = 0; i < this.hashSize; i++)
-			this.specialFile[i] = 0;
-
-		this.loadFactor = 0.1;
-		this.KeyGen();
-
-		try {
-			this.sr = new SecureRandom(this.seed);
-			this.kg = KeyGenerator.getInstance("HmacSHA256");
-			this.kg.init(this.sr);
-			this.sk = kg.generateKey();
-			this.mac = Mac.getInstance("HmacSHA256");
-			this.mac.init(sk);
-		} catch (Exception e) {
-			System.out.println("Error occured when initializing HmacSHA256.");
-		}
-	}
-
-	public DynamicVFS(String rootDirectory, double loadFactor) {
-		super();
-		this.rootDirectory = rootDirectory;
-
-		this.specialFile = new byte[this.hashSize];
-		for (int i = 0; i < this.hashSize; i++)
-			this.specialFile[i] = 0;
-
-		this.loadFactor = loadFactor;
-		this.KeyGen();
-
-		try {
-			this.sr = new SecureRandom(this.seed);
-			this.kg = KeyGenerator.getInstance("HmacSHA256");
-			this.kg.init(this.sr);
-			this.sk = kg.generateKey();
-			this.mac = Mac.getInstance("HmacSHA256");
-			this.mac.init(sk);
-		} catch (Exception e) {
-			System.out.println("Error occured when initializing HmacSHA256.");
-		}
-	}
-
-	/**
-	 * This function generates the secret key used in the protocol. We fix the
-	 * secret key in the experiments; in practice, this is set by the data owner.
-	 */
-	public void KeyGen() {
-		this.seed = new byte[32];
-		for (int i = 0; i < this.seed.length; i++)
-			this.seed[i] = (byte) 0xff;
-	}
-
-	/**
-	 * The function does some preparation work for outsourceing. This is used for
-	 * performance evaluation.
-	 */
-	public void prepareOutsource() {
-		// leaf node of the hash tree: index + filename HMAC + hash value of the above
-		// two
-		// two hash functions will be used to find the index in the hash tree.
-		// h_1(x) = x % hash_tree_size
-		// h_2(x) = 11 * x + 100 % hash_tree_size
-		File directory = new File(this.rootDirectory);
-		String[] allFiles = directory.list();
-
-		this.currentSize = allFiles.length;
-		this.treeHeight = (int) Math.ceil(Math.log(this.currentSize / this.loadFactor) / Math.log(2));
-		this.leafSize = (int) Math.pow(2, this.treeHeight);
-		this.treeSize = 2 * this.leafSize - 1;
-		this.visited = new byte[this.leafSize];
-
-		for (int i = 0; i < this.leafSize; i++)
-			this.visited[i] = 0;
-
-		this.leafFiles = new MetaProofData[this.leafSize];
-
-		// for those empty slots in the leaf nodes, assign the MAC value all zero which is regarded as special non-existing file MACs.
-		for (int i = 0; i < this.leafSize; i++)
-			this.leafFiles[i] = new MetaProofData(i, this.specialFile, 0);				
-
-		for (String file : allFiles) {
-			byte[] fileMac = this.mac.doFinal(file.getBytes());
-
-			int index = 0;
-			index = ((int) fileMac[0]) + (((int) fileMac[1]) << 8) + (((int) fileMac[2]) << 16)
-					+ (((int) fileMac[3]) << 24); // a bug is fixed here
-			index = Math.abs(index) % this.leafSize; // h_1
-
-			if (visited[index] == 1) {
-				index = ((int) fileMac[4]) + (((int) fileMac[5]) << 8) + (((int) fileMac[6]) << 16)
-						+ (((int) fileMac[7]) << 24);
-				index = Math.abs(index) % this.leafSize; // h_2
-			}
-
-			while (visited[index] == 1) {
-				index = (index + 101) % this.leafSize; // probing hashes; this should seldom happen.
-			}
-
-			for (int i = 0; i < fileMac.length; i++)
-				this.leafFiles[index].setFilename(fileMac);
-
-			visited[index] = 1;
-		}
-	}
-
-	/**
-	 * This function helps a data owner outsource the data. The data owner only
-	 * keeps the secret key and the root value of the hash tree.
-	 */
-	public void outsource() {
-		this.ht = new HashTree(this.treeHeight, this.leafFiles);
-		this.ht.build();
-		this.root = this.ht.getRoot();
-	}
-
-	/**
-	 * This function helps a data user generate a query token when he wants to fetch
-	 * a file from the cloud.
-	 * 
-	 * @param file
-	 *            - the filename of the queried file
-	 * @return - its MAC
-	 */
-	public byte[] query(String file) {
-		byte[] fileMac = this.mac.doFinal(file.getBytes());
-
-		return fileMac;
-	}
-
-	/**
-	 * This function helps a cloud answer a query of a data user by searching all
-	 * the files.
-	 * 
-	 * @param queryFile - a query token send by the data user
-	 * @return the query result represented by the data class 'ProofData'
-	 */
-	public ProofData search(byte[] queryFile) {
-		int index = 0;
-		index = ((int) queryFile[0]) + (((int) queryFile[1]) << 8) + (((int) queryFile[2]) << 16)
-				+ (((int) queryFile[3]) << 24);
-		index = Math.abs(index) % this.leafSize;
-
-		ProofData proof = new ProofData(queryFile);
-		MetaProofData tuple = null;
-		int flag = 0; // used to choose proper index
-
-		while (flag == 0 || flag == 1) {
-			tuple = (ht.getLeaf())[index];			
-			tuple.setAuthenticationPath(this.ht.getAuthenticationPath(index));			
-			proof.addProofData(tuple);
-			
-			byte[] filename = tuple.getFilename();
-			int state = tuple.getState();
-			
-			if (Arrays.equals(filename, queryFile)) {				
-				proof.setExistingFlag(1);
-				flag = 2; // file exists
-			} else if (Arrays.equals(filename, this.specialFile) && state == 0) {
-				proof.setExistingFlag(0);
-				flag = 3; // file does not exist				
-			} else if (flag == 0) {
-				index = ((int) queryFile[4]) + (((int) queryFile[5]) << 8) + (((int) queryFile[6]) << 16)
-						+ (((int) queryFile[7]) << 24);
-				index = Math.abs(index) % this.leafSize; // h_2
-				flag = 1; // change index
-			} else
-				index = (index + 101) % this.leafSize; // probing hashes; this should seldom happen.
-		}
-
-		return proof;
-	}
-
-	/**
-	 * This function helps a data user to check whether the returned result from the
-	 * cloud is correct.
-	 * 
-	 * @param queryFile - the query token sent to the cloud by the data user
-	 * @param proof - the returned result from the cloud
-	 * @return true if the cloud is honest; false if the cloud cheats
-	 */
-	public boolean verify(byte[] queryFile, ProofData proof) {
-		int cheatFlag = 0;
-
-		if (proof.getExistingFlag() == 1) // file exists
-		{
-			if (Arrays.equals(proof.getQueryFile(), queryFile) == false
-					|| proof.validate(this.leafSize, this.root) == false)
-				cheatFlag = cheatFlag + 1;
-
-			int lastIndex = proof.getTotalItems() - 1;
-			MetaProofData last = proof.getAuthentication(lastIndex);
-			if (Arrays.equals(last.getFilename(), queryFile) == false || last.getState() != 0)
-				cheatFlag = cheatFlag + 1;
-
-			if (cheatFlag == 0)
-				return true;
-			else
-				return false;
-		} else {
-			if (Arrays.equals(proof.getQueryFile(), queryFile) == false
-					|| proof.validate(this.leafSize, this.root) == false)
-				cheatFlag = cheatFlag + 1;
-
-			int lastIndex = proof.getTotalItems() - 1;
-			MetaProofData last = proof.getAuthentication(lastIndex);
-			if (Arrays.equals(last.getFilename(), this.specialFile) == false || last.getState() != 0)
-				cheatFlag = cheatFlag + 1;
-
-			if (cheatFlag == 0)
-				return true;
-			else {
-				System.out.println("cheatFlag: " + cheatFlag);
-				return false;
-			}				
-		}
-	}
-
-	/**
-	 * Delete a file in the outsourced data. It first searches whether the file exisits.
-	 * If the file does exist, find it, update its state to 1 and its filename to the
-	 * special filename, and update the hash tree.
-	 * @param queryFile - the pseudorandom filename masked by a MAC
-	 */
-	public void delete(byte[] queryFile){
-		ProofData proof = this.search(queryFile);
-		if (proof.getExistingFlag() == 0)
-				return;
-		
-		int temp = proof.getTotalItems();
-		MetaProofData deletedFile = proof.getAuthentication(temp - 1);
-		deletedFile.setState(1);
-		deletedFile.setFilename(this.specialFile);
-		this.ht.update(deletedFile.getIndex(), deletedFile);
-		this.root = this.ht.getRoot(); //a bug later found
-	}
-	
-	/**
-	 * Add a new file in the outsourced data. It first searches whether the file exisits.
-	 * If the file does not exist, find a suitable slot in the search path and update this
-	 * slot, and update the hash tree.
-	 * @param queryFile - the pseudorandom filename masked by a MAC
-	 */
-	public void add(byte[] queryFile)
-	{
-		ProofData proof = this.search(queryFile);
-		if (proof.getExistingFlag() == 1)
-				return;
-		
-		int position = -1;
-		// first search whether there is a deleted slot
-		for (int i = 0; i < proof.getTotalItems(); i++) {
-			MetaProofData metaProof = proof.getAuthentication(i);
-			if (metaProof.getState() == 1) {
-				position = metaProof.getIndex();
-				break;
-			}			
-		}
-		
-		//if there is no deleted slot, set the inserted position as the last slot in the searched slots
-		if (position == -1)
-			position = proof.getAuthentication(proof.getTotalItems() - 1).getIndex();
-		
-		MetaProofData addedFile = new MetaProofData(position, queryFile, 0);
-		this.ht.update(position, addedFile);
-		this.root = this.ht.getRoot();
-	}
-	
-	private final static byte[] hex = "0123456789ABCDEF".getBytes();
-
-	/**
-	 * It transforms a byte array into a string in the Hexadecimal format in an
-	 * entry-wise way.
-	 * 
-	 * @param b
-	 *            The byte array.
-	 * @return The hexadecimal string.
-	 */
-	public static String bytes2HexString(byte[] b) {
-		byte[] buff = new byte[2 * b.length];
-		for (int i = 0; i < b.length; i++) {
-			buff[2 * i] = hex[(b[i] >> 4) & 0x0f];
-			buff[2 * i + 1] = hex[b[i] & 0x0f];
-		}
-		return new String(buff);
-	}
-
-	/**
-	 * This function generates a random existing filename. It is used for
-	 * performance evaluation.
-	 * 
-	 * @return - an existing filename
-	 */
-	public String getRandomExistingFile() {
-		File directory = new File(this.rootDirectory);
-		String[] allFiles = directory.list();
-
-		int r = (int) Math.floor(Math.random() * allFiles.length);
-		return allFiles[r];
-	}
-
-	/**
-	 * This function generates a random non-existing filename. It is used for
-	 * performance evaluation.
-	 * 
-	 * @return - a non-existing filename
-	 */
-	public String getRandomNonExistingFile() {
-		int r = (int) Math.floor(Math.random() * 1000);
-		return String.valueOf(r) + "?!";
-	}
-
-	public double getLoadFactor() {
-		return this.currentSize / this.leafSize;
-
-	}
-
-	public int getTreeSize() {
-		return this.treeSize;
-	}
-
-	public HashTree getHashTree() {
-		return ht;
-	}
-
-	public void setHashTree(HashTree ht) {
-		this.ht = ht;
-	}
-}
+package fchen;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.security.*;
+import javax.crypto.*;
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * This class implements the protocol of verifiable encrypted file search on a
+ * cloud. The basic tool is the hash authentication tree.
+ * 
+ * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
+ * @author Last revision 15-01-2020
+ * @author Email: chenfeiorange@163.com
+ *
+ */
+public class DynamicVFS {
+	public final static int BATCH_SIZE = 4096; // filenames read and HMACed per step when outsourcing
+	public final static int RESIZE_STEP = 1024; // old slots migrated per update while the table grows
+
+	private String rootDirectory = null; // system parameter; files to be outsourced
+	private int hashSize = 32; // system parameter; depends on the HASH algorithm used; 32 * 8byte = 256bits
+	private byte[] specialFile = null; // system parameter; denotes all non-existing files
+
+	private byte[] seed = null; // used for HMAC to protect filename privacy
+	private SecureRandom sr = null; // used for key generator
+	private KeyGenerator kg = null; // key generator to generate a secrete key
+	private SecretKey sk = null; // secret key for HMAC
+	private Mac mac = null;
+	private ThreadLocal<Mac> threadMac = null; // one HMAC instance per thread; they all share 'sk'
+
+	private LeafStore leafFiles = null; // one part of the outsourced data: index + filename MAC
+	private volatile HashTree ht = null; // the other part of the outsourced data: hash(index + filename MAC)
+	private volatile HashTree nextHt = null; // the table with twice the slots while the table grows; null otherwise
+	private volatile byte[] nextRoot = null; // the root value of 'nextHt'
+	private volatile long resizeEpoch = 0; // odd while the tables are switched or new versions published; written under 'lock'
+	private int resizeCursor = 0; // the old slots below it have been migrated to 'nextHt'
+	private TreeFile treeFile = null; // the file the hash tree is mapped from, if any
+	private UpdateLog log = null; // write-ahead log of slot changes, if enabled
+	private String checkpointFile = null; // the tree file written by checkpoints
+	private volatile long checkpointSequence = 0; // number of the last log record in the checkpoint
+	private int checkpointInterval = 0; // log records between automatic checkpoints; 0 for none
+	private volatile byte[] root = null; // the root value of the hash tree
+	private volatile Frontier frontier = null; // the upper tree levels cached by the data user, if any
+	private volatile ProofCache proofCache = null; // recent search results of the cloud, if enabled
+	private ReentrantLock lock = new ReentrantLock(); // serializes updates; searches read pinned tree versions without it
+	private VFSMetrics metrics = new VFSMetrics(this); // latencies, probe lengths and occupancy
+
+	private int currentSize = 0; // performance parameter; number of outsourced files
+	private int usedSize = 0; // occupied or deleted slots of the table receiving additions
+	private int deletedSize = 0; // deleted slots of the table receiving additions
+	private int leafSize = 0; // performance parameter; 8 * # of maximal files; number of leaves
+	private int bucketSize = 1; // performance parameter; slots per leaf, proved by one path
+	private int maxProbes = 0; // performance parameter; most leaves probed per search; 0 for no bound
+	private int probeBound = 0; // the 'maxProbes' the files of the table are placed with; see 'initTable()'
+	private int treeHeight = 0;
+	private int treeSize = 0;
+	private double loadFactor = 0.1; // performance parameter;
+	private byte[] visited = null; // indicating whether an index has been used when allocating indices
+	private boolean offHeap = false; // performance parameter; keep the hash tree nodes outside the Java heap
+	private boolean sparse = false; // performance parameter; store only the tree nodes above non-empty slots
+	private boolean packedLeaves = true; // performance parameter; keep the leaf tuples packed, not one object per slot
+	private int threads = 1; // performance parameter; threads used for outsourcing
+	private boolean compactProof = false; // performance parameter; return sibling-only authentication paths
+	private double growThreshold = 0.75; // performance parameter; share of used slots that starts growing the table
+	private int resizeStep = RESIZE_STEP; // performance parameter; old slots migrated per update
+	private int frontierLevels = 0; // performance parameter; upper tree levels cached by the data user
+	private int proofCacheSize = 0; // performance parameter; search results cached by the cloud; 0 for none
+	private volatile HashEngine hashEngine = HashEngine.SHA256; // performance parameter; hash function of the tree
+	private volatile int arity = 2; // performance parameter; children per inner node of the tree: 2, 4, 8 or 16
+
+	/**
+	 * It constructs the main object.
+	 * 
+	 * @param rootDirectory - the directory to be outsourced
+	 */
+	public DynamicVFS(String rootDirectory) {
+		super();
+		this.rootDirectory = rootDirectory;
+
+		this.specialFile = new byte[this.hashSize];
+		for (int i = 0; i < this.hashSize; i++)
+			this.specialFile[i] = 0;
+
+		this.loadFactor = 0.1;
+		this.KeyGen();
+
+		try {
+			this.sr = new SecureRandom(this.seed);
+			this.kg = KeyGenerator.getInstance("HmacSHA256");
+			this.kg.init(this.sr);
+			this.sk = kg.generateKey();
+			this.mac = Mac.getInstance("HmacSHA256");
+			this.mac.init(sk);
+		} catch (Exception e) {
+			System.out.println("Error occured when initializing HmacSHA256.");
+		}
+		this.threadMac = this.newThreadMac();
+	}
+
+	public DynamicVFS(String rootDirectory, double loadFactor) {
+		super();
+		this.rootDirectory = rootDirectory;
+
+		this.specialFile = new byte[this.hashSize];
+		for (int i = 0; i < this.hashSize; i++)
+			this.specialFile[i] = 0;
+
+		this.loadFactor = loadFactor;
+		this.KeyGen();
+
+		try {
+			this.sr = new SecureRandom(this.seed);
+			this.kg = KeyGenerator.getInstance("HmacSHA256");
+			this.kg.init(this.sr);
+			this.sk = kg.generateKey();
+			this.mac = Mac.getInstance("HmacSHA256");
+			this.mac.init(sk);
+		} catch (Exception e) {
+			System.out.println("Error occured when initializing HmacSHA256.");
+		}
+		this.threadMac = this.newThreadMac();
+	}
+
+	/**
+	 * This function generates the secret key used in the protocol. We fix the
+	 * secret key in the experiments; in practice, this is set by the data owner.
+	 */
+	public void KeyGen() {
+		this.seed = new byte[32];
+		for (int i = 0; i < this.seed.length; i++)
+			this.seed[i] = (byte) 0xff;
+	}
+
+	/**
+	 * This function creates the per-thread HMAC instances, all keyed with 'sk'.
+	 */
+	private ThreadLocal<Mac> newThreadMac() {
+		return new ThreadLocal<Mac>() {
+			@Override
+			protected Mac initialValue() {
+				try {
+					Mac result = Mac.getInstance("HmacSHA256");
+					result.init(sk);
+					return result;
+				} catch (Exception e) {
+					System.out.println("Error occured when initializing HmacSHA256.");
+					return null;
+				}
+			}
+		};
+	}
+
+	/**
+	 * The function does some preparation work for outsourceing. This is used for
+	 * performance evaluation. The directory is streamed twice: once to count the
+	 * files, which fixes the tree size, and once to place them. The whole listing
+	 * is never held in memory.
+	 */
+	public void prepareOutsource() {
+		Path directory = Paths.get(this.rootDirectory);
+
+		int fileCount = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Iterator<Path> it = stream.iterator(); it.hasNext(); it.next())
+				fileCount = fileCount + 1;
+		} catch (Exception e) {
+			System.out.println("Error occured when listing " + this.rootDirectory);
+			System.out.println(e);
+		}
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			final Iterator<Path> paths = stream.iterator();
+			this.prepareOutsource(new Iterator<String>() {
+				public boolean hasNext() {
+					return paths.hasNext();
+				}
+
+				public String next() {
+					return paths.next().getFileName().toString();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			}, fileCount);
+		} catch (Exception e) {
+			System.out.println("Error occured when listing " + this.rootDirectory);
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * The function does some preparation work for outsourcing a stream of
+	 * filenames. The names are consumed in batches of BATCH_SIZE. The HMACs of a
+	 * batch are computed in parallel, each thread with its own Mac, while the
+	 * previous batch is placed. Placement itself is sequential and follows the
+	 * stream order, so the slots are the same as with a single thread.
+	 * 
+	 * @param files     - the filenames to be outsourced
+	 * @param fileCount - the expected number of filenames; it fixes the tree size
+	 */
+	public void prepareOutsource(Iterator<String> files, int fileCount) {
+		// leaf node of the hash tree: index + filename HMAC + hash value of the above
+		// two
+		// two hash functions will be used to find the index in the hash tree.
+		// h_1(x) = x % hash_tree_size
+		// h_2(x) = 11 * x + 100 % hash_tree_size
+		this.initTable(fileCount);
+
+		try {
+			List<byte[]> overflow = this.placeFiles(files, null);
+			while (overflow.isEmpty() == false)
+				overflow = this.enlarge(overflow);
+		} catch (Exception e) {
+			System.out.println("Error occured when outsourcing the files.");
+			System.out.println(e);
+		}
+		this.currentSize = this.usedSize; // the files actually placed, whatever 'fileCount' said
+	}
+
+	/**
+	 * The function does the preparation work for outsourcing files whose HMACs
+	 * are already computed, e.g. by ShardedVFS, which HMACs every filename once
+	 * to route it to a shard. The MACs are placed in list order.
+	 * 
+	 * @param fileMacs - the HMACs of the filenames to be outsourced
+	 */
+	public void prepareOutsourceMacs(List<byte[]> fileMacs) {
+		this.initTable(fileMacs.size());
+
+		List<byte[]> overflow = new ArrayList<byte[]>();
+		for (byte[] fileMac : fileMacs)
+			if (this.place(fileMac) == false)
+				overflow.add(fileMac);
+		while (overflow.isEmpty() == false)
+			overflow = this.enlarge(overflow);
+		this.currentSize = this.usedSize;
+	}
+
+	/**
+	 * This function sizes an empty table for 'fileCount' files. The number of
+	 * outsourced files is set once they are placed.
+	 */
+	private void initTable(int fileCount) {
+		this.currentSize = 0;
+		this.treeHeight = (int) Math.ceil(Math.log(fileCount / (this.loadFactor * this.bucketSize)) / Math.log(2));
+		this.treeHeight = Math.max(1, this.treeHeight);
+		this.leafSize = (int) Math.pow(2, this.treeHeight);
+		this.treeSize = new TreeShape(this.treeHeight, this.arity).getNodeCount();
+		this.visited = new byte[this.slotCount()];
+		this.probeBound = this.maxProbes; // fixed for the table; see 'setMaxProbes()'
+
+		for (int i = 0; i < this.slotCount(); i++)
+			this.visited[i] = 0;
+
+		// for those empty slots in the leaf nodes, assign the MAC value all zero which is regarded as special non-existing file MACs.
+		this.leafFiles = this.emptyLeaves(this.slotCount());
+		this.usedSize = 0;
+		this.deletedSize = 0;
+	}
+
+	/**
+	 * This function outsources a stream of filenames whose table does not fit
+	 * into the heap. The HMACs are computed as in 'prepareOutsource()' and placed
+	 * in the same slots, but the leaves and the tree are built by a TreeBuilder in
+	 * bounded memory and written straight into a tree file, which is then opened
+	 * like with 'open()'. The tree height is not raised if the probed leaves of a
+	 * file are full; set a larger load factor or no 'maxProbes' instead.
+	 * 
+	 * @param files        - the filenames to be outsourced
+	 * @param fileCount    - the number of filenames; it fixes the tree size
+	 * @param file         - the path of the tree file
+	 * @param memoryBudget - bytes the builder may use; see TreeBuilder
+	 */
+	public void outsource(Iterator<String> files, int fileCount, String file, long memoryBudget) {
+		this.lock.lock();
+		try {
+			int treeHeight = (int) Math.ceil(Math.log(fileCount / (this.loadFactor * this.bucketSize)) / Math.log(2));
+			TreeBuilder builder = new TreeBuilder(Math.max(1, treeHeight), this.bucketSize, memoryBudget);
+			builder.setMaxProbes(this.maxProbes);
+			builder.setEngine(this.hashEngine);
+			builder.setArity(this.arity);
+			if (file != null && Paths.get(file).toAbsolutePath().getParent() != null)
+				builder.setTempDirectory(Paths.get(file).toAbsolutePath().getParent().toFile());
+
+			this.placeFiles(files, builder);
+			builder.write(file, this.loadFactor);
+			this.useTreeFile(TreeFile.open(file, true));
+		} catch (Exception e) {
+			System.out.println("Error occured when outsourcing the files to " + file);
+			System.out.println(e);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function HMACs a stream of filenames and places them, into the leaves
+	 * of this table or, if 'builder' is not null, into the builder.
+	 * 
+	 * @return the files whose probed leaves were all full
+	 */
+	private List<byte[]> placeFiles(Iterator<String> files, TreeBuilder builder) throws Exception {
+		ExecutorService executor = null;
+		if (this.threads > 1)
+			executor = Executors.newFixedThreadPool(this.threads);
+
+		List<byte[]> overflow = new ArrayList<byte[]>(); // files whose probed leaves are all full
+		try {
+			String[] batch = nextBatch(files);
+			List<Future<byte[][]>> pending = this.macBatch(batch, executor);
+
+			while (batch.length > 0) {
+				// the HMACs of the next batch are computed while this batch is placed
+				String[] next = nextBatch(files);
+				List<Future<byte[][]>> nextPending = this.macBatch(next, executor);
+
+				for (Future<byte[][]> slice : pending)
+					for (byte[] fileMac : slice.get())
+						if ((builder == null ? this.place(fileMac) : builder.add(fileMac)) == false)
+							overflow.add(fileMac);
+
+				batch = next;
+				pending = nextPending;
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+		return overflow;
+	}
+
+	private static String[] nextBatch(Iterator<String> files) {
+		String[] batch = new String[BATCH_SIZE];
+		int count = 0;
+		while (count < BATCH_SIZE && files.hasNext())
+			batch[count++] = files.next();
+		return Arrays.copyOf(batch, count);
+	}
+
+	/**
+	 * This function splits a batch into one slice per thread and HMACs the slices.
+	 * Without an executor the batch is HMACed on the calling thread.
+	 */
+	private List<Future<byte[][]>> macBatch(final String[] batch, ExecutorService executor) {
+		List<Future<byte[][]>> result = new ArrayList<Future<byte[][]>>();
+		int slices = (executor == null) ? 1 : this.threads;
+		int sliceSize = (batch.length + slices - 1) / slices;
+
+		for (int start = 0; start < batch.length; start = start + sliceSize) {
+			final int first = start;
+			final int end = Math.min(start + sliceSize, batch.length);
+			Callable<byte[][]> task = new Callable<byte[][]>() {
+				public byte[][] call() {
+					Mac mac = threadMac.get();
+					byte[][] macs = new byte[end - first][];
+					for (int i = first; i < end; i++)
+						macs[i - first] = mac.doFinal(batch[i].getBytes());
+					return macs;
+				}
+			};
+
+			if (executor == null) {
+				FutureTask<byte[][]> inline = new FutureTask<byte[][]>(task);
+				inline.run();
+				result.add(inline);
+			} else
+				result.add(executor.submit(task));
+		}
+		return result;
+	}
+
+	/**
+	 * This function places a filename MAC into the first free slot of its probing
+	 * sequence h_1, h_2, h_2 + 101, h_2 + 2 * 101, ... of leaves; the slots of a
+	 * leaf are tried in order.
+	 * 
+	 * @return false if 'maxProbes' leaves are full and the file was not placed
+	 */
+	private boolean place(byte[] fileMac) {
+		int index = 0;
+		index = ((int) fileMac[0]) + (((int) fileMac[1]) << 8) + (((int) fileMac[2]) << 16)
+				+ (((int) fileMac[3]) << 24); // a bug is fixed here
+		index = Math.abs(index) % this.leafSize; // h_1
+
+		int probes = 0;
+		while (true) {
+			probes = probes + 1;
+			for (int slot = index * this.bucketSize; slot < (index + 1) * this.bucketSize; slot++) {
+				if (visited[slot] == 0) {
+					this.leafFiles.set(slot, fileMac, 0);
+
+					visited[slot] = 1;
+					this.usedSize = this.usedSize + 1;
+					return true;
+				}
+			}
+
+			if (this.probeBound > 0 && probes >= this.probeBound)
+				return false;
+
+			if (probes == 1) {
+				index = ((int) fileMac[4]) + (((int) fileMac[5]) << 8) + (((int) fileMac[6]) << 16)
+						+ (((int) fileMac[7]) << 24);
+				index = Math.abs(index) % this.leafSize; // h_2
+			} else
+				index = (index + 101) % this.leafSize; // probing hashes; this should seldom happen.
+		}
+	}
+
+	/**
+	 * This function doubles the number of leaves when some files could not be
+	 * placed within 'maxProbes' leaves, and places all the files again.
+	 * 
+	 * @param overflow - the files that were not placed
+	 * @return the files that still could not be placed
+	 */
+	private List<byte[]> enlarge(List<byte[]> overflow) {
+		LeafStore placed = this.leafFiles;
+
+		this.treeHeight = this.treeHeight + 1;
+		this.leafSize = 2 * this.leafSize;
+		this.treeSize = new TreeShape(this.treeHeight, this.arity).getNodeCount();
+		this.visited = new byte[this.slotCount()];
+		this.leafFiles = this.emptyLeaves(this.slotCount());
+		this.usedSize = 0;
+
+		List<byte[]> result = new ArrayList<byte[]>();
+		for (int i = 0; i < placed.getLeafCount(); i++) {
+			if (placed.isEmpty(i))
+				continue;
+			byte[] fileMac = placed.get(i).getFilename();
+			if (this.place(fileMac) == false)
+				result.add(fileMac);
+		}
+		for (byte[] fileMac : overflow)
+			if (this.place(fileMac) == false)
+				result.add(fileMac);
+		return result;
+	}
+
+	/**
+	 * This function creates the leaf level of an empty table, packed or with one
+	 * tuple object per slot.
+	 * 
+	 * @param slots - number of slots
+	 */
+	private LeafStore emptyLeaves(int slots) {
+		if (this.packedLeaves)
+			return LeafStore.allocate(slots, this.hashSize);
+
+		MetaProofData[] leaves = new MetaProofData[slots];
+		for (int i = 0; i < slots; i++)
+			leaves[i] = new MetaProofData(i, this.specialFile, 0);
+		return LeafStore.wrap(leaves);
+	}
+
+	/**
+	 * This function gets the number of slots of the table.
+	 */
+	private int slotCount() {
+		return this.leafSize * this.bucketSize;
+	}
+
+	/**
+	 * This function helps a data owner outsource the data. The data owner only
+	 * keeps the secret key and the root value of the hash tree.
+	 */
+	public void outsource() {
+		this.lock.lock();
+		try {
+			HashTree table = new HashTree(this.treeHeight, this.leafFiles, this.storeMode(), this.hashEngine,
+					this.arity);
+			table.setMaxProbes(this.probeBound);
+			table.setParallelism(this.threads);
+			table.build();
+			this.visited = null; // only needed for placing the files; the leaves tell the used slots
+
+			this.resizeEpoch++;
+			this.ht = table;
+			this.root = this.ht.getRoot();
+			this.nextHt = null;
+			this.nextRoot = null;
+			this.resizeEpoch++;
+			this.loadFrontier();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	private int storeMode() {
+		if (this.sparse)
+			return HashTree.SPARSE;
+		else if (this.offHeap)
+			return HashTree.OFF_HEAP;
+		else
+			return HashTree.HEAP;
+	}
+
+	/**
+	 * This function saves the outsourced data of the cloud into a tree file, so
+	 * that a restarted cloud can serve it with 'open()' instead of outsourcing the
+	 * files again. A growing table is migrated completely first.
+	 * 
+	 * @param file - the path of the tree file
+	 */
+	public void save(String file) {
+		this.lock.lock();
+		try {
+			this.completeGrowth();
+			TreeVersion version = this.ht.pin();
+			try {
+				TreeFile.write(file, version, this.treeHeight, this.currentSize, this.usedSize, this.loadFactor, 0);
+			} finally {
+				version.release();
+			}
+		} catch (IOException e) {
+			System.out.println("Error occured when saving " + file);
+			System.out.println(e);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function lets a cloud serve the outsourced data saved in a tree file.
+	 * The file is memory-mapped, not read, so searches can start at once; later
+	 * additions and deletions are written through to the file. The secret key is
+	 * not stored in the file: a data owner who queries or verifies after a
+	 * restart must set the saved key with 'setSecretKey()'. Once the table grows,
+	 * the new table lives in memory and must be saved again.
+	 * 
+	 * @param file - the path of the tree file
+	 */
+	public void open(String file) {
+		this.lock.lock();
+		try {
+			this.useTreeFile(TreeFile.open(file, true));
+		} catch (IOException e) {
+			System.out.println("Error occured when opening " + file);
+			System.out.println(e);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function switches to the hash tree of an opened tree file.
+	 */
+	private void useTreeFile(TreeFile treeFile) {
+		this.resizeEpoch++;
+		this.treeFile = treeFile;
+		this.treeHeight = treeFile.getTreeHeight();
+		this.leafSize = treeFile.getLeafSize();
+		this.bucketSize = treeFile.getBucketSize();
+		this.hashEngine = treeFile.getEngine();
+		this.arity = treeFile.getArity();
+		this.maxProbes = treeFile.getMaxProbes();
+		this.probeBound = this.maxProbes;
+		this.treeSize = treeFile.getTree().getTreeSize();
+		this.currentSize = treeFile.getCurrentSize();
+		this.usedSize = (treeFile.getUsedSize() == 0) ? treeFile.getCurrentSize() : treeFile.getUsedSize();
+		this.deletedSize = this.usedSize - this.currentSize;
+		this.loadFactor = treeFile.getLoadFactor();
+		this.leafFiles = null;
+		this.visited = null;
+		this.ht = treeFile.getTree();
+		this.ht.setParallelism(this.threads);
+		this.root = this.ht.getRoot();
+		this.nextHt = null;
+		this.nextRoot = null;
+		this.resizeEpoch++;
+		this.loadFrontier();
+	}
+
+	/**
+	 * This function makes every later addition and deletion durable. The current
+	 * outsourced data are saved as the first checkpoint, and the slot changes of
+	 * every later update are appended to an update log before the update is
+	 * published. An update returns once its records are forced to disk. If the
+	 * log cannot be written or forced, the update fails with an
+	 * IllegalStateException and so does every later one; the cloud must then
+	 * 'recover()'.
+	 * 
+	 * @param file    - the path of the tree file written by checkpoints
+	 * @param logFile - the path of the update log; an existing log is emptied
+	 */
+	public void enableLog(String file, String logFile) {
+		this.lock.lock();
+		try {
+			this.log = new UpdateLog(logFile, this.hashSize);
+			this.log.reset();
+			this.checkpointFile = file;
+			this.checkpoint();
+		} catch (IOException e) {
+			System.out.println("Error occured when opening " + logFile);
+			System.out.println(e);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function lets a restarted cloud recover the outsourced data from the
+	 * last checkpoint and the update log. The tree file is mapped privately, so it
+	 * stays unchanged until the next checkpoint replaces it. Only the log records
+	 * after the checkpoint are replayed, and only the paths of their slots are
+	 * rehashed, all in one batch. If the log shows that the table was growing,
+	 * the growth is resumed. Later updates are logged as after 'enableLog()'.
+	 * 
+	 * @param file    - the path of the tree file written by checkpoints
+	 * @param logFile - the path of the update log
+	 */
+	public void recover(String file, String logFile) {
+		this.lock.lock();
+		try {
+			this.useTreeFile(TreeFile.open(file, FileChannel.MapMode.PRIVATE));
+
+			this.log = new UpdateLog(logFile, this.hashSize);
+			this.checkpointFile = file;
+			this.checkpointSequence = this.treeFile.getSequence();
+			this.log.setSequence(this.checkpointSequence);
+
+			this.replay(this.ht, this.log.getRecords(this.checkpointSequence, false));
+			this.root = this.ht.getRoot();
+			this.loadFrontier();
+
+			List<MetaProofData> nextRecords = this.log.getRecords(this.checkpointSequence, true);
+			if (nextRecords.isEmpty() == false) {
+				// the migration restarts at slot 0; migrated slots are already deleted in the old table
+				this.startGrowth();
+				this.replay(this.nextHt, nextRecords);
+				this.nextRoot = this.nextHt.getRoot();
+			}
+		} catch (IOException e) {
+			System.out.println("Error occured when recovering from " + file + " and " + logFile);
+			System.out.println(e);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function applies replayed log records to one table and rehashes their
+	 * paths in one batch. The counters of files and used slots follow the records.
+	 */
+	private void replay(HashTree table, List<MetaProofData> records) {
+		TreeVersion pending = table.getPending();
+		int[] positions = new int[records.size()];
+		for (int i = 0; i < positions.length; i++) {
+			MetaProofData record = records.get(i);
+			MetaProofData before = pending.getLeaf(record.getIndex());
+			if (before.isEmpty() && record.isEmpty() == false)
+				this.usedSize = this.usedSize + 1;
+			this.currentSize = this.currentSize + isLive(record) - isLive(before);
+			this.deletedSize = this.deletedSize + isDeleted(record) - isDeleted(before);
+
+			positions[i] = record.getIndex();
+			table.setLeaf(record.getIndex(), record); // later records of a slot replace earlier ones
+		}
+		table.update(positions);
+	}
+
+	private static int isLive(MetaProofData tuple) {
+		return (tuple.getState() == 0 && tuple.isEmpty() == false) ? 1 : 0;
+	}
+
+	private static int isDeleted(MetaProofData tuple) {
+		return (tuple.getState() == 1) ? 1 : 0;
+	}
+
+	/**
+	 * This function writes a checkpoint: the newest version of the tree is saved
+	 * into the checkpoint file together with the number of the last log record,
+	 * and the log is emptied. A growing table is migrated completely first.
+	 * Updates wait meanwhile; searches do not.
+	 */
+	public void checkpoint() {
+		if (this.log == null)
+			return;
+
+		this.lock.lock();
+		try {
+			if (this.nextHt != null)
+				this.completeGrowth(); // it writes the checkpoint when done
+			else
+				this.writeCheckpoint();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	private void writeCheckpoint() {
+		try {
+			long sequence = this.log.getSequence();
+			this.log.sync(sequence);
+			TreeVersion version = this.ht.pin();
+			try {
+				TreeFile.write(this.checkpointFile, version, this.treeHeight, this.currentSize, this.usedSize,
+						this.loadFactor, sequence);
+			} finally {
+				version.release();
+			}
+			this.log.reset();
+			this.checkpointSequence = sequence;
+		} catch (IOException e) {
+			System.out.println("Error occured when writing the checkpoint " + this.checkpointFile);
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * This function appends the staged tuples of the changed slots of both tables
+	 * to the update log as one frame, one record per slot.
+	 * 
+	 * @return the number of the last appended record; 0 without a log
+	 * @throws IOException if the frame could not be appended
+	 */
+	private long logSlots(int[] positions, int count, int[] nextPositions, int nextCount) throws IOException {
+		if (this.log == null)
+			return 0;
+
+		List<MetaProofData> tuples = stagedTuples(this.ht, positions, count);
+		List<MetaProofData> nextTuples = stagedTuples(this.nextHt, nextPositions, nextCount);
+		return this.log.append(tuples, nextTuples);
+	}
+
+	private static List<MetaProofData> stagedTuples(HashTree table, int[] positions, int count) {
+		Set<Integer> slots = new LinkedHashSet<Integer>();
+		for (int i = 0; i < count; i++)
+			slots.add(positions[i]);
+
+		List<MetaProofData> tuples = new ArrayList<MetaProofData>(slots.size());
+		if (slots.isEmpty())
+			return tuples;
+
+		TreeVersion pending = table.getPending();
+		for (int position : slots)
+			tuples.add(pending.getLeaf(position));
+		return tuples;
+	}
+
+	/**
+	 * This function waits until the log records of an update are durable. It is
+	 * called after the update lock is released, so concurrent updates share one
+	 * force of the log. It also writes an automatic checkpoint when due.
+	 * 
+	 * @throws IllegalStateException if the log could not be forced; the update is
+	 *                               published but may be lost in a crash
+	 */
+	private void commit(long sequence) {
+		if (this.log == null || sequence == 0)
+			return;
+
+		try {
+			this.log.sync(sequence);
+		} catch (IOException e) {
+			throw new IllegalStateException("the update log could not be forced", e);
+		}
+		if (this.checkpointInterval > 0 && this.nextHt == null
+				&& sequence - this.checkpointSequence >= this.checkpointInterval)
+			this.checkpoint();
+	}
+
+	/**
+	 * This function helps a data user generate a query token when he wants to fetch
+	 * a file from the cloud.
+	 * 
+	 * @param file
+	 *            - the filename of the queried file
+	 * @return - its MAC
+	 */
+	public byte[] query(String file) {
+		byte[] fileMac = this.threadMac.get().doFinal(file.getBytes());
+
+		return fileMac;
+	}
+
+	/**
+	 * This function helps a cloud answer a query of a data user by searching all
+	 * the files. It pins the newest version of the hash tree, so it takes no lock,
+	 * is never blocked by updates, and all probed slots of the result are proved
+	 * against the same root. While the table grows, both tables are searched and
+	 * the result in the old table is attached to the result in the new one.
+	 * 
+	 * With a proof cache (see 'setProofCacheSize()'), a result still valid for
+	 * the newest version is returned without probing. The cache is not used
+	 * while the table grows.
+	 * 
+	 * @param queryFile - a query token send by the data user
+	 * @return the query result represented by the data class 'ProofData'
+	 */
+	public ProofData search(byte[] queryFile) {
+		long startTime = System.nanoTime();
+		ProofData result = this.searchTables(queryFile);
+		this.metrics.recordProbes(result.getTotalItems() / this.bucketSize);
+		this.metrics.record(VFSMetrics.SEARCH, startTime, 0);
+		return result;
+	}
+
+	private ProofData searchTables(byte[] queryFile) {
+		long epoch = this.resizeEpoch;
+		ProofCache cache = ((epoch & 1) == 0 && this.nextHt == null) ? this.proofCache : null;
+		long change = 0;
+		if (cache != null) {
+			ProofData cached = cache.get(queryFile);
+			if (cached != null && epoch == this.resizeEpoch)
+				return cached;
+			change = cache.begin(); // before pinning, see 'ProofCache.put()'
+		}
+
+		TreeVersion[] versions = this.pinTables();
+		try {
+			if (versions[1] == null) {
+				ProofData result = this.probe(queryFile, true, versions[0], this.cachedLevels());
+				if (cache != null && epoch == this.resizeEpoch)
+					cache.put(queryFile, result, versions[0].getBucketSize(), change);
+				return result;
+			}
+
+			ProofData proof = this.probe(queryFile, true, versions[0]);
+
+			ProofData result = this.probe(queryFile, true, versions[1]);
+			result.setOldTableProof(proof);
+			if (proof.getExistingFlag() == 1)
+				result.setExistingFlag(1);
+			return result;
+		} finally {
+			release(versions);
+		}
+	}
+
+	/**
+	 * This function pins the newest versions of the table and, while it grows, of
+	 * the new table. The old table is pinned first: a migration step publishes the
+	 * new table before the old one, so a migrated file is found in at least one of
+	 * the pinned versions. If the tables are switched or an update is published
+	 * meanwhile, it tries again; so the pinned versions belong to the roots seen
+	 * by getRoots() and verify() at the same epoch.
+	 * 
+	 * @return the pinned versions of the table and of the new table (or null)
+	 */
+	private TreeVersion[] pinTables() {
+		while (true) {
+			long epoch = this.resizeEpoch;
+			HashTree table = this.ht;
+			HashTree next = this.nextHt;
+			TreeVersion[] versions = { table.pin(), (next == null) ? null : next.pin() };
+			if ((epoch & 1) == 0 && epoch == this.resizeEpoch)
+				return versions;
+			release(versions);
+		}
+	}
+
+	/**
+	 * This function gets the root of the table and, while it grows, of the new
+	 * table (or null), as one consistent pair.
+	 */
+	byte[][] getRoots() {
+		while (true) {
+			long epoch = this.resizeEpoch;
+			byte[][] roots = { this.root, this.nextRoot };
+			if ((epoch & 1) == 0 && epoch == this.resizeEpoch)
+				return roots;
+		}
+	}
+
+	/**
+	 * This function gets the number of upper tree levels left out of the paths of
+	 * a proof, since the data user caches them; 0 while the table grows.
+	 */
+	private int cachedLevels() {
+		Frontier current = this.frontier;
+		return (current == null) ? 0 : current.getLevels();
+	}
+
+	private static void release(TreeVersion[] versions) {
+		for (TreeVersion version : versions)
+			if (version != null)
+				version.release();
+	}
+
+	/**
+	 * This function walks the probing sequence of a query token until it reaches
+	 * a leaf holding the queried MAC or an empty slot. All the slots of every
+	 * probed leaf are returned, in order; only the first slot of a leaf carries
+	 * the authentication path of the leaf. The search stops as well after
+	 * 'maxProbes' leaves, which proves that the file does not exist, or when every
+	 * leaf has been probed; then the table is full and the result cannot be proved.
+	 *
+	 * @param queryFile - a query token send by the data user
+	 * @param withPath  - whether to attach the authentication paths
+	 * @param version   - the pinned version of the tree to read
+	 * @return the probed slots, with the existing flag set
+	 */
+	private ProofData probe(byte[] queryFile, boolean withPath, TreeVersion version) {
+		return this.probe(queryFile, withPath, version, 0);
+	}
+
+	/**
+	 * This function walks the probing sequence like 'probe(queryFile, withPath,
+	 * version)'. If 'levels' is positive, the paths are compact and stop below the
+	 * upper 'levels' levels cached by the data user.
+	 */
+	private ProofData probe(byte[] queryFile, boolean withPath, TreeVersion version, int levels) {
+		int leafSize = version.getLeafSize();
+		int bucketSize = version.getBucketSize();
+		int maxProbes = version.getMaxProbes();
+		int index = 0;
+		index = ((int) queryFile[0]) + (((int) queryFile[1]) << 8) + (((int) queryFile[2]) << 16)
+				+ (((int) queryFile[3]) << 24);
+		index = Math.abs(index) % leafSize;
+
+		ProofData proof = new ProofData(queryFile);
+		int flag = 0; // used to choose proper index
+		int probes = 0;
+
+		while (flag == 0 || flag == 1) {
+			boolean found = false;
+			boolean empty = false;
+			for (int slot = index * bucketSize; slot < (index + 1) * bucketSize; slot++) {
+				MetaProofData tuple = version.getLeaf(slot);
+				// a copy of the leaf tuple; the shared leaf level is never written by a search
+				tuple = new MetaProofData(slot, tuple.getFilename(), tuple.getState());
+				if (withPath) {
+					if (slot > index * bucketSize)
+						tuple.setAuthenticationPath(new byte[0][]); // the path of the leaf is in its first slot
+					else if (levels > 0)
+						tuple.setAuthenticationPath(version.getSiblingPath(index, version.getTree().getDepth() - levels));
+					else if (this.compactProof)
+						tuple.setAuthenticationPath(version.getSiblingPath(index));
+					else
+						tuple.setAuthenticationPath(version.getAuthenticationPath(index));
+					tuple.setCompact(this.compactProof || levels > 0);
+				}
+				proof.addProofData(tuple);
+
+				found = found || Arrays.equals(tuple.getFilename(), queryFile);
+				empty = empty || (Arrays.equals(tuple.getFilename(), this.specialFile) && tuple.getState() == 0);
+			}
+			probes = probes + 1;
+
+			if (found) {
+				proof.setExistingFlag(1);
+				flag = 2; // file exists
+			} else if (empty) {
+				proof.setExistingFlag(0);
+				flag = 3; // file does not exist				
+			} else if (probes == maxProbes) {
+				proof.setExistingFlag(0);
+				flag = 4; // the probing sequence ends; file does not exist
+			} else if (probes > leafSize) {
+				proof.setExistingFlag(0);
+				flag = 5; // every leaf probed; the table is full
+			} else if (flag == 0) {
+				index = ((int) queryFile[4]) + (((int) queryFile[5]) << 8) + (((int) queryFile[6]) << 16)
+						+ (((int) queryFile[7]) << 24);
+				index = Math.abs(index) % leafSize; // h_2
+				flag = 1; // change index
+			} else
+				index = (index + 101) % leafSize; // probing hashes; this should seldom happen.
+		}
+
+		return proof;
+	}
+
+	/**
+	 * This function helps a data user to check whether the returned result from the
+	 * cloud is correct.
+	 * 
+	 * @param queryFile - the query token sent to the cloud by the data user
+	 * @param proof - the returned result from the cloud
+	 * @return true if the cloud is honest; false if the cloud cheats
+	 */
+	public boolean verify(byte[] queryFile, ProofData proof) {
+		// the state of the data user; it is switched as a whole when the table grows
+		long epoch = 0;
+		byte[] root = null;
+		byte[] nextRoot = null;
+		Frontier frontier = null;
+		int leafSize = 0;
+		HashEngine engine = null;
+		int arity = 0;
+		do {
+			epoch = this.resizeEpoch;
+			root = this.root;
+			nextRoot = this.nextRoot;
+			frontier = this.frontier;
+			leafSize = this.leafSize;
+			engine = this.hashEngine;
+			arity = this.arity;
+		} while ((epoch & 1) == 1 || epoch != this.resizeEpoch);
+
+		return this.verify(queryFile, proof, root, nextRoot, frontier, leafSize, engine, arity);
+	}
+
+	/**
+	 * This function verifies a search result against roots given by the caller
+	 * instead of the roots kept by this object, e.g. shard roots that ShardedVFS
+	 * has checked against its own root. The cached upper levels are used only if
+	 * they belong to 'root'.
+	 * 
+	 * @param queryFile - the query token sent to the cloud by the data user
+	 * @param proof - the returned result from the cloud
+	 * @param root - the root of the table
+	 * @param nextRoot - the root of the new table while the table grows; null otherwise
+	 * @return true if the cloud is honest; false if the cloud cheats
+	 */
+	boolean verify(byte[] queryFile, ProofData proof, byte[] root, byte[] nextRoot) {
+		long epoch = 0;
+		Frontier frontier = null;
+		int leafSize = 0;
+		HashEngine engine = null;
+		int arity = 0;
+		do {
+			epoch = this.resizeEpoch;
+			frontier = this.frontier;
+			leafSize = this.leafSize;
+			engine = this.hashEngine;
+			arity = this.arity;
+		} while ((epoch & 1) == 1 || epoch != this.resizeEpoch);
+
+		if (frontier != null && Arrays.equals(frontier.getRoot(), root) == false)
+			frontier = null;
+		return this.verify(queryFile, proof, root, nextRoot, frontier, leafSize, engine, arity);
+	}
+
+	private boolean verify(byte[] queryFile, ProofData proof, byte[] root, byte[] nextRoot, Frontier frontier,
+			int leafSize, HashEngine engine, int arity) {
+		long startTime = System.nanoTime();
+		int cheatFlag = 0;
+
+		ProofData old = proof.getOldTableProof();
+		if (nextRoot == null) {
+			if (old != null || this.checkClaim(queryFile, proof, proof.getExistingFlag()) == false)
+				cheatFlag = cheatFlag + 1;
+			else if (frontier != null && proof.validate(leafSize, this.bucketSize, frontier) == false)
+				cheatFlag = cheatFlag + 1;
+			else if (frontier == null && proof.validate(leafSize, this.bucketSize, arity, root, engine) == false)
+				cheatFlag = cheatFlag + 1;
+		} else {
+			// the table grows; the file may be in either table, and both results are proved
+			int nextFlag = claimedFlag(queryFile, proof);
+			if (old == null || this.checkClaim(queryFile, old, old.getExistingFlag()) == false
+					|| this.checkClaim(queryFile, proof, nextFlag) == false)
+				cheatFlag = cheatFlag + 1;
+			else if (proof.getExistingFlag() != (old.getExistingFlag() | nextFlag))
+				cheatFlag = cheatFlag + 1;
+			else if (old.validate(leafSize, this.bucketSize, arity, root, engine) == false
+					|| proof.validate(2 * leafSize, this.bucketSize, arity, nextRoot, engine) == false)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		this.metrics.record(VFSMetrics.VERIFY, startTime, verifyHashes(proof, arity));
+		if (cheatFlag == 0)
+			return true;
+		else {
+			this.metrics.recordFailure();
+			if (proof.getExistingFlag() != 1)
+				System.out.println("cheatFlag: " + cheatFlag);
+			return false;
+		}
+	}
+
+	/**
+	 * This function counts the hashes a verifier computes for a proof: one per
+	 * probed leaf and one per level of its path, for both tables while the table
+	 * grows.
+	 */
+	private static long verifyHashes(ProofData proof, int arity) {
+		long hashes = 0;
+		for (ProofData p = proof; p != null; p = p.getOldTableProof())
+			for (int i = 0; i < p.getTotalItems(); i++) {
+				MetaProofData tuple = p.getAuthentication(i);
+				byte[][] path = tuple.getAuthenticationPath();
+				if (path == null || path.length == 0)
+					continue; // a later slot of a bucket
+				hashes = hashes + 1 + TreeShape.getPathLevels(path.length, arity, tuple.isCompact());
+			}
+		return hashes;
+	}
+
+	/**
+	 * This function checks the claim of a search result without its proof. The
+	 * last probed leaf must hold the queried MAC (the file exists) or an empty slot
+	 * (the file does not exist). No earlier leaf may hold the queried MAC or an
+	 * empty slot, since the search stops at the first such leaf; otherwise the
+	 * cloud could hide an existing file behind a longer probing sequence. With
+	 * 'maxProbes', a sequence of exactly 'maxProbes' full leaves also proves that
+	 * the file does not exist; the bound is the one the table was built with.
+	 * 
+	 * @param queryFile - the query token sent to the cloud by the data user
+	 * @param proof - the returned result from the cloud
+	 * @param existingFlag - the claimed result; 1 if the file exists
+	 * @return true if the claim is consistent
+	 */
+	private boolean checkClaim(byte[] queryFile, ProofData proof, int existingFlag) {
+		int totalItems = proof.getTotalItems();
+		if (Arrays.equals(proof.getQueryFile(), queryFile) == false || totalItems == 0
+				|| totalItems % this.bucketSize != 0)
+			return false;
+
+		int lastLeaf = totalItems - this.bucketSize; // the first slot of the last probed leaf
+		for (int i = 0; i < lastLeaf; i++) {
+			MetaProofData tuple = proof.getAuthentication(i);
+			if (Arrays.equals(tuple.getFilename(), queryFile) || tuple.isEmpty())
+				return false;
+		}
+
+		boolean found = false;
+		boolean empty = false;
+		for (int i = lastLeaf; i < totalItems; i++) {
+			MetaProofData last = proof.getAuthentication(i);
+			found = found || (Arrays.equals(last.getFilename(), queryFile) && last.getState() == 0);
+			empty = empty || (Arrays.equals(last.getFilename(), this.specialFile) && last.getState() == 0);
+		}
+
+		if (existingFlag == 1) // file exists
+			return found;
+		else if (found)
+			return false;
+		else
+			return empty || totalItems / this.bucketSize == this.ht.getMaxProbes();
+	}
+
+	/**
+	 * This function gets the result shown by the last probed leaf of a proof: 1
+	 * if one of its slots holds the queried MAC; otherwise 0.
+	 */
+	private int claimedFlag(byte[] queryFile, ProofData proof) {
+		for (int i = Math.max(0, proof.getTotalItems() - this.bucketSize); i < proof.getTotalItems(); i++)
+			if (Arrays.equals(proof.getAuthentication(i).getFilename(), queryFile))
+				return 1;
+		return 0;
+	}
+
+	/**
+	 * This function helps a cloud answer many queries at once. The probed slots
+	 * of all queries are authenticated by one multi-proof, in which every tree
+	 * node needed by more than one query appears only once.
+	 * 
+	 * @param queryFiles - the query tokens send by the data user
+	 * @return the query results and their common proof
+	 */
+	public MultiProofData searchBatch(byte[][] queryFiles) {
+		TreeVersion[] versions = this.pinTables();
+		try {
+			if (versions[1] == null)
+				return this.probeBatch(queryFiles, versions[0], this.cachedLevels());
+
+			MultiProofData proof = this.probeBatch(queryFiles, versions[0], 0);
+
+			MultiProofData result = this.probeBatch(queryFiles, versions[1], 0);
+			result.setOldTableProof(proof);
+			for (int i = 0; i < queryFiles.length; i++)
+				if (proof.getResult(i).getExistingFlag() == 1)
+					result.getResult(i).setExistingFlag(1);
+			return result;
+		} finally {
+			release(versions);
+		}
+	}
+
+	/**
+	 * This function probes many queries in one version and collects the tree
+	 * nodes that authenticate all the probed leaves up to depth 'levels'.
+	 */
+	private MultiProofData probeBatch(byte[][] queryFiles, TreeVersion version, int levels) {
+		ProofData[] results = new ProofData[queryFiles.length];
+		int count = 0;
+		for (int i = 0; i < queryFiles.length; i++) {
+			results[i] = this.probe(queryFiles[i], false, version);
+			count = count + results[i].getTotalItems();
+		}
+
+		int[] leafIndices = new int[count];
+		count = 0;
+		for (ProofData result : results)
+			for (int i = 0; i < result.getTotalItems(); i++)
+				leafIndices[count++] = result.getAuthentication(i).getIndex() / version.getBucketSize();
+
+		int[] nodes = version.getTree().getMultiProofNodes(leafIndices, levels);
+		byte[][] hashes = new byte[nodes.length][];
+		for (int i = 0; i < nodes.length; i++)
+			hashes[i] = version.getNode(nodes[i]);
+
+		return new MultiProofData(results, nodes, hashes);
+	}
+
+	/**
+	 * This function helps a data user to check the results of a batch search.
+	 * 
+	 * @param queryFiles - the query tokens sent to the cloud by the data user
+	 * @param proof - the returned results from the cloud
+	 * @return true if the cloud is honest for all queries; false if it cheats
+	 */
+	public boolean verifyBatch(byte[][] queryFiles, MultiProofData proof) {
+		if (proof.getTotalResults() != queryFiles.length)
+			return false;
+
+		long epoch = 0;
+		byte[] root = null;
+		byte[] nextRoot = null;
+		Frontier frontier = null;
+		int leafSize = 0;
+		int treeHeight = 0;
+		HashEngine engine = null;
+		int arity = 0;
+		do {
+			epoch = this.resizeEpoch;
+			root = this.root;
+			nextRoot = this.nextRoot;
+			frontier = this.frontier;
+			leafSize = this.leafSize;
+			treeHeight = this.treeHeight;
+			engine = this.hashEngine;
+			arity = this.arity;
+		} while ((epoch & 1) == 1 || epoch != this.resizeEpoch);
+
+		MultiProofData old = proof.getOldTableProof();
+		if (nextRoot == null) {
+			if (old != null)
+				return false;
+			for (int i = 0; i < queryFiles.length; i++)
+				if (this.checkClaim(queryFiles[i], proof.getResult(i), proof.getResult(i).getExistingFlag()) == false)
+					return false;
+
+			if (frontier != null)
+				return proof.validate(leafSize, treeHeight, this.bucketSize, frontier);
+			return proof.validate(leafSize, treeHeight, this.bucketSize, arity, root, engine);
+		}
+
+		// the table grows; the file may be in either table, and both results are proved
+		if (old == null || old.getTotalResults() != queryFiles.length)
+			return false;
+		for (int i = 0; i < queryFiles.length; i++) {
+			ProofData oldResult = old.getResult(i);
+			ProofData result = proof.getResult(i);
+			int nextFlag = claimedFlag(queryFiles[i], result);
+			if (this.checkClaim(queryFiles[i], oldResult, oldResult.getExistingFlag()) == false
+					|| this.checkClaim(queryFiles[i], result, nextFlag) == false
+					|| result.getExistingFlag() != (oldResult.getExistingFlag() | nextFlag))
+				return false;
+		}
+
+		return old.validate(leafSize, treeHeight, this.bucketSize, arity, root, engine)
+				&& proof.validate(2 * leafSize, treeHeight + 1, this.bucketSize, arity, nextRoot, engine);
+	}
+
+	/**
+	 * Delete a file in the outsourced data. It first searches whether the file exisits.
+	 * If the file does exist, find it, update its state to 1 and its filename to the
+	 * special filename, and update the hash tree.
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 */
+	public void delete(byte[] queryFile){
+		long startTime = System.nanoTime();
+		long hashes = this.apply(new byte[0][], new byte[][] { queryFile });
+		this.metrics.record(VFSMetrics.DELETE, startTime, hashes);
+	}
+	
+	/**
+	 * Add a new file in the outsourced data. It first searches whether the file exisits.
+	 * If the file does not exist, find a suitable slot in the search path and update this
+	 * slot, and update the hash tree.
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 */
+	public void add(byte[] queryFile)
+	{
+		long startTime = System.nanoTime();
+		long hashes = this.apply(new byte[][] { queryFile }, new byte[0][]);
+		this.metrics.record(VFSMetrics.ADD, startTime, hashes);
+	}
+
+	/**
+	 * Add and delete many files at once. All slots are resolved and changed first,
+	 * the deletions before the additions; then every changed tree node is hashed
+	 * exactly once, level by level, and a single new tree version and root are
+	 * published; searches keep reading the previous version meanwhile. The tree
+	 * hashing runs on 'threads' threads.
+	 * @param adds - the pseudorandom filenames to be added
+	 * @param deletes - the pseudorandom filenames to be deleted
+	 */
+	public void applyBatch(byte[][] adds, byte[][] deletes) {
+		this.apply(adds, deletes);
+	}
+
+	/**
+	 * This function applies additions and deletions to the table and, while it
+	 * grows, to the new table: a file is deleted from the table that holds it, and
+	 * a new file is added to the new table. Afterwards, a growing table migrates
+	 * 'resizeStep' more slots; otherwise the growth starts once more than
+	 * 'growThreshold' of the slots are used, or at once if a new file finds all
+	 * its probed leaves full.
+	 * 
+	 * @return the number of leaf and node hashes computed
+	 */
+	private long apply(byte[][] adds, byte[][] deletes) {
+		long sequence = 0;
+		long hashes = 0;
+		this.lock.lock();
+		try {
+			HashTree[] tables = { this.ht, this.nextHt };
+			hashes = -hashCount(tables[0]) - hashCount(tables[1]);
+			int[] sizes = { this.currentSize, this.usedSize, this.deletedSize }; // restored if the update is not logged
+
+			int[] positions = new int[adds.length + deletes.length];
+			int[] nextPositions = new int[adds.length + deletes.length];
+			int count = 0;
+			int nextCount = 0;
+
+			for (byte[] queryFile : deletes) {
+				int position = this.deleteSlot(this.ht, queryFile);
+				if (position != -1)
+					positions[count++] = position;
+				else if (this.nextHt != null) {
+					position = this.deleteSlot(this.nextHt, queryFile);
+					if (position != -1)
+						nextPositions[nextCount++] = position;
+				}
+			}
+			for (byte[] queryFile : adds) {
+				if (this.nextHt == null) {
+					int position = this.addSlot(this.ht, queryFile);
+					if (position >= 0) {
+						positions[count++] = position;
+						continue;
+					} else if (position == -1)
+						continue; // the file exists
+
+					// all the probed leaves are full; the file goes to a larger table
+					this.startGrowth();
+				} else if (this.probe(queryFile, false, this.ht.getPending()).getExistingFlag() == 1)
+					continue;
+
+				int position = this.addSlot(this.nextHt, queryFile);
+				if (position >= 0)
+					nextPositions[nextCount++] = position;
+				else if (position == -2)
+					System.out.println("Error occured when adding a file: all its probed leaves are full.");
+			}
+
+			try {
+				sequence = this.publish(positions, count, nextPositions, nextCount);
+			} catch (IllegalStateException e) {
+				if (this.nextHt == tables[1]) { // no growth started by this update
+					this.currentSize = sizes[0];
+					this.usedSize = sizes[1];
+					this.deletedSize = sizes[2];
+				}
+				throw e;
+			}
+			if (this.nextHt != null)
+				sequence = Math.max(sequence, this.migrate(this.resizeStep));
+			else if (this.growThreshold < 1 && this.usedSize > this.growThreshold * this.slotCount())
+				this.startGrowth();
+			this.writeSizes();
+
+			hashes = hashes + hashCount(tables[0]) + hashCount(tables[1]);
+			if (this.nextHt != tables[1])
+				hashes = hashes + hashCount(this.nextHt); // a table created by this update
+		} finally {
+			this.lock.unlock();
+		}
+		this.commit(sequence);
+		return hashes;
+	}
+
+	/**
+	 * This function writes the counters of files and used slots through to the
+	 * header of the mapped tree file, as an update does with its nodes and
+	 * leaves. While the table grows they describe both tables, and the file is
+	 * given up once the growth is done, so they are not written then.
+	 */
+	private void writeSizes() {
+		if (this.treeFile != null && this.nextHt == null)
+			this.treeFile.setSizes(this.currentSize, this.usedSize);
+	}
+
+	private static long hashCount(HashTree table) {
+		return (table == null) ? 0 : table.getHashCount();
+	}
+
+	/**
+	 * This function logs the changed slots of both tables as one frame and then
+	 * rehashes their paths. The new table is published before the old one, so a
+	 * file moved between them is always found by 'pinTables()'. If the frame
+	 * cannot be logged, the staged slots are dropped and nothing is published.
+	 * 
+	 * @return the number of the last appended log record; 0 without a log
+	 * @throws IllegalStateException if the frame could not be logged; the log is
+	 *                               broken then and accepts no more updates
+	 */
+	private long publish(int[] positions, int count, int[] nextPositions, int nextCount) {
+		long sequence = 0;
+		try {
+			sequence = this.logSlots(positions, count, nextPositions, nextCount); // one frame and one force
+		} catch (IOException e) {
+			this.ht.discard();
+			if (this.nextHt != null)
+				this.nextHt.discard();
+			throw new IllegalStateException("the update log failed; the update is not applied", e);
+		}
+		TreeVersion nextVersion = null;
+		if (nextCount > 0) {
+			this.nextHt.setParallelism(this.threads);
+			nextVersion = this.nextHt.prepare(Arrays.copyOf(nextPositions, nextCount));
+		}
+		TreeVersion version = null;
+		Frontier frontier = this.frontier;
+		if (count > 0) {
+			this.ht.setParallelism(this.threads);
+			version = this.ht.prepare(Arrays.copyOf(positions, count));
+			frontier = this.refreshFrontier(version, positions, count);
+		}
+
+		// the versions, the roots and the frontier change at once for the readers; see 'pinTables()'
+		this.resizeEpoch++;
+		if (nextVersion != null) {
+			this.nextHt.publish(); // before the table, so a migrated file is always found
+			this.nextRoot = nextVersion.getRoot();
+		}
+		if (version != null) {
+			this.ht.publish();
+			this.root = version.getRoot(); //a bug later found
+			boolean levelsChanged = this.cachedLevels() != ((frontier == null) ? 0 : frontier.getLevels());
+			this.frontier = frontier;
+
+			ProofCache cache = this.proofCache;
+			if (levelsChanged)
+				this.resetProofCache();
+			else if (cache != null)
+				cache.invalidate(positions, count, this.bucketSize);
+		}
+		this.resizeEpoch++;
+
+		if (nextVersion != null)
+			this.nextHt.collect();
+		if (version != null)
+			this.ht.collect();
+		return sequence;
+	}
+
+	/**
+	 * This function fetches the upper 'frontierLevels' levels of the newest
+	 * version of the table and checks them against the root. A frontier that does
+	 * not lead to the root is dropped, and the cloud returns whole paths again.
+	 * The proof cache is emptied, since its paths may have another length.
+	 */
+	private void loadFrontier() {
+		if (this.frontierLevels <= 0 || this.ht == null) {
+			this.frontier = null;
+			this.resetProofCache();
+			return;
+		}
+
+		TreeVersion version = this.ht.pin();
+		try {
+			this.frontier = Frontier.load(version, this.frontierLevels, this.root);
+		} finally {
+			version.release();
+		}
+		if (this.frontier == null)
+			System.out.println("Error occured when loading the frontier: it does not lead to the root.");
+		this.resetProofCache();
+	}
+
+	/**
+	 * This function replaces the proof cache by an empty one for the current
+	 * table, whose results are invalidated by the subtrees below the frontier.
+	 */
+	private void resetProofCache() {
+		if (this.proofCacheSize <= 0 || this.ht == null)
+			this.proofCache = null;
+		else
+			this.proofCache = new ProofCache(this.proofCacheSize, this.ht.getShape(), this.cachedLevels());
+	}
+
+	/**
+	 * This function makes the cached upper levels for 'version', the not yet
+	 * published version of the table in which the slots at 'positions' changed.
+	 * Only the frontier nodes above them are fetched again. If the result does
+	 * not lead to the new root, the frontier is loaded from scratch.
+	 * 
+	 * @return the new frontier, or null without one
+	 */
+	private Frontier refreshFrontier(TreeVersion version, int[] positions, int count) {
+		Frontier current = this.frontier;
+		if (current == null)
+			return null;
+
+		int[] leaves = new int[count];
+		for (int i = 0; i < count; i++)
+			leaves[i] = positions[i] / this.bucketSize;
+
+		byte[] newRoot = version.getRoot();
+		Frontier result = current.update(version, leaves, count, newRoot);
+		if (result == null) {
+			System.out.println("Error occured when updating the frontier: it does not lead to the root.");
+			result = Frontier.load(version, this.frontierLevels, newRoot);
+			if (result == null)
+				System.out.println("Error occured when loading the frontier: it does not lead to the root.");
+		}
+		return result;
+	}
+
+	/**
+	 * This function moves the files of the next 'slots' slots of the table into
+	 * the new table; each moved slot is marked as deleted. When every slot has
+	 * been visited, the new table replaces the table.
+	 * 
+	 * @param slots - number of slots of the table to visit
+	 * @return the number of the last appended log record; 0 without a log
+	 */
+	private long migrate(int slots) {
+		TreeVersion pending = this.ht.getPending();
+		int end = (int) Math.min((long) this.resizeCursor + Math.max(slots, 1), this.slotCount());
+		int[] positions = new int[end - this.resizeCursor];
+		int[] nextPositions = new int[end - this.resizeCursor];
+		int count = 0;
+		int nextCount = 0;
+
+		for (int i = this.resizeCursor; i < end; i++) {
+			MetaProofData tuple = pending.getLeaf(i);
+			if (isLive(tuple) == 0)
+				continue;
+
+			int position = this.addSlot(this.nextHt, tuple.getFilename());
+			if (position >= 0)
+				nextPositions[nextCount++] = position;
+			else if (position == -2) {
+				System.out.println("Error occured when migrating a file: all its probed leaves are full.");
+				continue;
+			}
+
+			this.ht.setLeaf(i, new MetaProofData(i, this.specialFile, 1));
+			this.currentSize = this.currentSize - 1;
+			positions[count++] = i;
+		}
+
+		long sequence = this.publish(positions, count, nextPositions, nextCount);
+		this.resizeCursor = end;
+		if (this.resizeCursor == this.slotCount())
+			this.finishGrowth();
+		return sequence;
+	}
+
+	/**
+	 * This function starts growing the table: an empty table with twice the slots
+	 * is created, whose tree is filled with the known hashes of empty subtrees
+	 * instead of being hashed. From now on, additions go to the new table and
+	 * every update migrates some old slots.
+	 */
+	private void startGrowth() {
+		LeafStore leaves = this.emptyLeaves(2 * this.slotCount());
+
+		HashTree table = new HashTree(this.treeHeight + 1, leaves, this.storeMode(), this.ht.getEngine(),
+				this.ht.getArity());
+		table.setMaxProbes(this.ht.getMaxProbes()); // the files keep their probing sequences
+		table.setParallelism(this.threads);
+		table.buildEmpty();
+
+		this.proofCache = null; // a new one is made when the tables are switched
+		this.resizeEpoch++;
+		this.nextHt = table;
+		this.nextRoot = table.getRoot();
+		this.resizeCursor = 0;
+		this.usedSize = 0;
+		this.deletedSize = 0;
+		this.resizeEpoch++;
+	}
+
+	/**
+	 * This function replaces the table by the new table once every old slot has
+	 * been migrated. With an update log, a checkpoint of the new table is written
+	 * at once, since the old checkpoint and log describe the old table.
+	 */
+	private void finishGrowth() {
+		this.resizeEpoch++;
+		this.ht = this.nextHt;
+		this.root = this.nextRoot;
+		this.treeHeight = this.treeHeight + 1;
+		this.leafSize = 2 * this.leafSize;
+		this.treeSize = this.ht.getTreeSize();
+		this.nextHt = null;
+		this.nextRoot = null;
+		this.resizeEpoch++;
+		this.loadFrontier();
+
+		if (this.treeFile != null) {
+			this.treeFile.close(); // the old table stays mapped for pinned readers
+			this.treeFile = null;
+		}
+		if (this.log != null)
+			this.writeCheckpoint();
+	}
+
+	/**
+	 * This function migrates all the remaining slots of a growing table at once.
+	 */
+	public void completeGrowth() {
+		this.lock.lock();
+		try {
+			while (this.nextHt != null)
+				this.migrate(this.slotCount());
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function starts growing the table now, whatever its load. It has no
+	 * effect while the table grows.
+	 */
+	public void grow() {
+		this.lock.lock();
+		try {
+			if (this.nextHt == null)
+				this.startGrowth();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function marks the slot of a file as deleted in the unpublished version
+	 * of the leaf level of a table. The hash tree is not updated.
+	 * @param table - the table or the new table
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 * @return the changed slot, or -1 if the file does not exist
+	 */
+	private int deleteSlot(HashTree table, byte[] queryFile) {
+		ProofData proof = this.probe(queryFile, false, table.getPending());
+		if (proof.getExistingFlag() == 0)
+			return -1;
+
+		int position = -1;
+		for (int i = proof.getTotalItems() - 1; position == -1; i--)
+			if (Arrays.equals(proof.getAuthentication(i).getFilename(), queryFile))
+				position = proof.getAuthentication(i).getIndex();
+		table.setLeaf(position, new MetaProofData(position, this.specialFile, 1));
+		this.currentSize = this.currentSize - 1;
+		if (table == this.nextHt || this.nextHt == null)
+			this.deletedSize = this.deletedSize + 1; // a deletion in the table receiving additions
+		return position;
+	}
+
+	/**
+	 * This function stores a file in a suitable slot of the unpublished version of
+	 * the leaf level of a table. The hash tree is not updated.
+	 * @param table - the table or the new table
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 * @return the changed slot, -1 if the file already exists, or -2 if all the
+	 *         probed leaves are full
+	 */
+	private int addSlot(HashTree table, byte[] queryFile) {
+		ProofData proof = this.probe(queryFile, false, table.getPending());
+		if (proof.getExistingFlag() == 1)
+			return -1;
+
+		int position = -1;
+		// first search whether there is a deleted slot
+		for (int i = 0; i < proof.getTotalItems(); i++) {
+			MetaProofData metaProof = proof.getAuthentication(i);
+			if (metaProof.getState() == 1) {
+				position = metaProof.getIndex();
+				this.deletedSize = this.deletedSize - 1;
+				break;
+			}			
+		}
+		
+		//if there is no deleted slot, set the inserted position as the first empty slot in the searched slots
+		if (position == -1) {
+			for (int i = 0; i < proof.getTotalItems() && position == -1; i++)
+				if (proof.getAuthentication(i).isEmpty())
+					position = proof.getAuthentication(i).getIndex();
+			if (position == -1)
+				return -2; // the probed leaves are full.
+			this.usedSize = this.usedSize + 1;
+		}
+
+		table.setLeaf(position, new MetaProofData(position, queryFile, 0));
+		this.currentSize = this.currentSize + 1;
+		return position;
+	}
+	
+	private final static byte[] hex = "0123456789ABCDEF".getBytes();
+
+	/**
+	 * It transforms a byte array into a string in the Hexadecimal format in an
+	 * entry-wise way.
+	 * 
+	 * @param b
+	 *            The byte array.
+	 * @return The hexadecimal string.
+	 */
+	public static String bytes2HexString(byte[] b) {
+		byte[] buff = new byte[2 * b.length];
+		for (int i = 0; i < b.length; i++) {
+			buff[2 * i] = hex[(b[i] >> 4) & 0x0f];
+			buff[2 * i + 1] = hex[b[i] & 0x0f];
+		}
+		return new String(buff);
+	}
+
+	/**
+	 * This function generates a random existing filename. It is used for
+	 * performance evaluation.
+	 * 
+	 * @return - an existing filename
+	 */
+	public String getRandomExistingFile() {
+		File directory = new File(this.rootDirectory);
+		String[] allFiles = directory.list();
+
+		int r = (int) Math.floor(Math.random() * allFiles.length);
+		return allFiles[r];
+	}
+
+	/**
+	 * This function generates a random non-existing filename. It is used for
+	 * performance evaluation.
+	 * 
+	 * @return - a non-existing filename
+	 */
+	public String getRandomNonExistingFile() {
+		int r = (int) Math.floor(Math.random() * 1000);
+		return String.valueOf(r) + "?!";
+	}
+
+	/**
+	 * This function gets the share of slots holding a file.
+	 */
+	public double getLoadFactor() {
+		return (double) this.currentSize / this.slotCount();
+
+	}
+
+	public int getTreeSize() {
+		return this.treeSize;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * This function chooses where the hash tree nodes are stored. It takes effect
+	 * on the next call of 'outsource()'.
+	 * 
+	 * @param offHeap - true for direct buffers outside the Java heap; false for one big heap array
+	 */
+	public void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	public boolean isPackedLeaves() {
+		return packedLeaves;
+	}
+
+	/**
+	 * This function chooses how the cloud keeps the leaf tuples: packed, with all
+	 * MACs in one byte region and the states in a bit set (the default), or as one
+	 * MetaProofData object per slot. Tuple objects of the packed mode are only
+	 * created when a leaf is read, e.g. for a proof. It takes effect on the next
+	 * call of 'prepareOutsource()' and when the table grows.
+	 * 
+	 * @param packedLeaves - true for the packed mode
+	 */
+	public void setPackedLeaves(boolean packedLeaves) {
+		this.packedLeaves = packedLeaves;
+	}
+
+	/**
+	 * This function chooses the sparse tree mode, in which only the nodes on the
+	 * paths to occupied or deleted slots are stored and hashed. It takes effect on
+	 * the next call of 'outsource()' and overrides 'offHeap'.
+	 * 
+	 * @param sparse - true for the sparse mode
+	 */
+	public void setSparse(boolean sparse) {
+		this.sparse = sparse;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * This function sets the number of threads used for outsourcing.
+	 * 
+	 * @param threads - number of threads; 1 for a sequential outsourcing
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public boolean isCompactProof() {
+		return compactProof;
+	}
+
+	/**
+	 * This function chooses the form of the authentication paths returned by
+	 * 'search()'. A compact path holds only the sibling at every level and no root,
+	 * which halves the proof size and the hashing work of the verifier.
+	 * 
+	 * @param compactProof - true for compact paths; false for the full paths
+	 */
+	public void setCompactProof(boolean compactProof) {
+		this.compactProof = compactProof;
+		ProofCache cache = this.proofCache;
+		if (cache != null)
+			cache.clear();
+	}
+
+	public HashTree getHashTree() {
+		return ht;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * This function sets how often a checkpoint is written automatically.
+	 * 
+	 * @param checkpointInterval - number of log records between checkpoints; 0 to
+	 *                           write checkpoints only by calling 'checkpoint()'
+	 */
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public UpdateLog getUpdateLog() {
+		return log;
+	}
+
+	public TreeFile getTreeFile() {
+		return treeFile;
+	}
+
+	public SecretKey getSecretKey() {
+		return sk;
+	}
+
+	/**
+	 * This function replaces the secret key for HMAC, e.g. by a key saved before
+	 * a restart.
+	 * 
+	 * @param sk - the secret key
+	 */
+	public void setSecretKey(SecretKey sk) {
+		this.sk = sk;
+		try {
+			this.mac = Mac.getInstance("HmacSHA256");
+			this.mac.init(sk);
+		} catch (Exception e) {
+			System.out.println("Error occured when initializing HmacSHA256.");
+		}
+		this.threadMac = this.newThreadMac();
+	}
+
+	public void setHashTree(HashTree ht) {
+		this.ht = ht;
+	}
+
+	public int getLeafSize() {
+		return leafSize;
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	public int getBucketSize() {
+		return bucketSize;
+	}
+
+	/**
+	 * This function sets how many slots a leaf holds. The slots of a leaf are
+	 * returned and proved together with one authentication path, so a collision
+	 * inside a leaf costs one slot instead of one more path. It takes effect on
+	 * the next call of 'prepareOutsource()', which then sizes the tree for
+	 * 'loadFactor' of the slots.
+	 * 
+	 * @param bucketSize - number of slots per leaf; 1 for one slot per leaf
+	 */
+	public void setBucketSize(int bucketSize) {
+		this.bucketSize = bucketSize;
+	}
+
+	public int getMaxProbes() {
+		return maxProbes;
+	}
+
+	/**
+	 * This function bounds the probing sequence. A search stops after 'maxProbes'
+	 * leaves, so a proof holds at most 'maxProbes' paths; a new file whose probed
+	 * leaves are all full makes the table grow. Like the bucket size, it takes
+	 * effect on the next call of 'prepareOutsource()': the bound of an outsourced
+	 * table is kept by its hash tree and its tree file and does not change while
+	 * it grows, since a smaller bound would hide the files placed deeper in their
+	 * probing sequence.
+	 * 
+	 * @param maxProbes - most leaves probed per search; 0 for no bound
+	 */
+	public void setMaxProbes(int maxProbes) {
+		this.maxProbes = maxProbes;
+	}
+
+	public int getFrontierLevels() {
+		return frontierLevels;
+	}
+
+	/**
+	 * This function lets the data user cache the upper levels of the hash tree.
+	 * The nodes of depth 'frontierLevels' are fetched and checked against the
+	 * root once, and kept up to date on every addition and deletion. The cloud
+	 * then returns compact paths that stop below the cached levels, which saves
+	 * 'frontierLevels' hashes per path in the proof and in its verification. The
+	 * cache holds 2^(frontierLevels + 1) - 1 hashes; while the table grows,
+	 * whole paths are returned.
+	 * 
+	 * @param frontierLevels - number of cached levels below the root; 0 for none
+	 */
+	public void setFrontierLevels(int frontierLevels) {
+		this.lock.lock();
+		try {
+			this.frontierLevels = frontierLevels;
+			this.loadFrontier();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public Frontier getFrontier() {
+		return frontier;
+	}
+
+	public HashEngine getHashEngine() {
+		return hashEngine;
+	}
+
+	/**
+	 * This function chooses the hash function of the tree; see HashEngine. It
+	 * takes effect when the files are outsourced next; a tree opened from a file
+	 * keeps the hash function recorded there, and a growing table keeps its own.
+	 * 
+	 * @param hashEngine - e.g. HashEngine.SHA256 (the default) or HashEngine.BLAKE2S
+	 */
+	public void setHashEngine(HashEngine hashEngine) {
+		this.hashEngine = hashEngine;
+	}
+
+	public int getArity() {
+		return arity;
+	}
+
+	/**
+	 * This function chooses the number of children per inner node of the tree.
+	 * A larger arity gives a lower tree, so fewer hashes per update and per
+	 * verification, but every level of a path holds arity - 1 siblings instead
+	 * of one. Like the hash function, it takes effect when the files are
+	 * outsourced next; a tree opened from a file keeps the arity recorded there.
+	 * The data user must verify with the arity of the tree.
+	 * 
+	 * @param arity - 2 (the default), 4, 8 or 16
+	 */
+	public void setArity(int arity) {
+		if (TreeShape.isValidArity(arity) == false)
+			throw new IllegalArgumentException("unsupported arity " + arity);
+		this.arity = arity;
+	}
+
+	public int getProofCacheSize() {
+		return proofCacheSize;
+	}
+
+	/**
+	 * This function lets the cloud cache the results of recent searches, keyed by
+	 * the query token. An update drops only the results over the subtrees below
+	 * the frontier it changes (see 'setFrontierLevels()'); without a frontier, the
+	 * paths reach the root and every update drops all results. Every hit gets its
+	 * own copy of the cached result.
+	 * 
+	 * @param proofCacheSize - most results kept; 0 for no cache
+	 */
+	public void setProofCacheSize(int proofCacheSize) {
+		this.lock.lock();
+		try {
+			this.proofCacheSize = proofCacheSize;
+			if (this.nextHt == null)
+				this.resetProofCache();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * This function gets the proof cache with its hit and miss counters.
+	 * 
+	 * @return the cache, or null if it is disabled or the table grows
+	 */
+	public ProofCache getProofCache() {
+		return proofCache;
+	}
+
+	public int getCurrentSize() {
+		return currentSize;
+	}
+
+	public int getUsedSize() {
+		return usedSize;
+	}
+
+	public int getDeletedSize() {
+		return deletedSize;
+	}
+
+	/**
+	 * This function gets the metrics of this instance; register them with
+	 * 'getMetrics().register(name)' to read them through JMX.
+	 */
+	public VFSMetrics getMetrics() {
+		return metrics;
+	}
+
+	public boolean isGrowing() {
+		return nextHt != null;
+	}
+
+	public double getGrowThreshold() {
+		return growThreshold;
+	}
+
+	/**
+	 * This function sets when the table starts growing to twice its slots.
+	 * 
+	 * @param growThreshold - share of occupied or deleted slots, e.g. 0.75; 1 or
+	 *                      more to never grow automatically
+	 */
+	public void setGrowThreshold(double growThreshold) {
+		this.growThreshold = growThreshold;
+	}
+
+	public int getResizeStep() {
+		return resizeStep;
+	}
+
+	/**
+	 * This function sets how much work an update spends on a growing table.
+	 * 
+	 * @param resizeStep - number of old slots migrated per update
+	 */
+	public void setResizeStep(int resizeStep) {
+		this.resizeStep = resizeStep;
+	}
+}
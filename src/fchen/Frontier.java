@@ -0,0 +1,173 @@
+package fchen;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * This class is the cache of the upper levels of a hash tree kept by a data
+ * user: all the nodes of depth 0 (the root) to 'levels', in the heap layout of
+ * HashTree, so node i of the cache is node i of the tree. The nodes of depth
+ * 'levels', the frontier, are fetched from the cloud once and checked by
+ * hashing them up to the known root. Afterwards a proof may stop at the
+ * frontier: its path holds only the siblings below depth 'levels', and the
+ * verifier compares the node it computes with the cached one. This saves
+ * 'levels' hashes per path and arity - 1 times as many hashes in the proof.
+ *
+ * A frontier is never changed once created; an update makes a new one, so
+ * verifiers can read it without a lock.
+ */
+public class Frontier {
+	private int treeHeight = 0;
+	private TreeShape shape = null; // the levels of the tree
+	private int levels = 0; // depth of the frontier
+	private byte[][] nodes = null; // the nodes of depth 0 to 'levels' of the tree
+	private HashEngine engine = null; // the hash function of the tree
+
+	private Frontier(TreeShape shape, int levels, HashEngine engine) {
+		this.treeHeight = shape.getTreeHeight();
+		this.shape = shape;
+		this.levels = levels;
+		this.engine = engine;
+	}
+
+	/**
+	 * This function fetches the frontier of a tree version and checks it against
+	 * the root, with the hash function of the tree.
+	 *
+	 * @param version - the pinned version of the tree
+	 * @param levels  - the depth of the frontier; it is cut to the depth of the tree
+	 * @param root    - the root value known to the data user
+	 * @return the checked cache, or null if the frontier does not lead to the root
+	 */
+	public static Frontier load(TreeVersion version, int levels, byte[] root) {
+		TreeShape shape = version.getTree().getShape();
+		Frontier result = new Frontier(shape, Math.min(levels, shape.getDepth()), version.getTree().getEngine());
+		int first = shape.getLevelStart(result.levels);
+		result.nodes = new byte[first + shape.getLevelSize(result.levels)][];
+
+		for (int i = first; i < result.nodes.length; i++)
+			result.nodes[i] = version.getNode(i);
+
+		MessageDigest md = result.engine.getDigest();
+		for (int i = first - 1; i >= 0; i--)
+			result.nodes[i] = result.hash(md, i, shape.getDepth(i));
+
+		if (Arrays.equals(result.nodes[0], root) == false)
+			return null;
+		return result;
+	}
+
+	/**
+	 * This function makes the cache of a newer version of the tree in which only
+	 * the given leaves changed. Only the frontier nodes above those leaves are
+	 * fetched, and only their ancestors are hashed again.
+	 *
+	 * @param version - the pinned newer version of the tree
+	 * @param leaves  - indices of the changed leaves; duplicates are allowed
+	 * @param count   - number of valid entries in 'leaves'
+	 * @param root    - the new root value known to the data user
+	 * @return the new cache, or null if it does not lead to the root
+	 */
+	public Frontier update(TreeVersion version, int[] leaves, int count, byte[] root) {
+		Frontier result = new Frontier(this.shape, this.levels, this.engine);
+		result.nodes = this.nodes.clone();
+
+		int first = this.shape.getLevelStart(this.levels);
+		int[] level = new int[count];
+		for (int i = 0; i < count; i++)
+			level[i] = first + this.shape.getAncestor(leaves[i], this.levels);
+		Arrays.sort(level);
+
+		int length = 0;
+		for (int i = 0; i < count; i++) // remove duplicates
+			if (length == 0 || level[length - 1] != level[i])
+				level[length++] = level[i];
+
+		for (int i = 0; i < length; i++)
+			result.nodes[level[i]] = version.getNode(level[i]);
+
+		MessageDigest md = this.engine.getDigest();
+		for (int depth = this.levels; depth >= 1; depth--) {
+			int parentCount = 0;
+			for (int i = 0; i < length; i++) {
+				int parent = this.shape.getParent(level[i], depth); // ascending nodes give ascending parents
+				if (parentCount == 0 || level[parentCount - 1] != parent)
+					level[parentCount++] = parent;
+			}
+			length = parentCount;
+
+			for (int i = 0; i < length; i++)
+				result.nodes[level[i]] = result.hash(md, level[i], depth - 1);
+		}
+
+		if (Arrays.equals(result.nodes[0], root) == false)
+			return null;
+		return result;
+	}
+
+	/**
+	 * This function computes a cached node of depth 'depth' from its children.
+	 */
+	private byte[] hash(MessageDigest md, int node, int depth) {
+		int child = this.shape.getFirstChild(node, depth);
+		for (int i = 0; i < this.shape.getFanOut(depth); i++)
+			md.update(this.nodes[child + i]);
+		return md.digest();
+	}
+
+	/**
+	 * This function checks a compact authentication path that may stop at any
+	 * depth up to the frontier. It recomputes the nodes from the leaf upwards,
+	 * one per group of siblings, and compares the last one with the cached node.
+	 *
+	 * @param leafHash    - the value of the authenticated leaf node
+	 * @param index       - the index of the authenticated leaf
+	 * @param siblingPath - the sibling hashes from the bottom upwards
+	 * @return - If it is correct, return true; else false.
+	 */
+	public boolean verify(byte[] leafHash, int index, byte[][] siblingPath) {
+		if (siblingPath == null)
+			return false;
+		int siblings = this.shape.getArity() - 1;
+		int length = (siblingPath.length + siblings - 1) / siblings; // levels of the path
+		int depth = this.shape.getDepth() - length;
+		if (depth < 0 || depth > this.levels || index < 0 || index >= (1 << this.treeHeight))
+			return false;
+		if (siblingPath.length != this.shape.getPathLength(length, true))
+			return false; // only the top level of the tree may have fewer siblings
+
+		byte[] temp = HashTree.climb(leafHash, index, siblingPath, this.shape.getArity(), this.engine);
+		return temp != null && Arrays.equals(temp,
+				this.nodes[this.shape.getLevelStart(depth) + this.shape.getAncestor(index, depth)]);
+	}
+
+	/**
+	 * This function gets a cached node.
+	 *
+	 * @param node - node index; the root is at index 0
+	 * @return - the hash value of the node
+	 */
+	public byte[] getNode(int node) {
+		return nodes[node];
+	}
+
+	public byte[] getRoot() {
+		return nodes[0];
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	public int getArity() {
+		return shape.getArity();
+	}
+
+	public HashEngine getEngine() {
+		return engine;
+	}
+}
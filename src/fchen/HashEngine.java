@@ -0,0 +1,233 @@
+package fchen;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Locale;
+
+/**
+ * This class names the hash function of a tree. It is chosen once when a tree
+ * is created, kept with the tree (and in its tree file), and used for the leaf
+ * values, the inner nodes and the verification of the proofs. Every engine
+ * gives HASH_SIZE bytes, so the node stores and the proof formats do not
+ * depend on it.
+ *
+ * SHA-256 is the default. SHA-512/256 computes SHA-512 on 64-bit words with
+ * another initial value and keeps 32 bytes; it is faster on 64-bit processors
+ * without SHA instructions. BLAKE2s-256 (see Blake2s) is faster still in pure
+ * Java.
+ */
+public class HashEngine {
+	public final static int HASH_SIZE = 32;
+
+	public final static HashEngine SHA256 = new HashEngine(0, "SHA-256");
+	public final static HashEngine SHA512_256 = new HashEngine(1, "SHA-512/256");
+	public final static HashEngine BLAKE2S = new HashEngine(2, "BLAKE2s-256");
+	public final static HashEngine[] ENGINES = { SHA256, SHA512_256, BLAKE2S }; // indexed by the identifier
+
+	private int id = 0; // the identifier saved in tree files
+	private String algorithm = null;
+	private ThreadLocal<Scratch> scratches = null; // one digest and its buffers per thread
+	private volatile byte[] emptyLeaf = null; // the value of an empty leaf node, computed once
+
+	/**
+	 * The working space of one thread on the hashing paths: a reusable digest and
+	 * the buffers that the leaf and node values are digested into, so hashing and
+	 * verifying a path allocate nothing. A buffer holds a value only until the
+	 * next call using it on the same thread; it must never be stored.
+	 */
+	static class Scratch {
+		MessageDigest md = null;
+		byte[] word = new byte[4]; // an index or a state in little-endian order
+		byte[] leaf = new byte[HASH_SIZE]; // a leaf node value
+		byte[] node = new byte[HASH_SIZE]; // a node value computed on a path
+	}
+
+	private HashEngine(int id, String algorithm) {
+		this.id = id;
+		this.algorithm = algorithm;
+		this.scratches = new ThreadLocal<Scratch>() {
+			@Override
+			protected Scratch initialValue() {
+				Scratch scratch = new Scratch();
+				scratch.md = newDigest();
+				return scratch;
+			}
+		};
+	}
+
+	/**
+	 * This function finds an engine by its identifier.
+	 *
+	 * @param id - the identifier, e.g. read from a tree file
+	 * @return the engine, or null if it is unknown
+	 */
+	public static HashEngine get(int id) {
+		return (id >= 0 && id < ENGINES.length) ? ENGINES[id] : null;
+	}
+
+	/**
+	 * This function finds an engine by its algorithm name, e.g. "SHA-512/256".
+	 *
+	 * @return the engine, or null if it is unknown
+	 */
+	public static HashEngine get(String algorithm) {
+		for (HashEngine engine : ENGINES)
+			if (engine.algorithm.equalsIgnoreCase(algorithm))
+				return engine;
+		return null;
+	}
+
+	/**
+	 * This function creates a new digest of this engine.
+	 */
+	public MessageDigest newDigest() {
+		if (this == BLAKE2S)
+			return new Blake2s();
+		try {
+			return MessageDigest.getInstance(this.algorithm);
+		} catch (Exception e) {
+			System.out.println("get " + this.algorithm + " instance error");
+			System.out.println(e);
+			return null;
+		}
+	}
+
+	/**
+	 * This function gets the digest of the current thread. It is reset after
+	 * every digest() call; a caller must finish its digest before it calls any
+	 * other code that may use this one.
+	 */
+	public MessageDigest getDigest() {
+		return this.scratches.get().md;
+	}
+
+	/**
+	 * This function gets the working space of the current thread; see Scratch.
+	 */
+	Scratch getScratch() {
+		return this.scratches.get();
+	}
+
+	/**
+	 * This function gets the value of an empty leaf node. The array is shared; it
+	 * must not be changed.
+	 */
+	byte[] getEmptyLeaf() {
+		byte[] result = this.emptyLeaf;
+		if (result == null) {
+			result = new MetaProofData(0, new byte[HASH_SIZE], 0).generateHash(this);
+			this.emptyLeaf = result;
+		}
+		return result;
+	}
+
+	/**
+	 * This function finishes a digest into a buffer instead of a new array.
+	 *
+	 * @param md     - a digest of this engine
+	 * @param result - the buffer
+	 * @param offset - where the HASH_SIZE bytes of the value start in 'result'
+	 */
+	static void digest(MessageDigest md, byte[] result, int offset) {
+		try {
+			md.digest(result, offset, HASH_SIZE);
+		} catch (DigestException e) {
+			System.out.println("Error occured when finishing a digest into a buffer.");
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * This function measures the throughput of every engine on the current
+	 * thread: bytes per second on 1 MB inputs and inner nodes per second, i.e.
+	 * hashes of two HASH_SIZE-byte children, which is what a tree spends its time
+	 * on.
+	 *
+	 * @param millis - time spent per engine and measure, after a warmup of the same length
+	 * @return one line per engine
+	 */
+	public static String benchmark(long millis) {
+		StringBuilder report = new StringBuilder();
+		for (HashEngine engine : ENGINES) {
+			double[] result = engine.measure(millis);
+			report.append(String.format(Locale.ROOT, "%-12s %10.1f MB/s %12.0f nodes/s%n", engine.algorithm,
+					result[0] / 1e6, result[1]));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * This function gets the engine that hashes the most inner nodes per second
+	 * on this machine.
+	 *
+	 * @param millis - time spent per engine, after a warmup of the same length
+	 */
+	public static HashEngine fastest(long millis) {
+		HashEngine best = SHA256;
+		double bestRate = 0;
+		for (HashEngine engine : ENGINES) {
+			double rate = engine.measure(millis)[1];
+			if (rate > bestRate) {
+				best = engine;
+				bestRate = rate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return {bytes per second, nodes per second}
+	 */
+	private double[] measure(long millis) {
+		MessageDigest md = this.newDigest();
+		byte[] large = new byte[1 << 20];
+		byte[] left = new byte[HASH_SIZE];
+		byte[] right = new byte[HASH_SIZE];
+		double[] result = new double[2];
+
+		for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+			long count = 0;
+			long start = System.nanoTime();
+			long end = start + millis * 1000000L;
+			while (System.nanoTime() < end) {
+				large[0] = md.digest(large)[0];
+				count = count + 1;
+			}
+			result[0] = count * (double) large.length * 1e9 / (System.nanoTime() - start);
+
+			count = 0;
+			start = System.nanoTime();
+			end = start + millis * 1000000L;
+			while (System.nanoTime() < end) {
+				for (int i = 0; i < 1024; i++) {
+					md.update(left);
+					left = md.digest(right);
+				}
+				count = count + 1024;
+			}
+			result[1] = count * 1e9 / (System.nanoTime() - start);
+		}
+		return result;
+	}
+
+	public static void main(String[] args) {
+		System.out.print(benchmark(args.length > 0 ? Long.parseLong(args[0]) : 500));
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public int getHashSize() {
+		return HASH_SIZE;
+	}
+
+	@Override
+	public String toString() {
+		return algorithm;
+	}
+}
@@ -1,257 +1,1210 @@
-package fchen;
-
-import java.security.*;
-import java.util.Arrays;
-
-/**
- * This class implements the hash authentication tree primitive. The hash tree
- * is stored in an array and indexed according to the node position in the
- * complete binary tree. The root node is stored at index 0;
- * 
- * index caculations:
- * 0
- * 1,2
- * 3,4,5,6
- * 7,8,9,10,11,12,13,14
- * Height i, start index 2^i-1, end index 2^i-1+2^i-1, j-th element index 2^i-1+j where 0j2^i-1
- * Height i, Suppose j is even, what are the indices of its children?
- * Left child: 2j +2^i-(j+1) there are 2j elements for the children before j, there are 2^i-(j+1) element after j, thus the index is (2^i-1+j)+(2j) +2^i-(j+1)+1=2^(i+1)+2j-1
- * Right child: 2^(i+1)+2j-1
- * Height i+1, start index 2^(i+1)-1, end index 2^(i+1)-1+2^(i+1)-1, j-th element index 2^(i+1)-1+j where 0j2^(i+1)-1
- * 
- * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
- * @author Last revision on 15-01-2020
- * @author Email: chenfeiorange@163.com
- */
-public class HashTree {
-	private byte[][] ht = null; 
-	// first dimension stores all nodes; second dimension stores the hash value
-	private int treeSize = 0;
-	private int treeHeight = 0;
-	private MetaProofData[] leaf = null;
-	private MessageDigest md = null; // SHA-256 is used here
-
-	/**
-	 * This function constructs the hash authentication tree using the leaf nod
-	 * provided.
-	 * 
-	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
-	 * @param leaf       - The leaf nodes
-	 */
-	public HashTree(int treeHeight, MetaProofData[] leaf) {
-		this.treeHeight = treeHeight;
-		this.treeSize = 2 * (int) Math.pow(2, this.treeHeight) - 1; 	// complete binary tree
-		this.leaf = leaf;
-
-		try {
-			this.md = MessageDigest.getInstance("SHA-256");
-		} catch (Exception e) {
-			System.out.println("get SHA-256 instance error");
-			System.out.println(e);
-		}
-
-		ht = new byte[this.treeSize][];
-		// construct the bottom level of the hash tree
-		int first = (int) Math.pow(2, this.treeHeight) - 1;
-		int end = this.treeSize;
-		for (int i = first; i < end; i++) {
-			ht[i] = leaf[i - first].generateHash();
-		}
-	}
-
-	/**
-	 * This function checks whether an authentication path is correct.
-	 * 
-	 * @param authenticationPath
-	 *            - An authentication path from the bottom to the root. The root
-	 *            value is at the end of the array.
-	 * @param root
-	 *            - The root value of an hash tree.
-	 * @return - If it is correct, return true; else false.
-	 */
-	public static boolean verify(byte[][] authenticationPath, byte[] root) {
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (Exception e) {
-			System.out.println("get SHA-256 instance error - static verify");
-			System.out.println(e);
-		}
-
-		int height = (authenticationPath.length - 1) / 2;
-		byte[] temp = null;
-		int cheatFlag = 0;
-
-		for (int i = 0; i < height - 1; i++) // calculate hash values from the bottom to the top
-		{
-			md.update(authenticationPath[2 * i]);
-			temp = md.digest(authenticationPath[2 * i + 1]);
-
-			if (Arrays.equals(temp, authenticationPath[2 * i + 2]) == false
-					&& Arrays.equals(temp, authenticationPath[2 * i + 3]) == false)
-				cheatFlag = cheatFlag + 1;
-		}
-
-		md.update(authenticationPath[2 * height - 2]);
-		temp = md.digest(authenticationPath[2 * height - 1]);
-
-		if (Arrays.equals(temp, authenticationPath[2 * height]) == false)
-			cheatFlag = cheatFlag + 1;
-
-		if (Arrays.equals(root, authenticationPath[2 * height]) == false)
-			cheatFlag = cheatFlag + 1;
-
-		if (cheatFlag == 0)
-			return true;
-		else
-			return false;
-	}
-
-	/**
-	 * This function builds the whole hash tree from the bottom to the top. The root
-	 * value is at index 0;
-	 */
-	public void build() {
-		for (int height = this.treeHeight - 1; height >= 0; height--) {
-			int first = (int) Math.pow(2, height) - 1;
-			int end = first + (int) Math.pow(2, height);
-
-			for (int i = first; i < end; i++) {
-				this.md.update(ht[2 * i + 1]);
-				ht[i] = this.md.digest(ht[2 * i + 2]);
-			}
-		}
-	}
-	
-	public void update(int position, MetaProofData leaf) {
-		
-		this.leaf[position] = leaf; // a bug found later
-		
-		int first = (int) Math.pow(2, this.treeHeight) - 1;
-		position = position + first;
-		this.ht[position] = leaf.generateHash();
-		
-		for (int height = this.treeHeight; height >= 1; height--) {
-			if (position % 2 == 0)
-				position = position -1;
-			this.md.update(ht[position]);
-			ht[(position - 1)/2] = this.md.digest(ht[position + 1]);
-			position = (position - 1)/2;
-		}
-	}
-
-	/**
-	 * This function gets the root hash value of the hash tree.
-	 * 
-	 * @return - The root hash value
-	 */
-	public byte[] getRoot() {
-		return ht[0];
-	}
-
-	/**
-	 * This function gets the authentication path for the node with index 'index'.
-	 * 
-	 * @param index
-	 *            - The index of the leaf node which is to be authenticated. It
-	 *            starts with 0.
-	 * @return - An authentication path from the bottom to the top, with
-	 *         corresponding index becoming large
-	 */
-	public byte[][] getAuthenticationPath(int index) {
-		byte[][] result = new byte[2 * this.treeHeight + 1][];
-
-		if (index % 2 == 0)
-			index = (int) Math.pow(2, this.treeHeight) - 1 + index;
-		else
-			index = (int) Math.pow(2, this.treeHeight) - 1 + index - 1;
-
-		for (int i = 0; i <= 2 * this.treeHeight - 2; i = i + 2) // note that i = i + 2
-		{
-			result[i] = ht[index];
-			result[i + 1] = ht[index + 1];
-			index = (index - 1) / 2;
-
-			if (index % 2 == 0)
-				index = index - 1;// pay attention; this bug is discovered later
-		}
-
-		result[2 * this.treeHeight] = ht[0]; // pay attention; this bug is discovered later
-
-		return result;
-	}
-
-	/**
-	 * This funtion prints out the whole hash tree.
-	 */
-	public void print() {
-		for (int height = 0; height <= this.treeHeight; height++) {
-			int first = (int) Math.pow(2, height) - 1;
-			int end = first + (int) Math.pow(2, height);
-
-			System.out.println("*******************");
-			System.out.println("height: " + height);
-			for (int i = first; i < end; i++) {
-				System.out.println(DynamicVFS.bytes2HexString(this.ht[i]));
-			}
-			System.out.println("*******************");
-		}
-	}
-	
-	public void printRoot() {
-		System.out.println(DynamicVFS.bytes2HexString(this.ht[0]));
-	}
-	
-	
-
-//	private byte[] int2byteArray(int num) {
-//		byte[] result = new byte[4];
-//
-//		result[3] = (byte) (num >>> 24);
-//		result[2] = (byte) (num >>> 16);
-//		result[1] = (byte) (num >>> 8);
-//		result[0] = (byte) (num);
-//
-//		return result;
-//	}
-
-	public byte[][] getHt() {
-		return ht;
-	}
-
-	public void setHt(byte[][] ht) {
-		this.ht = ht;
-	}
-
-	public int getTreeSize() {
-		return treeSize;
-	}
-
-	public void setTreeSize(int treeSize) {
-		this.treeSize = treeSize;
-	}
-
-	public int getTreeHeight() {
-		return treeHeight;
-	}
-
-	public void setTreeHeight(int treeHeight) {
-		this.treeHeight = treeHeight;
-	}
-
-	public MetaProofData[] getLeaf() {
-		return leaf;
-	}
-
-	public void setLeaf(MetaProofData[] leaf) {
-		this.leaf = leaf;
-	}
-
-	public MessageDigest getMd() {
-		return md;
-	}
-
-	public void setMd(MessageDigest md) {
-		this.md = md;
-	}
-}
+package fchen;
+
+import java.security.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class implements the hash authentication tree primitive. The hash tree
+ * is stored in an array and indexed according to the node position in the
+ * complete binary tree. The root node is stored at index 0;
+ * 
+ * index caculations:
+ * 0
+ * 1,2
+ * 3,4,5,6
+ * 7,8,9,10,11,12,13,14
+ * Height i, start index 2^i-1, end index 2^i-1+2^i-1, j-th element index 2^i-1+j where 0≤j≤2^i-1
+ * Height i, Suppose j is even, what are the indices of its children?
+ * Left child: 2j +2^i-(j+1) there are 2j elements for the children before j, there are 2^i-(j+1) element after j, thus the index is 〖(2〗^i-1+j)+(2j) +2^i-(j+1)+1=2^(i+1)+2j-1
+ * Right child: 2^(i+1)+2j-1
+ * Height i+1, start index 2^(i+1)-1, end index 2^(i+1)-1+2^(i+1)-1, j-th element index 2^(i+1)-1+j where 0≤j≤2^(i+1)-1
+ * 
+ * A tree may have 4, 8 or 16 children per node instead of 2; it has the same
+ * leaves but fewer levels, so fewer hashes per path and per update, at the
+ * cost of larger paths. The nodes are then laid out level by level as given by
+ * TreeShape, which for 2 children is the layout above.
+ * 
+ * A leaf may hold a bucket of several slots: slot s lies in leaf s / bucketSize,
+ * and the slots of a leaf are hashed together. The bucket size is the number of
+ * slot tuples divided by the number of leaves; positions passed to setLeaf() and
+ * update() are slot indices.
+ * 
+ * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
+ * @author Last revision on 15-01-2020
+ * @author Email: chenfeiorange@163.com
+ */
+public class HashTree {
+	public final static int HEAP = 0; // all nodes in one big heap array
+	public final static int OFF_HEAP = 1; // all nodes in direct buffers outside the Java heap
+	public final static int SPARSE = 2; // only nodes above non-empty leaves are stored
+	public final static int MAPPED = 3; // all nodes mapped from a tree file; see TreeFile
+	public final static int SEQUENTIAL_HEIGHT = 10; // subtrees up to this height are built by one worker
+
+
+	private NodeStore ht = null;
+	// all nodes packed in one contiguous region; node i occupies bytes [i * hashSize, (i + 1) * hashSize)
+	private int treeSize = 0;
+	private int treeHeight = 0;
+	private int arity = 2; // children per inner node
+	private TreeShape shape = null; // the levels of the tree
+	private LeafStore leaf = null;
+	private MessageDigest md = null; // a digest of 'engine'
+	private HashEngine engine = HashEngine.SHA256; // the hash function of the leaves and nodes
+	private int hashSize = 32; // depends on the HASH algorithm used
+	private int bucketSize = 1; // slots per leaf
+	private int maxProbes = 0; // most leaves probed per search; 0 for no bound
+	private int storeMode = HEAP;
+	private byte[][] emptyHash = null; // emptyHash[t] is the root of an all-empty subtree with t levels above its leaves
+	private int[] occupied = null; // non-empty leaves collected for a sparse build
+	private int parallelism = 1; // number of threads used by build(); 1 means sequential
+	private volatile TreeVersion current = null; // the newest published version; readers pin it
+	private TreeVersion base = null; // the oldest live version; the node store and the leaf store hold it
+	private TreeVersion pending = null; // the version being written; not yet visible to readers
+	private final LongAdder hashCount = new LongAdder(); // leaf and node hashes computed by build() and update()
+
+	/**
+	 * This function constructs the hash authentication tree using the leaf nod
+	 * provided.
+	 * 
+	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
+	 * @param leaf       - The leaf nodes
+	 */
+	public HashTree(int treeHeight, MetaProofData[] leaf) {
+		this(treeHeight, leaf, false);
+	}
+
+	/**
+	 * This function constructs the hash authentication tree using the leaf nodes
+	 * provided and chooses where the tree nodes are stored.
+	 * 
+	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
+	 * @param leaf       - The leaf nodes
+	 * @param offHeap    - true to keep the nodes in direct buffers outside the Java heap
+	 */
+	public HashTree(int treeHeight, MetaProofData[] leaf, boolean offHeap) {
+		this(treeHeight, leaf, offHeap ? OFF_HEAP : HEAP);
+	}
+
+	/**
+	 * This function constructs the hash authentication tree using the leaf nodes
+	 * provided. In the SPARSE mode only the non-empty leaves (occupied or deleted
+	 * slots) and the nodes on their paths to the root are stored; every other node
+	 * is the precomputed hash of an all-empty subtree of its height. The root and
+	 * the authentication paths are identical to those of the dense modes.
+	 * 
+	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
+	 * @param leaf       - The leaf nodes
+	 * @param storeMode  - HEAP, OFF_HEAP or SPARSE
+	 */
+	public HashTree(int treeHeight, MetaProofData[] leaf, int storeMode) {
+		this(treeHeight, LeafStore.wrap(leaf), storeMode, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function constructs the hash authentication tree using the leaf nodes
+	 * provided and a chosen hash function.
+	 * 
+	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
+	 * @param leaf       - The leaf nodes
+	 * @param storeMode  - HEAP, OFF_HEAP or SPARSE
+	 * @param engine     - the hash function of the leaves and nodes
+	 */
+	public HashTree(int treeHeight, MetaProofData[] leaf, int storeMode, HashEngine engine) {
+		this(treeHeight, LeafStore.wrap(leaf), storeMode, engine, 2);
+	}
+
+	/**
+	 * This function constructs the hash authentication tree over a leaf store.
+	 * 
+	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
+	 * @param leaf       - The leaf nodes
+	 * @param storeMode  - HEAP, OFF_HEAP or SPARSE
+	 */
+	public HashTree(int treeHeight, LeafStore leaf, int storeMode) {
+		this(treeHeight, leaf, storeMode, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function constructs the hash authentication tree over a leaf store
+	 * with a chosen hash function.
+	 * 
+	 * @param treeHeight - This parameter can also be calculated using the size of the leaf nodes.
+	 * @param leaf       - The leaf nodes
+	 * @param storeMode  - HEAP, OFF_HEAP or SPARSE
+	 * @param engine     - the hash function of the leaves and nodes
+	 */
+	public HashTree(int treeHeight, LeafStore leaf, int storeMode, HashEngine engine) {
+		this(treeHeight, leaf, storeMode, engine, 2);
+	}
+
+	/**
+	 * This function constructs a hash authentication tree with 'arity' children
+	 * per inner node over a leaf store.
+	 * 
+	 * @param treeHeight - the tree has 2^treeHeight leaves
+	 * @param leaf       - The leaf nodes
+	 * @param storeMode  - HEAP, OFF_HEAP or SPARSE
+	 * @param engine     - the hash function of the leaves and nodes
+	 * @param arity      - children per inner node: 2, 4, 8 or 16
+	 */
+	public HashTree(int treeHeight, LeafStore leaf, int storeMode, HashEngine engine, int arity) {
+		this.init(treeHeight, leaf, storeMode, engine, arity);
+
+		// the bottom level of the hash tree is constructed in build()
+		int first = this.shape.getLeafStart();
+		int end = this.treeSize;
+		if (this.storeMode == SPARSE) {
+			int count = 0;
+			this.occupied = new int[16];
+			for (int i = first; i < end; i++) {
+				if (this.isEmptyLeaf(i - first) == false) {
+					if (count == this.occupied.length)
+						this.occupied = Arrays.copyOf(this.occupied, 2 * count);
+					this.occupied[count++] = i;
+				}
+			}
+			this.occupied = Arrays.copyOf(this.occupied, count);
+
+			ht = NodeStore.allocateSparse(this.shape, this.emptyHash, count * 2);
+		} else {
+			ht = NodeStore.allocate(this.treeSize, this.hashSize, this.storeMode == OFF_HEAP);
+		}
+
+		this.current = new TreeVersion(this, 0, null);
+		this.base = this.current;
+	}
+
+	/**
+	 * This function constructs a hash authentication tree that has already been
+	 * built, e.g. one opened from a tree file. build() must not be called.
+	 * 
+	 * @param treeHeight - the height of the tree
+	 * @param leaf       - The leaf nodes
+	 * @param store      - all nodes of the tree
+	 * @param engine     - the hash function the nodes were computed with
+	 */
+	public HashTree(int treeHeight, LeafStore leaf, NodeStore store, HashEngine engine) {
+		this(treeHeight, leaf, store, engine, 2);
+	}
+
+	/**
+	 * This function constructs a hash authentication tree with 'arity' children
+	 * per inner node that has already been built. build() must not be called.
+	 * 
+	 * @param treeHeight - the tree has 2^treeHeight leaves
+	 * @param leaf       - The leaf nodes
+	 * @param store      - all nodes of the tree
+	 * @param engine     - the hash function the nodes were computed with
+	 * @param arity      - children per inner node: 2, 4, 8 or 16
+	 */
+	public HashTree(int treeHeight, LeafStore leaf, NodeStore store, HashEngine engine, int arity) {
+		this.init(treeHeight, leaf, MAPPED, engine, arity);
+		this.ht = store;
+
+		this.current = new TreeVersion(this, 0, null);
+		this.base = this.current;
+	}
+
+	private void init(int treeHeight, LeafStore leaf, int storeMode, HashEngine engine, int arity) {
+		this.treeHeight = treeHeight;
+		this.arity = arity;
+		this.shape = new TreeShape(treeHeight, arity);
+		this.treeSize = this.shape.getNodeCount(); 	// complete tree
+		this.leaf = leaf;
+		this.storeMode = storeMode;
+		this.bucketSize = Math.max(1, leaf.getLeafCount() >> treeHeight);
+		this.engine = engine;
+		this.md = engine.newDigest();
+		this.emptyHash = this.shape.emptyHashes(engine);
+	}
+
+	/**
+	 * This function computes the root value of an all-empty subtree for every
+	 * height. Empty leaves do not depend on their index, so one value per height
+	 * suffices.
+	 * 
+	 * @param treeHeight - the height of the whole tree
+	 * @return - an array whose h-th element is the root of an empty subtree of height h
+	 */
+	public static byte[][] emptyHashes(int treeHeight) {
+		return emptyHashes(treeHeight, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function computes the root value of an all-empty subtree for every
+	 * height with a chosen hash function.
+	 * 
+	 * @param treeHeight - the height of the whole tree
+	 * @param engine     - the hash function of the tree
+	 * @return - an array whose h-th element is the root of an empty subtree of height h
+	 */
+	public static byte[][] emptyHashes(int treeHeight, HashEngine engine) {
+		return emptyHashes(treeHeight, 2, engine);
+	}
+
+	/**
+	 * This function computes the root value of an all-empty subtree for every
+	 * level of a tree with 'arity' children per inner node.
+	 * 
+	 * @param treeHeight - the tree has 2^treeHeight leaves
+	 * @param arity      - children per inner node: 2, 4, 8 or 16
+	 * @param engine     - the hash function of the tree
+	 * @return - an array whose t-th element is the root of an empty subtree with t levels above its leaves
+	 */
+	public static byte[][] emptyHashes(int treeHeight, int arity, HashEngine engine) {
+		return new TreeShape(treeHeight, arity).emptyHashes(engine);
+	}
+
+	/**
+	 * This function checks whether an authentication path of a binary tree is
+	 * correct.
+	 * 
+	 * @param authenticationPath
+	 *            - An authentication path from the bottom to the root. The root
+	 *            value is at the end of the array.
+	 * @param root
+	 *            - The root value of an hash tree.
+	 * @return - If it is correct, return true; else false.
+	 */
+	public static boolean verify(byte[][] authenticationPath, byte[] root) {
+		return verify(authenticationPath, root, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function is 'verify(authenticationPath, root)' with a chosen hash
+	 * function.
+	 * 
+	 * @param engine
+	 *            - The hash function of the tree.
+	 */
+	public static boolean verify(byte[][] authenticationPath, byte[] root, HashEngine engine) {
+		HashEngine.Scratch scratch = engine.getScratch();
+		MessageDigest md = scratch.md;
+
+		int height = (authenticationPath.length - 1) / 2;
+		byte[] temp = scratch.node;
+		int cheatFlag = 0;
+
+		for (int i = 0; i < height - 1; i++) // calculate hash values from the bottom to the top
+		{
+			md.update(authenticationPath[2 * i]);
+			md.update(authenticationPath[2 * i + 1]);
+			HashEngine.digest(md, temp, 0);
+
+			if (Arrays.equals(temp, authenticationPath[2 * i + 2]) == false
+					&& Arrays.equals(temp, authenticationPath[2 * i + 3]) == false)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		md.update(authenticationPath[2 * height - 2]);
+		md.update(authenticationPath[2 * height - 1]);
+		HashEngine.digest(md, temp, 0);
+
+		if (Arrays.equals(temp, authenticationPath[2 * height]) == false)
+			cheatFlag = cheatFlag + 1;
+
+		if (Arrays.equals(root, authenticationPath[2 * height]) == false)
+			cheatFlag = cheatFlag + 1;
+
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}
+
+	/**
+	 * This function checks whether an authentication path is correct and whether
+	 * it really belongs to the leaf 'index'. At every level the computed node must
+	 * sit on the side given by the corresponding bit of the index; otherwise a
+	 * path of one leaf could be presented as the path of another leaf.
+	 * 
+	 * @param authenticationPath
+	 *            - An authentication path from the bottom to the root. The root
+	 *            value is at the end of the array.
+	 * @param index
+	 *            - The index of the authenticated leaf.
+	 * @param root
+	 *            - The root value of an hash tree.
+	 * @return - If it is correct, return true; else false.
+	 */
+	public static boolean verify(byte[][] authenticationPath, int index, byte[] root) {
+		return verify(authenticationPath, index, root, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function is 'verify(authenticationPath, index, root)' with a chosen hash
+	 * function.
+	 * 
+	 * @param engine
+	 *            - The hash function of the tree.
+	 */
+	public static boolean verify(byte[][] authenticationPath, int index, byte[] root, HashEngine engine) {
+		return verify(authenticationPath, index, root, 2, engine);
+	}
+
+	/**
+	 * This function checks an authentication path of a tree with 'arity'
+	 * children per inner node. The path holds the whole group of children at
+	 * every level; only the top group, the children of the root, may be smaller.
+	 * The computed node must sit at the position in its group given by the
+	 * corresponding digit of the index in base 'arity'.
+	 * 
+	 * @param authenticationPath
+	 *            - An authentication path from the bottom to the root. The root
+	 *            value is at the end of the array.
+	 * @param index
+	 *            - The index of the authenticated leaf.
+	 * @param root
+	 *            - The root value of an hash tree.
+	 * @param arity
+	 *            - Children per inner node: 2, 4, 8 or 16.
+	 * @param engine
+	 *            - The hash function of the tree.
+	 * @return - If it is correct, return true; else false.
+	 */
+	public static boolean verify(byte[][] authenticationPath, int index, byte[] root, int arity, HashEngine engine) {
+		if (authenticationPath == null)
+			return false;
+
+		HashEngine.Scratch scratch = engine.getScratch();
+		MessageDigest md = scratch.md;
+
+		int bits = Integer.numberOfTrailingZeros(arity);
+		int last = authenticationPath.length - 1; // the root
+		byte[] temp = scratch.node;
+		int cheatFlag = 0;
+
+		int from = 0;
+		int size = Math.min(arity, last);
+		for (int level = 1; from < last; level++) // calculate hash values from the bottom to the top
+		{
+			if (size < 2 || Integer.bitCount(size) != 1)
+				return false;
+			for (int i = from; i < from + size; i++)
+				md.update(authenticationPath[i]);
+			HashEngine.digest(md, temp, 0);
+			from = from + size;
+
+			size = Math.min(arity, last - from);
+			int position = (from == last) ? 0 : digit(index, bits * level, size);
+			if (Arrays.equals(temp, authenticationPath[from + position]) == false)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		if (last < 1 || Arrays.equals(root, authenticationPath[last]) == false)
+			cheatFlag = cheatFlag + 1;
+
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}
+
+	/**
+	 * This function gets the position of a node within its group of 'size'
+	 * children from the digits of the leaf index above bit 'shift'.
+	 */
+	private static int digit(int index, int shift, int size) {
+		return (shift >= 32) ? 0 : (index >>> shift) & (size - 1);
+	}
+
+	/**
+	 * This function checks a compact authentication path. It recomputes the nodes
+	 * from the leaf to the root; the bit i of the index tells whether the node at
+	 * height i is a left (0) or a right (1) child.
+	 * 
+	 * @param leafHash
+	 *            - The value of the authenticated leaf node.
+	 * @param index
+	 *            - The index of the authenticated leaf.
+	 * @param siblingPath
+	 *            - The sibling hashes from the bottom to the top.
+	 * @param root
+	 *            - The root value of an hash tree.
+	 * @return - If it is correct, return true; else false.
+	 */
+	public static boolean verify(byte[] leafHash, int index, byte[][] siblingPath, byte[] root) {
+		return verify(leafHash, index, siblingPath, root, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function is 'verify(leafHash, index, siblingPath, root)' with a chosen hash
+	 * function.
+	 * 
+	 * @param engine
+	 *            - The hash function of the tree.
+	 */
+	public static boolean verify(byte[] leafHash, int index, byte[][] siblingPath, byte[] root, HashEngine engine) {
+		return verify(leafHash, index, siblingPath, root, 2, engine);
+	}
+
+	/**
+	 * This function checks a compact authentication path of a tree with 'arity'
+	 * children per inner node. The path holds arity - 1 siblings per level; only
+	 * the top level may hold fewer. The digit of the index in base 'arity' tells
+	 * where the computed node sits among its siblings.
+	 * 
+	 * @param leafHash
+	 *            - The value of the authenticated leaf node.
+	 * @param index
+	 *            - The index of the authenticated leaf.
+	 * @param siblingPath
+	 *            - The sibling hashes from the bottom to the top.
+	 * @param root
+	 *            - The root value of an hash tree.
+	 * @param arity
+	 *            - Children per inner node: 2, 4, 8 or 16.
+	 * @param engine
+	 *            - The hash function of the tree.
+	 * @return - If it is correct, return true; else false.
+	 */
+	public static boolean verify(byte[] leafHash, int index, byte[][] siblingPath, byte[] root, int arity,
+			HashEngine engine) {
+		byte[] temp = climb(leafHash, index, siblingPath, arity, engine);
+		return temp != null && Arrays.equals(temp, root);
+	}
+
+	/**
+	 * This function recomputes the nodes of a compact authentication path from
+	 * the leaf upwards, one per group of siblings.
+	 * 
+	 * @return - the last computed node, in the scratch buffer of 'engine'; null
+	 *         if the path is missing or cannot be split into groups
+	 */
+	static byte[] climb(byte[] leafHash, int index, byte[][] siblingPath, int arity, HashEngine engine) {
+		if (siblingPath == null)
+			return null;
+
+		HashEngine.Scratch scratch = engine.getScratch();
+		MessageDigest md = scratch.md;
+		int bits = Integer.numberOfTrailingZeros(arity);
+
+		// all the children are fed to the digest before the parent overwrites the buffer
+		byte[] temp = leafHash;
+		int from = 0;
+		for (int level = 0; from < siblingPath.length; level++) {
+			int size = Math.min(arity - 1, siblingPath.length - from);
+			if (Integer.bitCount(size + 1) != 1)
+				return null;
+
+			int position = digit(index, bits * level, size + 1);
+			for (int i = 0; i <= size; i++) {
+				if (i < position)
+					md.update(siblingPath[from + i]);
+				else if (i == position)
+					md.update(temp);
+				else
+					md.update(siblingPath[from + i - 1]);
+			}
+			HashEngine.digest(md, scratch.node, 0);
+			temp = scratch.node;
+			from = from + size;
+		}
+
+		return temp;
+	}
+
+	/**
+	 * This function builds the whole hash tree from the bottom to the top. The root
+	 * value is at index 0; If the parallelism is larger than 1, a dense tree is
+	 * built on a fork/join pool; the result is identical to the sequential build.
+	 */
+	public void build() {
+		if (this.storeMode == SPARSE) {
+			this.buildSparse();
+			return;
+		}
+		this.hashCount.add(this.shape.getLeafStart()); // the inner nodes; hashLeaves() counts the leaves
+		if (this.parallelism > 1) {
+			this.buildParallel();
+			return;
+		}
+
+		// construct the bottom level of the hash tree
+		this.hashLeaves(this.shape.getLeafStart(), this.treeSize);
+
+		for (int depth = this.shape.getDepth() - 1; depth >= 0; depth--) {
+			int first = this.shape.getLevelStart(depth);
+			int end = first + this.shape.getLevelSize(depth);
+
+			for (int i = first; i < end; i++)
+				this.hashNode(this.md, i, depth);
+		}
+	}
+
+	/**
+	 * This function computes the value of the stored node 'node' of depth 'depth'
+	 * from its children in the node store.
+	 */
+	private void hashNode(MessageDigest md, int node, int depth) {
+		int child = this.shape.getFirstChild(node, depth);
+		for (int i = 0; i < this.shape.getFanOut(depth); i++)
+			ht.update(md, child + i);
+		ht.digest(md, node);
+	}
+	
+	/**
+	 * This function builds a tree whose leaves are all empty. No hashing is
+	 * needed: every node is the precomputed root of an all-empty subtree of its
+	 * height, so a dense tree is only filled and a sparse tree stays empty.
+	 */
+	public void buildEmpty() {
+		if (this.storeMode == SPARSE) {
+			this.occupied = null;
+			return;
+		}
+
+		for (int depth = 0; depth <= this.shape.getDepth(); depth++) {
+			int first = this.shape.getLevelStart(depth);
+			for (int i = first; i < first + this.shape.getLevelSize(depth); i++)
+				ht.put(i, this.emptyHash[this.shape.getDepth() - depth]);
+		}
+	}
+
+	/**
+	 * This function computes the leaf nodes with indices in [first, end).
+	 */
+	private void hashLeaves(int first, int end) {
+		int offset = this.shape.getLeafStart();
+		byte[] value = this.engine.getScratch().node; // the store copies it
+		int hashes = 0;
+		for (int i = first; i < end; i++) {
+			if (this.isEmptyLeaf(i - offset))
+				ht.put(i, this.emptyHash[0]);
+			else {
+				this.leafHash(null, i - offset, value);
+				ht.put(i, value);
+				hashes = hashes + 1;
+			}
+		}
+		this.hashCount.add(hashes); // once per range, not per leaf
+	}
+
+	/**
+	 * This function tells whether every slot of the leaf 'index' is empty.
+	 */
+	private boolean isEmptyLeaf(int index) {
+		for (int i = index * this.bucketSize; i < (index + 1) * this.bucketSize; i++)
+			if (this.leaf.isEmpty(i) == false)
+				return false;
+		return true;
+	}
+
+	/**
+	 * This function computes the value of the leaf 'index' from its slots in a
+	 * version, or in the leaf store if 'version' is null, into 'result'.
+	 */
+	private void leafHash(TreeVersion version, int index, byte[] result) {
+		if (this.bucketSize == 1) {
+			MetaProofData tuple = (version == null) ? this.leaf.get(index) : version.getLeaf(index);
+			tuple.generateHash(this.engine, result, 0);
+			return;
+		}
+
+		MetaProofData[] bucket = new MetaProofData[this.bucketSize];
+		for (int i = 0; i < this.bucketSize; i++) {
+			int slot = index * this.bucketSize + i;
+			bucket[i] = (version == null) ? this.leaf.get(slot) : version.getLeaf(slot);
+		}
+		MetaProofData.generateHash(index, Arrays.asList(bucket), 0, this.bucketSize, this.engine, result, 0);
+	}
+
+	/**
+	 * This function builds a dense tree in parallel. The tree is split into
+	 * independent subtrees which are hashed by the workers of a fork/join pool,
+	 * each with its own digest; the levels above them are joined afterwards.
+	 */
+	private void buildParallel() {
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		try {
+			pool.invoke(new SubtreeTask(0, 0));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * This function builds the subtree rooted at 'node' of depth 'depth' on the
+	 * current thread, from its leaves up to 'node'.
+	 */
+	private void buildSubtree(int node, int depth) {
+		MessageDigest md = engine.getDigest();
+
+		int leafDepth = this.shape.getDepth();
+		int first = this.shape.getFirstDescendant(node, depth, leafDepth); // leftmost leaf of the subtree
+		this.hashLeaves(first, first + this.shape.getDescendantCount(depth, leafDepth));
+
+		for (int below = leafDepth - 1; below >= depth; below--) {
+			first = this.shape.getFirstDescendant(node, depth, below);
+			int end = first + this.shape.getDescendantCount(depth, below);
+
+			for (int i = first; i < end; i++)
+				this.hashNode(md, i, below);
+		}
+	}
+
+	/**
+	 * A fork/join task building the subtree rooted at 'node'. Large subtrees are
+	 * split into their children; the node itself is hashed after all are done.
+	 */
+	private class SubtreeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int node = 0;
+		private int depth = 0;
+
+		SubtreeTask(int node, int depth) {
+			this.node = node;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (shape.getBits() * (shape.getDepth() - this.depth) <= SEQUENTIAL_HEIGHT) {
+				buildSubtree(this.node, this.depth);
+				return;
+			}
+
+			List<SubtreeTask> children = new ArrayList<SubtreeTask>();
+			int child = shape.getFirstChild(this.node, this.depth);
+			for (int i = 0; i < shape.getFanOut(this.depth); i++)
+				children.add(new SubtreeTask(child + i, this.depth + 1));
+			invokeAll(children);
+
+			hashNode(engine.getDigest(), this.node, this.depth);
+		}
+	}
+
+	/**
+	 * This function builds a sparse tree. Only the parents of stored nodes are
+	 * hashed, level by level; a missing child is read as the empty-subtree hash.
+	 */
+	private void buildSparse() {
+		int[] level = this.occupied; // ascending node indices, so parents are ascending too
+		this.occupied = null;
+
+		// construct the bottom level of the hash tree
+		int offset = this.shape.getLeafStart();
+		byte[] value = this.engine.getScratch().node; // the store copies it
+		for (int i : level) {
+			this.leafHash(null, i - offset, value);
+			ht.put(i, value);
+		}
+		this.hashCount.add(level.length);
+
+		for (int depth = this.shape.getDepth() - 1; depth >= 0; depth--) {
+			int count = 0;
+			int[] parents = new int[level.length];
+			for (int node : level) {
+				int parent = this.shape.getParent(node, depth + 1);
+				if (count == 0 || parents[count - 1] != parent)
+					parents[count++] = parent;
+			}
+
+			for (int i = 0; i < count; i++)
+				this.hashNode(this.md, parents[i], depth);
+			this.hashCount.add(count);
+			level = Arrays.copyOf(parents, count);
+		}
+	}
+
+	public void update(int position, MetaProofData leaf) {
+		this.setLeaf(position, leaf);
+		this.update(new int[] { position });
+	}
+
+	/**
+	 * This function pins the newest version of the tree for reading. It takes no
+	 * lock; the pinned version never changes and stays readable until released,
+	 * however many updates are published meanwhile.
+	 * 
+	 * @return - the pinned version; call release() on it after reading
+	 */
+	public TreeVersion pin() {
+		while (true) {
+			TreeVersion version = this.current;
+			int pins = version.pins.get();
+			if (pins >= 0 && version.pins.compareAndSet(pins, pins + 1))
+				return version;
+			// the version was retired after being replaced; pin the newer one
+		}
+	}
+
+	/**
+	 * This function gets the version being written. The writer reads the leaves
+	 * staged by setLeaf() through it before they are published.
+	 * 
+	 * @return - the unpublished next version
+	 */
+	public synchronized TreeVersion getPending() {
+		if (this.pending == null)
+			this.pending = new TreeVersion(this, this.current.getNumber() + 1, this.current);
+		return this.pending;
+	}
+
+	/**
+	 * This function stages a new leaf tuple at 'position'. It becomes visible to
+	 * readers with the next call of update().
+	 * 
+	 * @param position - the index of the slot; it starts with 0
+	 * @param leaf     - the new leaf tuple
+	 */
+	public synchronized void setLeaf(int position, MetaProofData leaf) {
+		this.getPending().leaves.put(position, leaf);
+	}
+
+	/**
+	 * This function drops the leaf tuples staged by setLeaf() since the last
+	 * update(), e.g. when they could not be logged. Readers never saw them.
+	 */
+	public synchronized void discard() {
+		this.pending = null;
+	}
+
+	/**
+	 * This function updates many leaves at once. The leaves at 'positions' are
+	 * rehashed from the tuples staged by setLeaf(). Then the dirty internal nodes
+	 * are recomputed level by level, each exactly once however many changed leaves
+	 * lie below it. With a parallelism larger than 1, large levels of a dense tree
+	 * are hashed on a fork/join pool.
+	 * 
+	 * The new nodes are written into a new version and never over the nodes of a
+	 * published version, so readers are not blocked and never see a half-updated
+	 * path. The new version is published with one volatile write; old versions no
+	 * longer pinned by any reader are then folded into the node store.
+	 * 
+	 * @param positions - indices of the changed slots; duplicates are allowed
+	 */
+	public synchronized void update(int[] positions) {
+		this.prepare(positions);
+		this.publish();
+		this.collect();
+	}
+
+	/**
+	 * This function does the hashing of update() but does not publish the new
+	 * version. The caller may read the returned version, e.g. its root, and then
+	 * make it visible with publish(), together with its own state.
+	 * 
+	 * @param positions - indices of the changed slots; duplicates are allowed
+	 * @return the new version, not yet visible to readers
+	 */
+	public synchronized TreeVersion prepare(int[] positions) {
+		TreeVersion next = this.getPending();
+
+		int first = this.shape.getLeafStart();
+		int[] level = new int[positions.length];
+		for (int i = 0; i < positions.length; i++)
+			level[i] = first + positions[i] / this.bucketSize;
+		Arrays.sort(level);
+
+		int length = 0;
+		for (int i = 0; i < level.length; i++) // remove duplicates
+			if (length == 0 || level[length - 1] != level[i])
+				level[length++] = level[i];
+
+		for (int i = 0; i < length; i++) {
+			byte[] value = new byte[HashEngine.HASH_SIZE]; // kept by the version
+			this.leafHash(next, level[i] - first, value);
+			next.nodes.put(level[i], value);
+		}
+		long hashes = length;
+
+		ForkJoinPool pool = null;
+		if (this.parallelism > 1 && this.storeMode != SPARSE)
+			pool = new ForkJoinPool(this.parallelism);
+
+		try {
+			for (int depth = this.shape.getDepth() - 1; depth >= 0; depth--) {
+				int parentCount = 0;
+				for (int i = 0; i < length; i++) {
+					int parent = this.shape.getParent(level[i], depth + 1); // ascending nodes give ascending parents
+					if (parentCount == 0 || level[parentCount - 1] != parent)
+						level[parentCount++] = parent;
+				}
+				length = parentCount;
+				hashes = hashes + length;
+
+				// hash the whole level first, then store it; the workers only read the version
+				byte[][] values = new byte[length][];
+				if (pool != null && length > (1 << SEQUENTIAL_HEIGHT))
+					pool.invoke(new LevelTask(next, depth, level, values, 0, length));
+				else
+					this.hashNodes(this.md, next, depth, level, values, 0, length);
+
+				for (int i = 0; i < length; i++)
+					next.nodes.put(level[i], values[i]);
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+
+		this.hashCount.add(hashes);
+		return next;
+	}
+
+	/**
+	 * This function publishes the version built by prepare() with one volatile
+	 * write. Old versions are not folded; call collect() afterwards.
+	 */
+	public synchronized void publish() {
+		TreeVersion next = this.getPending();
+		this.current.next = next;
+		this.pending = null;
+		this.current = next; // publish
+	}
+
+	/**
+	 * This function folds old versions into the node store and the leaf store.
+	 * The oldest version is retired only if no reader pins it; afterwards no
+	 * reader can pin it any more, and every live version finds the folded nodes
+	 * either in its own chain or, with equal values, in the store.
+	 */
+	public synchronized void collect() {
+		while (this.base != this.current && this.base.pins.compareAndSet(0, -1)) {
+			TreeVersion next = this.base.next;
+			for (Map.Entry<Integer, byte[]> entry : next.nodes.entrySet())
+				this.ht.put(entry.getKey(), entry.getValue());
+			for (Map.Entry<Integer, MetaProofData> entry : next.leaves.entrySet())
+				this.leaf.set(entry.getKey(), entry.getValue());
+
+			next.parent = null; // the store now holds 'next'
+			this.base.next = null;
+			this.base = next;
+		}
+	}
+
+	/**
+	 * This function computes the values of the nodes nodes[from], ...,
+	 * nodes[to - 1] of depth 'depth' of a version from their children.
+	 */
+	private void hashNodes(MessageDigest md, TreeVersion version, int depth, int[] nodes, byte[][] values, int from,
+			int to) {
+		int fanOut = this.shape.getFanOut(depth);
+		for (int i = from; i < to; i++) {
+			int child = this.shape.getFirstChild(nodes[i], depth);
+			for (int j = 0; j < fanOut; j++)
+				version.update(md, child + j);
+			values[i] = md.digest();
+		}
+	}
+
+	/**
+	 * A fork/join task recomputing a range of dirty nodes of one level.
+	 */
+	private class LevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private TreeVersion version = null;
+		private int depth = 0;
+		private int[] nodes = null;
+		private byte[][] values = null;
+		private int from = 0;
+		private int to = 0;
+
+		LevelTask(TreeVersion version, int depth, int[] nodes, byte[][] values, int from, int to) {
+			this.version = version;
+			this.depth = depth;
+			this.nodes = nodes;
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= (1 << SEQUENTIAL_HEIGHT)) {
+				hashNodes(engine.getDigest(), this.version, this.depth, this.nodes, this.values, this.from, this.to);
+				return;
+			}
+
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new LevelTask(this.version, this.depth, this.nodes, this.values, this.from, middle),
+					new LevelTask(this.version, this.depth, this.nodes, this.values, middle, this.to));
+		}
+	}
+
+	/**
+	 * This function gets the root hash value of the hash tree.
+	 * 
+	 * @return - The root hash value
+	 */
+	public byte[] getRoot() {
+		return this.current.getRoot();
+	}
+
+	/**
+	 * This function gets the authentication path for the node with index 'index'
+	 * in the newest version. A reader that needs several paths consistent with
+	 * one root should pin a version instead.
+	 * 
+	 * @param index
+	 *            - The index of the leaf node which is to be authenticated. It
+	 *            starts with 0.
+	 * @return - An authentication path from the bottom to the top, with
+	 *         corresponding index becoming large
+	 */
+	public byte[][] getAuthenticationPath(int index) {
+		return this.current.getAuthenticationPath(index);
+	}
+
+	/**
+	 * This function gets the compact authentication path for the leaf 'index'.
+	 * Only the siblings at every level are included; the nodes on the path itself
+	 * are recomputed by the verifier, the side of each sibling is given by the
+	 * bits of the index, and the root is already known to the verifier.
+	 * 
+	 * @param index
+	 *            - The index of the leaf node which is to be authenticated. It
+	 *            starts with 0.
+	 * @return - the sibling hashes from the bottom to the top, arity - 1 per level
+	 */
+	public byte[][] getSiblingPath(int index) {
+		return this.current.getSiblingPath(index);
+	}
+
+	/**
+	 * This function gets the tree nodes needed to authenticate many leaves at once.
+	 * A node is needed if it is the sibling of a node on one of the paths and is
+	 * not itself on one of the paths; every other node can be recomputed by the
+	 * verifier. Each needed node is listed once however many paths touch it.
+	 * 
+	 * @param leafIndices - indices of the leaves to be authenticated; duplicates are allowed
+	 * @return - the needed node indices, from the bottom level to the top
+	 */
+	public int[] getMultiProofNodes(int[] leafIndices) {
+		return this.getMultiProofNodes(leafIndices, 0);
+	}
+
+	/**
+	 * This function gets the tree nodes needed to authenticate many leaves up to
+	 * the nodes of depth 'levels', which the verifier has cached (see Frontier).
+	 * 
+	 * @param leafIndices - indices of the leaves to be authenticated; duplicates are allowed
+	 * @param levels      - depth of the cached nodes; 0 to authenticate up to the root
+	 * @return - the needed node indices, from the bottom level upwards
+	 */
+	public int[] getMultiProofNodes(int[] leafIndices, int levels) {
+		int first = this.shape.getLeafStart();
+		int[] level = new int[leafIndices.length];
+		for (int i = 0; i < leafIndices.length; i++)
+			level[i] = first + leafIndices[i];
+		Arrays.sort(level);
+
+		int[] result = new int[16];
+		int count = 0;
+		int length = 0;
+		for (int i = 0; i < level.length; i++) // remove duplicates
+			if (length == 0 || level[length - 1] != level[i])
+				level[length++] = level[i];
+
+		for (int depth = this.shape.getDepth(); depth > levels; depth--) {
+			int[] parents = new int[length];
+			int parentCount = 0;
+			for (int i = 0; i < length; i++) {
+				int parent = this.shape.getParent(level[i], depth); // ascending nodes give ascending parents
+				if (parentCount > 0 && parents[parentCount - 1] == parent)
+					continue; // its group is done
+
+				// every child of the parent not on a path is needed; level[i], ... are the ones on a path
+				parents[parentCount++] = parent;
+				int child = this.shape.getFirstChild(parent, depth - 1);
+				int next = i;
+				for (int j = child; j < child + this.shape.getFanOut(depth - 1); j++) {
+					if (next < length && level[next] == j) {
+						next = next + 1;
+						continue;
+					}
+					if (count == result.length)
+						result = Arrays.copyOf(result, 2 * count);
+					result[count++] = j;
+				}
+			}
+			level = parents;
+			length = parentCount;
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * This function gets a copy of the value of a tree node.
+	 * 
+	 * @param node - node index; the root is at index 0
+	 * @return - the hash value of the node
+	 */
+	public byte[] getNode(int node) {
+		return this.current.getNode(node);
+	}
+
+	/**
+	 * This funtion prints out the whole hash tree.
+	 */
+	public void print() {
+		for (int depth = 0; depth <= this.shape.getDepth(); depth++) {
+			int first = this.shape.getLevelStart(depth);
+			int end = first + this.shape.getLevelSize(depth);
+
+			System.out.println("*******************");
+			System.out.println("height: " + depth);
+			for (int i = first; i < end; i++) {
+				System.out.println(DynamicVFS.bytes2HexString(this.current.getNode(i)));
+			}
+			System.out.println("*******************");
+		}
+	}
+	
+	public void printRoot() {
+		System.out.println(DynamicVFS.bytes2HexString(this.getRoot()));
+	}
+	
+	
+
+//	private byte[] int2byteArray(int num) {
+//		byte[] result = new byte[4];
+//
+//		result[3] = (byte) (num >>> 24);
+//		result[2] = (byte) (num >>> 16);
+//		result[1] = (byte) (num >>> 8);
+//		result[0] = (byte) (num);
+//
+//		return result;
+//	}
+
+	public NodeStore getHt() {
+		return ht;
+	}
+
+	public void setHt(NodeStore ht) {
+		this.ht = ht;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * This function sets the number of threads used by 'build()'. The sparse mode
+	 * is always built sequentially.
+	 * 
+	 * @param parallelism - number of threads; 1 for the sequential build
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public int getStoreMode() {
+		return storeMode;
+	}
+
+	/**
+	 * This function gets the number of leaf and node hashes computed so far by
+	 * building and updating the tree. It may be read while the tree is updated.
+	 */
+	public long getHashCount() {
+		return hashCount.sum();
+	}
+
+	public int getBucketSize() {
+		return bucketSize;
+	}
+
+	public int getMaxProbes() {
+		return maxProbes;
+	}
+
+	/**
+	 * This function records the bound on the probing sequence with which the
+	 * files of the table were placed. Like the bucket size, it belongs to the
+	 * table: a smaller bound would hide the files placed deeper in their probing
+	 * sequence, so it is set once, before the table is searched.
+	 * 
+	 * @param maxProbes - most leaves probed per search; 0 for no bound
+	 */
+	public void setMaxProbes(int maxProbes) {
+		this.maxProbes = maxProbes;
+	}
+
+	public byte[][] getEmptyHash() {
+		return emptyHash;
+	}
+
+	public int getTreeSize() {
+		return treeSize;
+	}
+
+	public void setTreeSize(int treeSize) {
+		this.treeSize = treeSize;
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	/**
+	 * This function gets the number of children per inner node.
+	 */
+	public int getArity() {
+		return arity;
+	}
+
+	/**
+	 * This function gets the levels of the tree; see TreeShape.
+	 */
+	public TreeShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * This function gets the number of levels of inner nodes, i.e. the number of
+	 * hashes on the path from a leaf to the root. It is the tree height for 2
+	 * children per node.
+	 */
+	public int getDepth() {
+		return shape.getDepth();
+	}
+
+	public void setTreeHeight(int treeHeight) {
+		this.treeHeight = treeHeight;
+	}
+
+	/**
+	 * This function gets the leaf array, one tuple per slot. It holds the leaves of the oldest live
+	 * version; newer leaves are read through pin() or getPending(). For a leaf
+	 * store that is not backed by an array, a copy is returned.
+	 */
+	public MetaProofData[] getLeaf() {
+		if (this.leaf instanceof LeafStore.Array)
+			return ((LeafStore.Array) this.leaf).getArray();
+
+		MetaProofData[] result = new MetaProofData[this.leaf.getLeafCount()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = this.leaf.get(i);
+		return result;
+	}
+
+	public void setLeaf(MetaProofData[] leaf) {
+		this.leaf = LeafStore.wrap(leaf);
+	}
+
+	public LeafStore getLeafStore() {
+		return leaf;
+	}
+
+	public HashEngine getEngine() {
+		return engine;
+	}
+
+	public MessageDigest getMd() {
+		return md;
+	}
+
+	public void setMd(MessageDigest md) {
+		this.md = md;
+	}
+}
@@ -0,0 +1,101 @@
+package fchen;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts recorded values, e.g. latencies in nanoseconds, in
+ * logarithmic buckets with a bounded relative error, in the way of an HDR
+ * histogram. Values below 2^SUB_BITS have a bucket of their own; every larger
+ * power-of-two range is split into 2^SUB_BITS equal buckets, so a bucket is at
+ * most 1/2^SUB_BITS (about 6%) of its values wide, from one nanosecond up to
+ * centuries. Recording is lock-free: it increments one atomic counter.
+ */
+public class LatencyHistogram {
+	public final static int SUB_BITS = 4;
+	private final static int SUB_COUNT = 1 << SUB_BITS;
+
+	private AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_COUNT);
+	private AtomicLong count = new AtomicLong(0);
+	private AtomicLong sum = new AtomicLong(0);
+	private AtomicLong max = new AtomicLong(0);
+
+	/**
+	 * This function records one value.
+	 *
+	 * @param value - a non-negative value; negative values count as 0
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		this.counts.incrementAndGet(bucket(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+
+		long current = this.max.get();
+		while (value > current && this.max.compareAndSet(current, value) == false)
+			current = this.max.get();
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_COUNT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // at least SUB_BITS
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	private static long lowestValue(int bucket) {
+		if (bucket < SUB_COUNT)
+			return bucket;
+		int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+		return (long) (SUB_COUNT + bucket % SUB_COUNT) << (exponent - SUB_BITS);
+	}
+
+	/**
+	 * This function gets a percentile of the recorded values. The result is the
+	 * largest value of the bucket holding the percentile, but at most the largest
+	 * recorded value.
+	 *
+	 * @param percentile - between 0 and 100
+	 * @return the value, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = this.count.get();
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			seen = seen + this.counts.get(i);
+			if (seen >= rank)
+				return Math.min(this.max.get(), (i + 1 < this.counts.length()) ? lowestValue(i + 1) - 1 : Long.MAX_VALUE);
+		}
+		return this.max.get(); // records added while counting
+	}
+
+	public double getMean() {
+		long total = this.count.get();
+		return (total == 0) ? 0 : (double) this.sum.get() / total;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * This function drops all the recorded values. Values recorded meanwhile may
+	 * be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < this.counts.length(); i++)
+			this.counts.set(i, 0);
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+}
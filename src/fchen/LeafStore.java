@@ -0,0 +1,237 @@
+package fchen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * This class stores the leaf level of a hash authentication tree: one tuple
+ * (index, filename MAC, state) per slot. The array mode keeps one MetaProofData
+ * object per slot. The packed mode keeps all the MACs in one byte region and
+ * the states in a bit set, about 33 bytes per slot instead of about 100, and
+ * creates a tuple object only when one is read, e.g. for a proof. The mapped
+ * mode keeps the tuples as fixed-size records in a memory-mapped file, so a
+ * saved tree is served without loading it. In the packed and mapped modes the
+ * index of a tuple is its position and is not stored.
+ */
+public abstract class LeafStore {
+	public final static int CHUNK_SHIFT = 25; // 2^25 records per chunk; less than 2GB for a 32-byte MAC
+	protected final static int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	protected int leafCount = 0;
+
+	protected LeafStore(int leafCount) {
+		this.leafCount = leafCount;
+	}
+
+	/**
+	 * This function wraps an array of leaf tuples. The array is used directly, not copied.
+	 *
+	 * @param leaf - the leaf tuples; leaf[i] has index i
+	 * @return a store backed by the array
+	 */
+	public static LeafStore wrap(MetaProofData[] leaf) {
+		return new Array(leaf);
+	}
+
+	/**
+	 * This function allocates a packed store of 'leafCount' empty slots, i.e. with
+	 * all-zero MACs and state 0.
+	 *
+	 * @param leafCount - number of slots
+	 * @param hashSize  - size of a filename MAC in bytes
+	 * @return a packed store
+	 */
+	public static LeafStore allocate(int leafCount, int hashSize) {
+		return new Packed(leafCount, hashSize);
+	}
+
+	/**
+	 * This function maps 'leafCount' leaf records of a file into memory.
+	 *
+	 * @param channel   - the opened file
+	 * @param position  - offset of the first record in the file
+	 * @param leafCount - number of leaves
+	 * @param hashSize  - size of a filename MAC in bytes
+	 * @param mode      - READ_ONLY, READ_WRITE to write changes through to the file,
+	 *                    or PRIVATE to keep changes in memory only
+	 * @return a store backed by the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static LeafStore map(FileChannel channel, long position, int leafCount, int hashSize,
+			FileChannel.MapMode mode) throws IOException {
+		int recordSize = hashSize + 1;
+		int chunkCount = ((leafCount - 1) >>> CHUNK_SHIFT) + 1;
+		ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			int records = Math.min(leafCount - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+			chunks[i] = channel.map(mode, position + ((long) i << CHUNK_SHIFT) * recordSize, (long) records * recordSize);
+		}
+		return new Mapped(chunks, leafCount, hashSize);
+	}
+
+	/**
+	 * This function gets the tuple of the leaf 'index'.
+	 *
+	 * @param index - the index of the leaf; it starts with 0
+	 * @return the leaf tuple, without authentication path
+	 */
+	public abstract MetaProofData get(int index);
+
+	/**
+	 * This function replaces the tuple of the leaf 'index'.
+	 */
+	public abstract void set(int index, MetaProofData tuple);
+
+	/**
+	 * This function replaces the tuple of the leaf 'index' by (index, filename,
+	 * state).
+	 */
+	public void set(int index, byte[] filename, int state) {
+		this.set(index, new MetaProofData(index, filename, state));
+	}
+
+	/**
+	 * This function tells whether the leaf 'index' is empty, i.e. it holds the
+	 * all-zero MAC and state 0.
+	 */
+	public boolean isEmpty(int index) {
+		return this.get(index).isEmpty();
+	}
+
+	/**
+	 * This function writes the changed leaves of a mapped store back to its file.
+	 */
+	public void force() {
+	}
+
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	/**
+	 * The array mode; one object per slot.
+	 */
+	static class Array extends LeafStore {
+		private MetaProofData[] leaf = null;
+
+		Array(MetaProofData[] leaf) {
+			super(leaf.length);
+			this.leaf = leaf;
+		}
+
+		@Override
+		public MetaProofData get(int index) {
+			return this.leaf[index];
+		}
+
+		@Override
+		public void set(int index, MetaProofData tuple) {
+			this.leaf[index] = tuple;
+		}
+
+		MetaProofData[] getArray() {
+			return leaf;
+		}
+	}
+
+	/**
+	 * The packed mode. The MAC of slot 'i' is at (i & CHUNK_MASK) * hashSize in
+	 * chunk i >>> CHUNK_SHIFT; its state is bit 'i' of the bit set. A tuple
+	 * object, with its own copy of the MAC, is created on every read.
+	 */
+	static class Packed extends LeafStore {
+		private byte[][] chunks = null;
+		private BitSet states = null; // bit i is set if slot i was deleted
+		private int hashSize = 0;
+
+		Packed(int leafCount, int hashSize) {
+			super(leafCount);
+			this.hashSize = hashSize;
+			this.states = new BitSet(leafCount); // sized once; a bit set never grows afterwards
+
+			int chunkCount = ((leafCount - 1) >>> CHUNK_SHIFT) + 1;
+			this.chunks = new byte[chunkCount][];
+			for (int i = 0; i < chunkCount; i++) {
+				int records = Math.min(leafCount - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+				this.chunks[i] = new byte[records * hashSize];
+			}
+		}
+
+		@Override
+		public MetaProofData get(int index) {
+			byte[] filename = new byte[this.hashSize];
+			System.arraycopy(this.chunks[index >>> CHUNK_SHIFT], (index & CHUNK_MASK) * this.hashSize, filename, 0,
+					this.hashSize);
+			return new MetaProofData(index, filename, this.states.get(index) ? 1 : 0);
+		}
+
+		@Override
+		public void set(int index, MetaProofData tuple) {
+			this.set(index, tuple.getFilename(), tuple.getState());
+		}
+
+		@Override
+		public void set(int index, byte[] filename, int state) {
+			System.arraycopy(filename, 0, this.chunks[index >>> CHUNK_SHIFT], (index & CHUNK_MASK) * this.hashSize,
+					this.hashSize);
+			this.states.set(index, state != 0);
+		}
+
+		@Override
+		public boolean isEmpty(int index) {
+			if (this.states.get(index))
+				return false;
+			byte[] chunk = this.chunks[index >>> CHUNK_SHIFT];
+			int position = (index & CHUNK_MASK) * this.hashSize;
+			for (int i = position; i < position + this.hashSize; i++)
+				if (chunk[i] != 0)
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * The mapped mode. Record 'i' holds the filename MAC followed by the state byte
+	 * of leaf 'i'. A tuple object is created on every read.
+	 */
+	static class Mapped extends LeafStore {
+		private ByteBuffer[] chunks = null;
+		private int hashSize = 0;
+
+		Mapped(ByteBuffer[] chunks, int leafCount, int hashSize) {
+			super(leafCount);
+			this.chunks = chunks;
+			this.hashSize = hashSize;
+		}
+
+		@Override
+		public MetaProofData get(int index) {
+			ByteBuffer chunk = this.chunks[index >>> CHUNK_SHIFT];
+			int position = (index & CHUNK_MASK) * (this.hashSize + 1);
+			byte[] filename = new byte[this.hashSize];
+			for (int i = 0; i < this.hashSize; i++)
+				filename[i] = chunk.get(position + i); // absolute access; safe for concurrent readers
+			return new MetaProofData(index, filename, chunk.get(position + this.hashSize));
+		}
+
+		@Override
+		public void set(int index, MetaProofData tuple) {
+			ByteBuffer chunk = this.chunks[index >>> CHUNK_SHIFT];
+			int position = (index & CHUNK_MASK) * (this.hashSize + 1);
+			byte[] filename = tuple.getFilename();
+			for (int i = 0; i < this.hashSize; i++)
+				chunk.put(position + i, filename[i]);
+			chunk.put(position + this.hashSize, (byte) tuple.getState());
+		}
+
+		@Override
+		public void force() {
+			for (ByteBuffer chunk : this.chunks)
+				if (chunk.isReadOnly() == false)
+					((MappedByteBuffer) chunk).force();
+		}
+	}
+}
@@ -1,155 +1,366 @@
-package fchen;
-
-import java.security.MessageDigest;
-import java.util.Arrays;
-
-/**
- * This class encapsulates the tuple (index, filename, state, authentication path) and
- * some corresponding methods.
- * It is used in two cases. One case is to use this class as the leaf level data for
- * building the hash authentication tree. In this case, the field 'authenticationPath'
- * is not used.
- * Another case is to use it as a part of the search result. Now the field 'authenticationPath'
- * is used. The cloud could return a few of such tuples because of the hash collisions.
- * 
- * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
- * @author last revision on 15-01-2020
- * @author Email: chenfeiorange@163.com
- * 
- */
-public class MetaProofData {
-	private int index = -1; // index of the leafnode
-	private byte[] filename = null; // filename of the leafnode
-	private int state = 0;
-	// state = 1 if this slot stored some data that were deleted; otherwise state = 0
-	private byte[][] authenticationPath = null; 
-	// authentication path from the bottom to the root; the
-	// bottom node lies at the beginning of the array
-
-	public MetaProofData(int index,  byte[] filename, int state, byte[][] authenticationPath) {
-		super();
-		this.index = index;
-		this.filename = filename;
-		this.state = state;
-		this.authenticationPath = authenticationPath;
-	}
-
-	public MetaProofData(int index, byte[] filename, int state) {
-		super();
-		this.index = index;
-		this.filename = filename;
-		this.state = state;
-		this.authenticationPath = null;
-	}
-
-	public byte[] generateHash() {
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (Exception e) {
-			System.out.println("get SHA-256 instance error - static verify");
-			System.out.println(e);
-		}
-
-		md.update(int2byteArray(this.index));
-		md.update(this.filename);	
-		return md.digest(int2byteArray(this.state));	
-	}
-	
-	/**
-	 * This function check whether an authentication path is legal. A legal path has
-	 * two properties: one is that the leaf node value is equal to hash(index,
-	 * filename); the other is that the authentication path is correct.
-	 * 
-	 * @param root - the root value of the hash authentication tree
-	 * @return true/false
-	 */
-	public boolean validate(byte[] root) {
-		int cheatFlag = 0;
-
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (Exception e) {
-			System.out.println("get SHA-256 instance error - static verify");
-			System.out.println(e);
-		}
-
-		md.update(int2byteArray(this.index));
-		md.update(this.filename);	
-		byte[] tempMac = md.digest(int2byteArray(this.state));
-
-		// check the leaf node value
-		if (Arrays.equals(tempMac, this.authenticationPath[0]) == false
-				&& Arrays.equals(tempMac, this.authenticationPath[1]) == false)
-			cheatFlag = cheatFlag + 1;
-
-		// check the authentication path
-		if (HashTree.verify(authenticationPath, root) == false)
-			cheatFlag = cheatFlag + 1;
-		
-		if (cheatFlag == 0)
-			return true;
-		else
-			return false;
-	}	
-	
-	private byte[] int2byteArray(int num) {
-		byte[] result = new byte[4];
-
-		result[3] = (byte) (num >>> 24);
-		result[2] = (byte) (num >>> 16);
-		result[1] = (byte) (num >>> 8);
-		result[0] = (byte) (num);
-
-		return result;
-	}
-
-	/**
-	 * This function prints out the proof data object.
-	 */
-	public void print() {
-		String temp = "[ ";
-		temp = temp + String.valueOf(this.index) + "; ";
-		temp = temp + DynamicVFS.bytes2HexString(this.filename) + "; ";
-		temp = temp + String.valueOf(this.state) + "; ";
-
-		for (int i = 0; i < this.authenticationPath.length; i++)
-			temp = temp + DynamicVFS.bytes2HexString(this.authenticationPath[i]) + " ";
-		temp = temp + "]";
-		System.out.println(temp);
-	}
-
-	public int getIndex() {
-		return index;
-	}
-
-	public void setIndex(int index) {
-		this.index = index;
-	}
-
-	public byte[] getFilename() {
-		return filename;
-	}
-
-	public void setFilename(byte[] filename) {
-		this.filename = filename;
-	}
-	
-	public int getState() {
-		return state;
-	}
-
-	public void setState(int state) {
-		this.state = state;
-	}
-
-	public byte[][] getAuthenticationPath() {
-		return authenticationPath;
-	}
-
-	public void setAuthenticationPath(byte[][] authenticationPath) {
-		this.authenticationPath = authenticationPath;
-	}
-
-}
+package fchen;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class encapsulates the tuple (index, filename, state, authentication path) and
+ * some corresponding methods.
+ * It is used in two cases. One case is to use this class as the leaf level data for
+ * building the hash authentication tree. In this case, the field 'authenticationPath'
+ * is not used.
+ * Another case is to use it as a part of the search result. Now the field 'authenticationPath'
+ * is used. The cloud could return a few of such tuples because of the hash collisions.
+ * If a leaf holds a bucket of slots, a tuple describes one slot; the slots of a
+ * leaf are hashed together by 'generateHash(index, bucket)' and share one path.
+ * 
+ * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
+ * @author last revision on 15-01-2020
+ * @author Email: chenfeiorange@163.com
+ * 
+ */
+public class MetaProofData {
+	private int index = -1; // index of the leafnode
+	private byte[] filename = null; // filename of the leafnode
+	private int state = 0;
+	// state = 1 if this slot stored some data that were deleted; otherwise state = 0
+	private byte[][] authenticationPath = null; 
+	// authentication path from the bottom to the root; the
+	// bottom node lies at the beginning of the array
+	private boolean compact = false;
+	// true if the path holds only the sibling at every level and no root
+
+	public MetaProofData(int index,  byte[] filename, int state, byte[][] authenticationPath) {
+		super();
+		this.index = index;
+		this.filename = filename;
+		this.state = state;
+		this.authenticationPath = authenticationPath;
+	}
+
+	public MetaProofData(int index, byte[] filename, int state) {
+		super();
+		this.index = index;
+		this.filename = filename;
+		this.state = state;
+		this.authenticationPath = null;
+	}
+
+	/**
+	 * This function copies the tuple with its filename and its path, so that
+	 * changing the copy leaves this tuple unchanged.
+	 * 
+	 * @return the copy
+	 */
+	public MetaProofData copy() {
+		byte[][] path = null;
+		if (this.authenticationPath != null) {
+			path = new byte[this.authenticationPath.length][];
+			for (int i = 0; i < path.length; i++)
+				path[i] = (this.authenticationPath[i] == null) ? null : this.authenticationPath[i].clone();
+		}
+		MetaProofData result = new MetaProofData(this.index, (this.filename == null) ? null : this.filename.clone(),
+				this.state, path);
+		result.compact = this.compact;
+		return result;
+	}
+
+	/**
+	 * This function computes the leaf node value hash(index, filename, state). An
+	 * empty slot (the special all-zero filename with state 0) hashes to the same
+	 * value wherever it lies, i.e. hash(filename, state); so all-empty subtrees
+	 * have one canonical value per height and need not be stored. The index of an
+	 * empty slot is still bound by the position checks in 'validate'.
+	 * 
+	 * @return the leaf node value
+	 */
+	public byte[] generateHash() {
+		return this.generateHash(HashEngine.SHA256);
+	}
+
+	/**
+	 * This function computes the leaf node value with a chosen hash function.
+	 * 
+	 * @param engine - the hash function of the tree
+	 * @return the leaf node value
+	 */
+	public byte[] generateHash(HashEngine engine) {
+		byte[] result = new byte[HashEngine.HASH_SIZE];
+		this.generateHash(engine, result, 0);
+		return result;
+	}
+
+	/**
+	 * This function computes the leaf node value into a buffer. It uses the
+	 * digest of the current thread and allocates nothing.
+	 * 
+	 * @param engine - the hash function of the tree
+	 * @param result - the buffer
+	 * @param offset - where the value starts in 'result'
+	 */
+	public void generateHash(HashEngine engine, byte[] result, int offset) {
+		HashEngine.Scratch scratch = engine.getScratch();
+		MessageDigest md = scratch.md;
+
+		if (this.isEmpty() == false)
+			md.update(int2byteArray(this.index, scratch.word));
+		md.update(this.filename);
+		md.update(int2byteArray(this.state, scratch.word));
+		HashEngine.digest(md, result, offset);
+	}
+
+	/**
+	 * This function computes the value of a leaf node that holds a bucket of
+	 * slots: hash(index, filename_0, state_0, filename_1, state_1, ...), where
+	 * 'index' is the index of the leaf. A bucket of one slot hashes like the slot
+	 * itself, and an all-empty bucket hashes like an empty slot, so the empty
+	 * subtree values do not depend on the bucket size.
+	 * 
+	 * @param index  - the index of the leaf node
+	 * @param bucket - the slots of the leaf node in order
+	 * @return the leaf node value
+	 */
+	public static byte[] generateHash(int index, MetaProofData[] bucket) {
+		return generateHash(index, bucket, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function computes the value of a leaf node that holds a bucket of
+	 * slots with a chosen hash function.
+	 * 
+	 * @param index  - the index of the leaf node
+	 * @param bucket - the slots of the leaf node in order
+	 * @param engine - the hash function of the tree
+	 * @return the leaf node value
+	 */
+	public static byte[] generateHash(int index, MetaProofData[] bucket, HashEngine engine) {
+		byte[] result = new byte[HashEngine.HASH_SIZE];
+		generateHash(index, Arrays.asList(bucket), 0, bucket.length, engine, result, 0);
+		return result;
+	}
+
+	/**
+	 * This function computes the value of a leaf node whose slots are
+	 * slots[from], ..., slots[from + count - 1] into a buffer. It uses the digest
+	 * of the current thread and allocates nothing.
+	 * 
+	 * @param index  - the index of the leaf node
+	 * @param slots  - a list holding the slots of the leaf node in order
+	 * @param from   - the position of the first slot in 'slots'
+	 * @param count  - the bucket size
+	 * @param engine - the hash function of the tree
+	 * @param result - the buffer
+	 * @param offset - where the value starts in 'result'
+	 */
+	public static void generateHash(int index, List<MetaProofData> slots, int from, int count, HashEngine engine,
+			byte[] result, int offset) {
+		if (count == 1) {
+			slots.get(from).generateHash(engine, result, offset);
+			return;
+		}
+
+		boolean empty = true;
+		for (int i = from; i < from + count; i++)
+			empty = empty && slots.get(i).isEmpty();
+		if (empty) {
+			System.arraycopy(engine.getEmptyLeaf(), 0, result, offset, HashEngine.HASH_SIZE);
+			return;
+		}
+
+		HashEngine.Scratch scratch = engine.getScratch();
+		MessageDigest md = scratch.md;
+
+		md.update(int2byteArray(index, scratch.word));
+		for (int i = from; i < from + count; i++) {
+			MetaProofData tuple = slots.get(i);
+			md.update(tuple.getFilename());
+			md.update(int2byteArray(tuple.getState(), scratch.word));
+		}
+		HashEngine.digest(md, result, offset);
+	}
+
+	/**
+	 * This function gets the value of an empty leaf node.
+	 * 
+	 * @return hash(all-zero filename, state 0)
+	 */
+	public static byte[] emptyLeafHash() {
+		return emptyLeafHash(HashEngine.SHA256);
+	}
+
+	/**
+	 * This function gets the value of an empty leaf node for a chosen hash
+	 * function.
+	 * 
+	 * @param engine - the hash function of the tree
+	 * @return hash(all-zero filename, state 0)
+	 */
+	public static byte[] emptyLeafHash(HashEngine engine) {
+		return engine.getEmptyLeaf().clone();
+	}
+
+	/**
+	 * This function tells whether the slot never stored any data, i.e. it holds
+	 * the special all-zero filename and its state is 0.
+	 * 
+	 * @return true/false
+	 */
+	public boolean isEmpty() {
+		if (this.state != 0)
+			return false;
+		for (int i = 0; i < this.filename.length; i++)
+			if (this.filename[i] != 0)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * This function check whether an authentication path is legal. A legal path has
+	 * two properties: one is that the leaf node value is equal to hash(index,
+	 * filename); the other is that the authentication path is correct and leads
+	 * from the leaf position given by 'index' to the root. A compact path (only
+	 * siblings, no root) is accepted as well.
+	 * 
+	 * @param root - the root value of the hash authentication tree
+	 * @return true/false
+	 */
+	public boolean validate(byte[] root) {
+		return this.validate(root, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function checks whether an authentication path is legal in a tree
+	 * built with a chosen hash function.
+	 * 
+	 * @param root   - the root value of the hash authentication tree
+	 * @param engine - the hash function of the tree
+	 * @return true/false
+	 */
+	public boolean validate(byte[] root, HashEngine engine) {
+		return this.validate(root, 2, engine);
+	}
+
+	/**
+	 * This function checks whether an authentication path is legal in a tree
+	 * with 'arity' children per inner node.
+	 * 
+	 * @param root   - the root value of the hash authentication tree
+	 * @param arity  - children per inner node: 2, 4, 8 or 16
+	 * @param engine - the hash function of the tree
+	 * @return true/false
+	 */
+	public boolean validate(byte[] root, int arity, HashEngine engine) {
+		int cheatFlag = 0;
+
+		byte[] tempMac = engine.getScratch().leaf; // only compared, never kept
+		this.generateHash(engine, tempMac, 0);
+
+		if (validate(tempMac, this.index, this.authenticationPath, this.compact, root, arity, engine) == false)
+			cheatFlag = cheatFlag + 1;
+		
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}	
+
+	/**
+	 * This function checks that an authentication path, full or compact, leads
+	 * from the leaf node value 'leafHash' at position 'index' to the root of a
+	 * tree with 'arity' children per inner node. A missing path is not legal.
+	 * 
+	 * @return true/false
+	 */
+	static boolean validate(byte[] leafHash, int index, byte[][] authenticationPath, boolean compact, byte[] root,
+			int arity, HashEngine engine) {
+		int cheatFlag = 0;
+
+		if (authenticationPath == null)
+			return false;
+
+		// a compact path is checked by recomputing the path from the leaf to the root
+		if (compact)
+			return HashTree.verify(leafHash, index, authenticationPath, root, arity, engine);
+
+		// check the leaf node value; it must sit at the position in its group given by the index
+		int group = Math.min(arity, authenticationPath.length - 1);
+		if (group < 1 || Arrays.equals(leafHash, authenticationPath[index & (group - 1)]) == false)
+			cheatFlag = cheatFlag + 1;
+
+		// check the authentication path
+		if (HashTree.verify(authenticationPath, index, root, arity, engine) == false)
+			cheatFlag = cheatFlag + 1;
+
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}
+	
+	private static byte[] int2byteArray(int num, byte[] result) {
+		result[3] = (byte) (num >>> 24);
+		result[2] = (byte) (num >>> 16);
+		result[1] = (byte) (num >>> 8);
+		result[0] = (byte) (num);
+
+		return result;
+	}
+
+	/**
+	 * This function prints out the proof data object.
+	 */
+	public void print() {
+		String temp = "[ ";
+		temp = temp + String.valueOf(this.index) + "; ";
+		temp = temp + DynamicVFS.bytes2HexString(this.filename) + "; ";
+		temp = temp + String.valueOf(this.state) + "; ";
+
+		if (this.authenticationPath != null)
+			for (int i = 0; i < this.authenticationPath.length; i++)
+				temp = temp + DynamicVFS.bytes2HexString(this.authenticationPath[i]) + " ";
+		temp = temp + "]";
+		System.out.println(temp);
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public byte[] getFilename() {
+		return filename;
+	}
+
+	public void setFilename(byte[] filename) {
+		this.filename = filename;
+	}
+	
+	public int getState() {
+		return state;
+	}
+
+	public void setState(int state) {
+		this.state = state;
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	public byte[][] getAuthenticationPath() {
+		return authenticationPath;
+	}
+
+	public void setAuthenticationPath(byte[][] authenticationPath) {
+		this.authenticationPath = authenticationPath;
+	}
+
+}
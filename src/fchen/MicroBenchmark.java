@@ -0,0 +1,444 @@
+package fchen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class measures every operation of the protocol in isolation, in the way
+ * of JMH: each operation runs in a freshly forked JVM, first for some warmup
+ * iterations that are thrown away and then for some measurement iterations of
+ * a fixed duration. Every iteration reports the average time per operation,
+ * the bytes allocated per operation (read from the allocation counter of the
+ * current thread) and the number of garbage collections. The score over all
+ * forks is given as the mean with the half-width of its 99.9% confidence
+ * interval.
+ *
+ * The outsourced files are synthetic names "file0", "file1", ..., so no
+ * directory is needed, and every operation is measured for each combination of
+ * the swept file counts, load factors and tree arities. The size of an encoded
+ * search result is reported along, since a larger arity trades fewer hashes
+ * for longer paths. Additions and deletions are undone
+ * after every iteration, outside of the timed part, so the table keeps its
+ * size.
+ *
+ * Usage: java fchen.MicroBenchmark [-f forks] [-wi warmup iterations] [-i
+ * measurement iterations] [-t milliseconds per iteration] [-files n1,n2,...]
+ * [-lf lf1,lf2,...] [-k arity1,arity2,...] [operation ...]
+ */
+public class MicroBenchmark {
+	public final static String[] OPERATIONS = { "build", "authenticationPath", "treeVerify", "leafHash", "query",
+			"searchExisting", "searchNonExisting", "verifyExisting", "verifyNonExisting", "add", "delete" };
+	public final static int SAMPLES = 1024; // distinct inputs per operation
+	public final static int BATCH = 256; // invocations between two reads of the clock
+	public final static String RESULT = "RESULT"; // prefix of the lines a fork reports to its parent
+
+	private int forks = 1;
+	private int warmupIterations = 3;
+	private int iterations = 5;
+	private int iterationTime = 500; // in milliseconds
+	private int[] fileCounts = { 1 << 12, 1 << 16 };
+	private double[] loadFactors = { 0.1, 0.5 };
+	private int[] arities = { 2 };
+
+	public static volatile int sink = 0; // consumes results so the JIT cannot drop the measured calls
+
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("-fork")) {
+			runFork(args[1], Integer.parseInt(args[2]), Double.parseDouble(args[3]), Integer.parseInt(args[4]),
+					Integer.parseInt(args[5]), Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+			return;
+		}
+
+		MicroBenchmark b = new MicroBenchmark();
+		List<String> operations = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-f"))
+				b.forks = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-wi"))
+				b.warmupIterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-i"))
+				b.iterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-t"))
+				b.iterationTime = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-files"))
+				b.fileCounts = parseInts(args[++i]);
+			else if (args[i].equals("-lf"))
+				b.loadFactors = parseDoubles(args[++i]);
+			else if (args[i].equals("-k"))
+				b.arities = parseInts(args[++i]);
+			else
+				operations.add(args[i]);
+		}
+		if (operations.isEmpty())
+			for (String operation : OPERATIONS)
+				operations.add(operation);
+
+		b.run(operations);
+	}
+
+	/**
+	 * This function measures the given operations for every combination of file
+	 * count, load factor and arity and prints one line per measurement.
+	 *
+	 * @param operations - names from OPERATIONS
+	 */
+	public void run(List<String> operations) {
+		System.out.println(String.format(Locale.ROOT, "%-20s %9s %6s %3s %4s %14s %12s %12s %8s %9s", "Benchmark",
+				"files", "lf", "k", "Cnt", "Score(ns/op)", "Error", "Alloc(B/op)", "GCs", "Proof(B)"));
+
+		for (String operation : operations)
+			for (int fileCount : this.fileCounts)
+				for (double loadFactor : this.loadFactors)
+					for (int arity : this.arities) {
+						List<double[]> samples = new ArrayList<double[]>();
+						for (int f = 0; f < this.forks; f++)
+							samples.addAll(this.fork(operation, fileCount, loadFactor, arity));
+
+						if (samples.isEmpty()) {
+							System.out.println("Error occured when measuring " + operation + ": no result.");
+							continue;
+						}
+
+						double[] time = new double[samples.size()];
+						double allocated = 0, collections = 0;
+						for (int i = 0; i < samples.size(); i++) {
+							time[i] = samples.get(i)[0];
+							allocated = allocated + samples.get(i)[1];
+							collections = collections + samples.get(i)[2];
+						}
+						System.out.println(String.format(Locale.ROOT,
+								"%-20s %9d %6.2f %3d %4d %14.1f %12.1f %12.1f %8.0f %9.0f", operation, fileCount,
+								loadFactor, arity, time.length, mean(time), error(time), allocated / samples.size(),
+								collections, samples.get(0)[3]));
+					}
+	}
+
+	/**
+	 * This function runs one operation in a new JVM with the class path and the
+	 * JVM options of this one.
+	 *
+	 * @return one {time per operation, bytes per operation, collections, bytes
+	 *         per search result} per measurement iteration
+	 */
+	private List<double[]> fork(String operation, int fileCount, double loadFactor, int arity) {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(MicroBenchmark.class.getName());
+		command.add("-fork");
+		command.add(operation);
+		command.add(String.valueOf(fileCount));
+		command.add(String.valueOf(loadFactor));
+		command.add(String.valueOf(arity));
+		command.add(String.valueOf(this.warmupIterations));
+		command.add(String.valueOf(this.iterations));
+		command.add(String.valueOf(this.iterationTime));
+
+		List<double[]> result = new ArrayList<double[]>();
+		try {
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line = null;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(RESULT) == false) {
+					if (line.startsWith("Error"))
+						System.out.println(line);
+					continue;
+				}
+				String[] fields = line.split(" ");
+				result.add(new double[] { Double.parseDouble(fields[1]), Double.parseDouble(fields[2]),
+						Double.parseDouble(fields[3]), Double.parseDouble(fields[4]) });
+			}
+			process.waitFor();
+		} catch (Exception e) {
+			System.out.println("Error occured when forking a benchmark JVM.");
+			System.out.println(e);
+		}
+		return result;
+	}
+
+	/**
+	 * This function is the body of a forked JVM: it prepares the table, runs the
+	 * iterations and prints one RESULT line per measurement iteration.
+	 */
+	private static void runFork(String name, int fileCount, double loadFactor, int arity, int warmupIterations,
+			int iterations, int iterationTime) {
+		State state = prepare(fileCount, loadFactor, arity);
+		Operation operation = createOperation(name, state);
+		if (operation == null) {
+			System.out.println("Error occured when measuring " + name + ": unknown operation.");
+			return;
+		}
+
+		for (int i = 0; i < warmupIterations + iterations; i++) {
+			double[] sample = iterate(operation, iterationTime * 1000000L);
+			if (i >= warmupIterations)
+				System.out.println(String.format(Locale.ROOT, "%s %.3f %.3f %.0f %.1f", RESULT, sample[0], sample[1],
+						sample[2], state.proofBytes));
+		}
+	}
+
+	/**
+	 * This function runs batches of an operation until they took 'duration'
+	 * nanoseconds in total. Only the invocations are timed; the work done before
+	 * and after a batch is not.
+	 *
+	 * @return {time per operation, bytes per operation, collections}
+	 */
+	private static double[] iterate(Operation operation, long duration) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean countAllocation = threads instanceof com.sun.management.ThreadMXBean;
+		long thread = Thread.currentThread().getId();
+
+		long elapsed = 0, allocated = 0, invocations = 0;
+		long collections = collectionCount();
+		while (elapsed < duration) {
+			int batch = operation.batch();
+			operation.before();
+
+			long startMemory = countAllocation
+					? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread)
+					: 0;
+			long startTime = System.nanoTime();
+			for (int i = 0; i < batch; i++)
+				operation.invoke(i);
+			long endTime = System.nanoTime();
+			long endMemory = countAllocation
+					? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread)
+					: 0;
+
+			operation.after();
+			elapsed = elapsed + (endTime - startTime);
+			allocated = allocated + (endMemory - startMemory);
+			invocations = invocations + batch;
+		}
+
+		return new double[] { (double) elapsed / invocations,
+				countAllocation ? (double) allocated / invocations : -1, collectionCount() - collections };
+	}
+
+	private static long collectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count = count + Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	/**
+	 * This function outsources 'fileCount' synthetic names into a tree with
+	 * 'arity' children per node and computes the inputs of the operations.
+	 */
+	private static State prepare(int fileCount, double loadFactor, int arity) {
+		State state = new State();
+		state.vfs = new DynamicVFS("synthetic", loadFactor);
+		state.vfs.setGrowThreshold(1); // additions must not make the table grow
+		state.vfs.setArity(arity);
+		state.vfs.prepareOutsource(names("file", fileCount), fileCount);
+		state.vfs.outsource();
+
+		int leafSize = state.vfs.getLeafSize();
+		for (int i = 0; i < SAMPLES; i++) {
+			int file = (int) ((long) i * fileCount / SAMPLES);
+			state.names[i] = "file" + file;
+			state.existing[i] = state.vfs.query("file" + file);
+			state.nonExisting[i] = state.vfs.query("absent" + i);
+			state.fresh[i] = state.vfs.query("fresh" + i);
+			state.existingProofs[i] = state.vfs.search(state.existing[i]);
+			state.nonExistingProofs[i] = state.vfs.search(state.nonExisting[i]);
+			state.leaves[i] = state.existingProofs[i].getAuthentication(0);
+			state.indices[i] = (int) ((long) i * leafSize / SAMPLES);
+			state.paths[i] = state.vfs.getHashTree().getAuthenticationPath(state.indices[i]);
+			state.proofBytes = state.proofBytes + (double) ProofCodec.encode(state.existingProofs[i]).length / SAMPLES;
+		}
+		state.root = state.vfs.getHashTree().getRoot();
+		return state;
+	}
+
+	private static Iterator<String> names(final String prefix, final int count) {
+		return new Iterator<String>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			public String next() {
+				return prefix + (next++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static Operation createOperation(String name, final State s) {
+		if (name.equals("build"))
+			return new Operation() {
+				int batch() {
+					return 1;
+				}
+
+				void invoke(int i) {
+					s.vfs.outsource();
+					sink ^= s.vfs.getHashTree().getRoot()[0];
+				}
+			};
+		if (name.equals("authenticationPath"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= s.vfs.getHashTree().getAuthenticationPath(s.indices[i % SAMPLES]).length;
+				}
+			};
+		if (name.equals("treeVerify"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= HashTree.verify(s.paths[i % SAMPLES], s.indices[i % SAMPLES], s.root,
+							s.vfs.getArity(), HashEngine.SHA256) ? 1 : 2;
+				}
+			};
+		if (name.equals("leafHash"))
+			return new Operation() {
+				void invoke(int i) {
+					s.leaves[i % SAMPLES].generateHash(HashEngine.SHA256, s.hash, 0);
+					sink ^= s.hash[0];
+				}
+			};
+		if (name.equals("query"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= s.vfs.query(s.names[i % SAMPLES])[0];
+				}
+			};
+		if (name.equals("searchExisting"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= s.vfs.search(s.existing[i % SAMPLES]).getTotalItems();
+				}
+			};
+		if (name.equals("searchNonExisting"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= s.vfs.search(s.nonExisting[i % SAMPLES]).getTotalItems();
+				}
+			};
+		if (name.equals("verifyExisting"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= s.vfs.verify(s.existing[i % SAMPLES], s.existingProofs[i % SAMPLES]) ? 1 : 2;
+				}
+			};
+		if (name.equals("verifyNonExisting"))
+			return new Operation() {
+				void invoke(int i) {
+					sink ^= s.vfs.verify(s.nonExisting[i % SAMPLES], s.nonExistingProofs[i % SAMPLES]) ? 1 : 2;
+				}
+			};
+		if (name.equals("add"))
+			return new Operation() {
+				void invoke(int i) {
+					s.vfs.add(s.fresh[i]);
+				}
+
+				void after() {
+					for (int i = 0; i < BATCH; i++)
+						s.vfs.delete(s.fresh[i]);
+				}
+			};
+		if (name.equals("delete"))
+			return new Operation() {
+				void invoke(int i) {
+					s.vfs.delete(s.existing[i]);
+				}
+
+				void after() {
+					for (int i = 0; i < BATCH; i++)
+						s.vfs.add(s.existing[i]);
+				}
+			};
+		return null;
+	}
+
+	private static double mean(double[] data) {
+		double sum = 0;
+		for (double d : data)
+			sum = sum + d;
+		return sum / data.length;
+	}
+
+	/**
+	 * This function computes the half-width of the 99.9% confidence interval of
+	 * the mean, using the normal approximation.
+	 */
+	private static double error(double[] data) {
+		if (data.length < 2)
+			return Double.NaN;
+		double mean = mean(data), sum = 0;
+		for (double d : data)
+			sum = sum + (d - mean) * (d - mean);
+		return 3.291 * Math.sqrt(sum / (data.length - 1)) / Math.sqrt(data.length);
+	}
+
+	private static int[] parseInts(String list) {
+		String[] items = list.split(",");
+		int[] result = new int[items.length];
+		for (int i = 0; i < items.length; i++)
+			result[i] = Integer.parseInt(items[i].trim());
+		return result;
+	}
+
+	private static double[] parseDoubles(String list) {
+		String[] items = list.split(",");
+		double[] result = new double[items.length];
+		for (int i = 0; i < items.length; i++)
+			result[i] = Double.parseDouble(items[i].trim());
+		return result;
+	}
+
+	/**
+	 * The outsourced table and the precomputed inputs of the operations.
+	 */
+	private static class State {
+		DynamicVFS vfs = null;
+		String[] names = new String[SAMPLES];
+		byte[][] existing = new byte[SAMPLES][];
+		byte[][] nonExisting = new byte[SAMPLES][];
+		byte[][] fresh = new byte[SAMPLES][];
+		ProofData[] existingProofs = new ProofData[SAMPLES];
+		ProofData[] nonExistingProofs = new ProofData[SAMPLES];
+		MetaProofData[] leaves = new MetaProofData[SAMPLES];
+		int[] indices = new int[SAMPLES];
+		byte[][][] paths = new byte[SAMPLES][][];
+		byte[] root = null; // the root known to the data user
+		double proofBytes = 0; // mean size of an encoded search result of an existing file
+		byte[] hash = new byte[HashEngine.HASH_SIZE]; // the leaf value; reused
+	}
+
+	/**
+	 * One measured operation. A batch of invocations is timed; 'before()' and
+	 * 'after()' are not.
+	 */
+	private static abstract class Operation {
+		int batch() {
+			return BATCH;
+		}
+
+		void before() {
+		}
+
+		abstract void invoke(int i);
+
+		void after() {
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package fchen;
+
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * This class encapsulates the results of a batch search returned by the cloud,
+ * together with one common correctness proof. Each result lists the probed
+ * slots (index, filename, state) of one query without authentication paths.
+ * The proof holds only the tree nodes that the verifier cannot recompute from
+ * the probed slots; a node shared by several paths appears once. The proof size
+ * and the hashing work of the verifier therefore grow with the union of the
+ * touched paths instead of with the number of queries times the tree height.
+ */
+public class MultiProofData {
+	private ProofData[] results = null; // one search result per query, without paths
+	private int[] nodes = null; // indices of the supplied tree nodes
+	private byte[][] hashes = null; // values of the supplied tree nodes
+	private MultiProofData oldTableProof = null; // while the table grows: the results in the old table
+
+	public MultiProofData(ProofData[] results, int[] nodes, byte[][] hashes) {
+		super();
+		this.results = results;
+		this.nodes = nodes;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own. Every result
+	 * must follow the probing sequence of its query, and the probed slots together
+	 * with the supplied nodes must hash to the root.
+	 *
+	 * @param leafSize   - number of total leaves
+	 * @param treeHeight - height of the hash tree
+	 * @param root       - the root Hash value of the authentication tree
+	 * @return If the returned results from the cloud are correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int treeHeight, byte[] root) {
+		return this.validate(leafSize, treeHeight, 1, root);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own when every
+	 * leaf holds a bucket of 'bucketSize' slots; the slots of a probed leaf are
+	 * hashed together into one bottom-level value.
+	 *
+	 * @param leafSize   - number of total leaves
+	 * @param treeHeight - height of the hash tree
+	 * @param bucketSize - number of slots per leaf
+	 * @param root       - the root Hash value of the authentication tree
+	 * @return If the returned results from the cloud are correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int treeHeight, int bucketSize, byte[] root) {
+		return this.validate(leafSize, treeHeight, bucketSize, root, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own in a tree
+	 * built with a chosen hash function.
+	 *
+	 * @param leafSize   - number of total leaves
+	 * @param treeHeight - height of the hash tree
+	 * @param bucketSize - number of slots per leaf
+	 * @param root       - the root Hash value of the authentication tree
+	 * @param engine     - the hash function of the tree
+	 * @return If the returned results from the cloud are correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int treeHeight, int bucketSize, byte[] root, HashEngine engine) {
+		return this.validate(leafSize, treeHeight, bucketSize, 2, root, engine);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own in a tree
+	 * with 'arity' children per inner node.
+	 *
+	 * @param leafSize   - number of total leaves
+	 * @param treeHeight - the tree has 2^treeHeight leaves
+	 * @param bucketSize - number of slots per leaf
+	 * @param arity      - children per inner node: 2, 4, 8 or 16
+	 * @param root       - the root Hash value of the authentication tree
+	 * @param engine     - the hash function of the tree
+	 * @return If the returned results from the cloud are correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int treeHeight, int bucketSize, int arity, byte[] root, HashEngine engine) {
+		return this.validate(leafSize, new TreeShape(treeHeight, arity), bucketSize, root, engine, null);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own against the
+	 * cached upper levels of the tree. The supplied nodes need to reach only the
+	 * frontier, and every computed frontier node must equal the cached one. The
+	 * hash function and the arity are those of the tree the frontier was taken
+	 * from.
+	 *
+	 * @param leafSize   - number of total leaves
+	 * @param treeHeight - height of the hash tree
+	 * @param bucketSize - number of slots per leaf
+	 * @param frontier   - the checked upper levels of the authentication tree
+	 * @return If the returned results from the cloud are correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int treeHeight, int bucketSize, Frontier frontier) {
+		return this.validate(leafSize, new TreeShape(treeHeight, frontier.getArity()), bucketSize, frontier.getRoot(),
+				frontier.getEngine(), frontier);
+	}
+
+	private boolean validate(int leafSize, TreeShape shape, int bucketSize, byte[] root, HashEngine engine,
+			Frontier frontier) {
+		for (ProofData result : this.results)
+			if (result.validateIndices(leafSize, bucketSize) == false)
+				return false;
+
+		MessageDigest md = engine.getDigest();
+
+		HashMap<Integer, byte[]> supplied = new HashMap<Integer, byte[]>();
+		for (int i = 0; i < this.nodes.length; i++)
+			supplied.put(this.nodes[i], this.hashes[i]);
+
+		// the bottom level: one value per probed leaf; a leaf probed by several
+		// queries must be reported identically each time
+		TreeMap<Integer, byte[]> level = new TreeMap<Integer, byte[]>();
+		int first = shape.getLeafStart();
+		for (ProofData result : this.results) {
+			for (int i = 0; i < result.getTotalItems(); i = i + bucketSize) {
+				int index = result.getAuthentication(i).getIndex() / bucketSize;
+				byte[] leafHash = MetaProofData.generateHash(index, result.getBucket(i, bucketSize), engine);
+				byte[] previous = level.put(first + index, leafHash);
+				if (previous != null && Arrays.equals(previous, leafHash) == false)
+					return false;
+			}
+		}
+
+		// calculate the touched nodes from the bottom to the top, or to the frontier
+		int levels = (frontier == null) ? 0 : frontier.getLevels();
+		for (int depth = shape.getDepth(); depth > levels; depth--) {
+			TreeMap<Integer, byte[]> parents = new TreeMap<Integer, byte[]>();
+			for (Map.Entry<Integer, byte[]> entry : level.entrySet()) {
+				int parent = shape.getParent(entry.getKey(), depth);
+				if (parents.containsKey(parent))
+					continue; // already computed from another child
+
+				int child = shape.getFirstChild(parent, depth - 1);
+				for (int i = child; i < child + shape.getFanOut(depth - 1); i++) {
+					byte[] childHash = level.containsKey(i) ? level.get(i) : supplied.get(i);
+					if (childHash == null) {
+						md.reset();
+						return false;
+					}
+					md.update(childHash);
+				}
+				parents.put(parent, md.digest());
+			}
+			level = parents;
+		}
+
+		if (frontier != null) {
+			for (Map.Entry<Integer, byte[]> entry : level.entrySet())
+				if (Arrays.equals(entry.getValue(), frontier.getNode(entry.getKey())) == false)
+					return false;
+			return true;
+		}
+
+		return Arrays.equals(level.get(0), root);
+	}
+
+	/**
+	 * This function prints out the whole multi-proof.
+	 */
+	public void print() {
+		for (ProofData result : this.results)
+			result.print();
+
+		System.out.println("supplied nodes: " + this.nodes.length);
+		for (int i = 0; i < this.nodes.length; i++)
+			System.out.println(this.nodes[i] + ": " + DynamicVFS.bytes2HexString(this.hashes[i]));
+
+		if (this.oldTableProof != null) {
+			System.out.println("old table:");
+			this.oldTableProof.print();
+		}
+	}
+
+	public int getTotalResults() {
+		return results.length;
+	}
+
+	/**
+	 * This function gets the search result of the i-th query, where 'i' starts
+	 * with index 0.
+	 *
+	 * @param i - index
+	 * @return the probed slots and the existing flag, without paths
+	 */
+	public ProofData getResult(int i) {
+		return results[i];
+	}
+
+	public int[] getNodes() {
+		return nodes;
+	}
+
+	public byte[][] getHashes() {
+		return hashes;
+	}
+
+	public MultiProofData getOldTableProof() {
+		return oldTableProof;
+	}
+
+	/**
+	 * This function attaches the results in the old table while the table grows.
+	 * This multi-proof then covers the new table, and the existing flag of each
+	 * result is 1 if the file exists in either table.
+	 * 
+	 * @param oldTableProof - the results in the old table
+	 */
+	public void setOldTableProof(MultiProofData oldTableProof) {
+		this.oldTableProof = oldTableProof;
+	}
+}
@@ -0,0 +1,385 @@
+package fchen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * This class stores all nodes of a hash authentication tree in one contiguous
+ * region instead of one small array per node. Node 'i' of the complete binary
+ * tree occupies the bytes [i * hashSize, (i + 1) * hashSize) of the region.
+ *
+ * Two dense storage modes are provided: a heap mode backed by a big byte array
+ * and an off-heap mode backed by direct byte buffers or by a memory-mapped file.
+ * A third, sparse mode keeps
+ * only the nodes that were written and reads every other node as the hash of an
+ * all-empty subtree. Since a Java array or buffer is
+ * limited to 2^31 bytes, very large trees are split into a few chunks of
+ * 2^CHUNK_SHIFT nodes each; smaller trees use exactly one region.
+ */
+public abstract class NodeStore {
+	public final static int CHUNK_SHIFT = 25; // 2^25 nodes * 32 bytes = 1GB per chunk
+	protected final static int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	protected int nodeCount = 0;
+	protected int hashSize = 0;
+
+	protected NodeStore(int nodeCount, int hashSize) {
+		this.nodeCount = nodeCount;
+		this.hashSize = hashSize;
+	}
+
+	/**
+	 * This function allocates a store for 'nodeCount' nodes.
+	 *
+	 * @param nodeCount - number of nodes in the tree
+	 * @param hashSize  - size of a node in bytes
+	 * @param offHeap   - true to place the nodes in direct byte buffers outside the Java heap
+	 * @return an empty store
+	 */
+	public static NodeStore allocate(int nodeCount, int hashSize, boolean offHeap) {
+		if (offHeap)
+			return new OffHeap(nodeCount, hashSize);
+		else
+			return new Heap(nodeCount, hashSize);
+	}
+
+	/**
+	 * This function allocates a sparse store for a tree of height 'treeHeight'.
+	 * A node that was never written reads as the hash of an all-empty subtree of
+	 * its height.
+	 *
+	 * @param treeHeight    - height of the tree
+	 * @param emptyHash     - emptyHash[h] is the root of an all-empty subtree of height h
+	 * @param expectedNodes - expected number of stored nodes; the store grows when needed
+	 * @return a store in which every node is empty
+	 */
+	public static NodeStore allocateSparse(int treeHeight, byte[][] emptyHash, int expectedNodes) {
+		return allocateSparse(new TreeShape(treeHeight, 2), emptyHash, expectedNodes);
+	}
+
+	/**
+	 * This function allocates a sparse store for a tree of any arity.
+	 *
+	 * @param shape         - the levels of the tree
+	 * @param emptyHash     - emptyHash[t] is the root of an all-empty subtree with t levels above its leaves
+	 * @param expectedNodes - expected number of stored nodes; the store grows when needed
+	 * @return a store in which every node is empty
+	 */
+	public static NodeStore allocateSparse(TreeShape shape, byte[][] emptyHash, int expectedNodes) {
+		return new Sparse(shape, emptyHash, expectedNodes);
+	}
+
+	/**
+	 * This function maps 'nodeCount' nodes of a file into memory. Nothing is read
+	 * up front; the pages are loaded by the operating system on first access.
+	 *
+	 * @param channel   - the opened file
+	 * @param position  - offset of node 0 in the file
+	 * @param nodeCount - number of nodes in the tree
+	 * @param hashSize  - size of a node in bytes
+	 * @param mode      - READ_ONLY, READ_WRITE to write changes through to the file,
+	 *                    or PRIVATE to keep changes in memory only
+	 * @return a store backed by the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public static NodeStore map(FileChannel channel, long position, int nodeCount, int hashSize,
+			FileChannel.MapMode mode) throws IOException {
+		int chunkCount = ((nodeCount - 1) >>> CHUNK_SHIFT) + 1;
+		ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			int nodes = Math.min(nodeCount - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+			chunks[i] = channel.map(mode, position + ((long) i << CHUNK_SHIFT) * hashSize, (long) nodes * hashSize);
+		}
+		return new OffHeap(chunks, nodeCount, hashSize);
+	}
+
+	/**
+	 * This function copies the value of a node into 'dst' starting at 'offset'.
+	 */
+	public abstract void read(int node, byte[] dst, int offset);
+
+	/**
+	 * This function copies 'hashSize' bytes of 'src' starting at 'offset' into a node.
+	 */
+	public abstract void write(int node, byte[] src, int offset);
+
+	/**
+	 * This function feeds the value of a node into a message digest.
+	 */
+	public abstract void update(MessageDigest md, int node);
+
+	/**
+	 * This function completes a message digest and stores the result as the value of a node.
+	 */
+	public abstract void digest(MessageDigest md, int node);
+
+	/**
+	 * This function gets a copy of the value of a node.
+	 *
+	 * @param node - node index in the complete binary tree
+	 * @return a fresh array holding the hash value
+	 */
+	public byte[] get(int node) {
+		byte[] result = new byte[this.hashSize];
+		this.read(node, result, 0);
+		return result;
+	}
+
+	public void put(int node, byte[] value) {
+		this.write(node, value, 0);
+	}
+
+	/**
+	 * This function writes the changed nodes of a mapped store back to its file.
+	 * The other modes have nothing to write.
+	 */
+	public void force() {
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getHashSize() {
+		return hashSize;
+	}
+
+	/**
+	 * The heap mode. The nodes are packed into one byte array (or a few when the
+	 * tree exceeds one chunk), so the garbage collector sees a handful of objects
+	 * instead of one per node.
+	 */
+	static class Heap extends NodeStore {
+		private byte[][] chunks = null;
+
+		Heap(int nodeCount, int hashSize) {
+			super(nodeCount, hashSize);
+
+			int chunkCount = ((nodeCount - 1) >>> CHUNK_SHIFT) + 1;
+			this.chunks = new byte[chunkCount][];
+			for (int i = 0; i < chunkCount; i++) {
+				int nodes = Math.min(nodeCount - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+				this.chunks[i] = new byte[nodes * hashSize];
+			}
+		}
+
+		@Override
+		public void read(int node, byte[] dst, int offset) {
+			System.arraycopy(this.chunks[node >>> CHUNK_SHIFT], (node & CHUNK_MASK) * this.hashSize, dst, offset,
+					this.hashSize);
+		}
+
+		@Override
+		public void write(int node, byte[] src, int offset) {
+			System.arraycopy(src, offset, this.chunks[node >>> CHUNK_SHIFT], (node & CHUNK_MASK) * this.hashSize,
+					this.hashSize);
+		}
+
+		@Override
+		public void update(MessageDigest md, int node) {
+			md.update(this.chunks[node >>> CHUNK_SHIFT], (node & CHUNK_MASK) * this.hashSize, this.hashSize);
+		}
+
+		@Override
+		public void digest(MessageDigest md, int node) {
+			try {
+				md.digest(this.chunks[node >>> CHUNK_SHIFT], (node & CHUNK_MASK) * this.hashSize, this.hashSize);
+			} catch (Exception e) {
+				System.out.println("digest into node store error");
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**
+	 * The sparse mode. Only written nodes are kept, in an open addressing table
+	 * whose values are packed into one byte array like the heap mode. With a low
+	 * load factor most leaves are empty, so most nodes are never written. A write
+	 * may rehash the whole table, so all accesses are synchronized.
+	 */
+	static class Sparse extends NodeStore {
+		private TreeShape shape = null;
+		private byte[][] emptyHash = null;
+		private int[] keys = null; // node index + 1; 0 marks a free slot
+		private byte[] values = null;
+		private int size = 0; // number of stored nodes
+
+		Sparse(TreeShape shape, byte[][] emptyHash, int expectedNodes) {
+			super(shape.getNodeCount(), emptyHash[0].length);
+			this.shape = shape;
+			this.emptyHash = emptyHash;
+
+			int capacity = 16;
+			while (capacity < 2 * expectedNodes)
+				capacity = capacity * 2;
+			this.keys = new int[capacity];
+			this.values = new byte[capacity * this.hashSize];
+		}
+
+		/**
+		 * This function finds the slot of a node in the table.
+		 *
+		 * @return the slot if the node is stored; otherwise -(free slot) - 1
+		 */
+		private int find(int node) {
+			int mask = this.keys.length - 1;
+			int hash = node * 0x9E3779B9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (this.keys[slot] != 0) {
+				if (this.keys[slot] == node + 1)
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+			return -slot - 1;
+		}
+
+		private int insert(int node) {
+			int slot = this.find(node);
+			if (slot >= 0)
+				return slot;
+
+			if (4 * (this.size + 1) > 3 * this.keys.length) { // keep the table at most 3/4 full
+				this.grow();
+				slot = this.find(node);
+			}
+			slot = -slot - 1;
+			this.keys[slot] = node + 1;
+			this.size = this.size + 1;
+			return slot;
+		}
+
+		private void grow() {
+			int[] oldKeys = this.keys;
+			byte[] oldValues = this.values;
+			this.keys = new int[2 * oldKeys.length];
+			this.values = new byte[2 * oldValues.length];
+
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] == 0)
+					continue;
+				int slot = -this.find(oldKeys[i] - 1) - 1;
+				this.keys[slot] = oldKeys[i];
+				System.arraycopy(oldValues, i * this.hashSize, this.values, slot * this.hashSize, this.hashSize);
+			}
+		}
+
+		private byte[] emptyValue(int node) {
+			return this.emptyHash[this.shape.getDepth() - this.shape.getDepth(node)];
+		}
+
+		@Override
+		public synchronized void read(int node, byte[] dst, int offset) {
+			int slot = this.find(node);
+			if (slot >= 0)
+				System.arraycopy(this.values, slot * this.hashSize, dst, offset, this.hashSize);
+			else
+				System.arraycopy(this.emptyValue(node), 0, dst, offset, this.hashSize);
+		}
+
+		@Override
+		public synchronized void write(int node, byte[] src, int offset) {
+			int slot = this.insert(node);
+			System.arraycopy(src, offset, this.values, slot * this.hashSize, this.hashSize);
+		}
+
+		@Override
+		public synchronized void update(MessageDigest md, int node) {
+			int slot = this.find(node);
+			if (slot >= 0)
+				md.update(this.values, slot * this.hashSize, this.hashSize);
+			else
+				md.update(this.emptyValue(node));
+		}
+
+		@Override
+		public synchronized void digest(MessageDigest md, int node) {
+			int slot = this.insert(node);
+			try {
+				md.digest(this.values, slot * this.hashSize, this.hashSize);
+			} catch (Exception e) {
+				System.out.println("digest into node store error");
+				System.out.println(e);
+			}
+		}
+
+		public synchronized int getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * The off-heap mode. The nodes live in direct byte buffers, which keeps the
+	 * whole tree out of the Java heap and out of the way of the garbage collector.
+	 * The buffers may also be mapped from a file.
+	 */
+	static class OffHeap extends NodeStore {
+		private ByteBuffer[] chunks = null;
+		private ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() { // one node value per thread
+			@Override
+			protected byte[] initialValue() {
+				return new byte[hashSize];
+			}
+		};
+
+		OffHeap(int nodeCount, int hashSize) {
+			super(nodeCount, hashSize);
+
+			int chunkCount = ((nodeCount - 1) >>> CHUNK_SHIFT) + 1;
+			this.chunks = new ByteBuffer[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				int nodes = Math.min(nodeCount - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+				this.chunks[i] = ByteBuffer.allocateDirect(nodes * hashSize);
+			}
+		}
+
+		OffHeap(ByteBuffer[] chunks, int nodeCount, int hashSize) {
+			super(nodeCount, hashSize);
+			this.chunks = chunks;
+		}
+
+		@Override
+		public void read(int node, byte[] dst, int offset) {
+			ByteBuffer chunk = this.chunks[node >>> CHUNK_SHIFT];
+			int position = (node & CHUNK_MASK) * this.hashSize;
+			for (int i = 0; i < this.hashSize; i++)
+				dst[offset + i] = chunk.get(position + i); // absolute access; safe for concurrent readers
+		}
+
+		@Override
+		public void write(int node, byte[] src, int offset) {
+			ByteBuffer chunk = this.chunks[node >>> CHUNK_SHIFT];
+			int position = (node & CHUNK_MASK) * this.hashSize;
+			for (int i = 0; i < this.hashSize; i++)
+				chunk.put(position + i, src[offset + i]);
+		}
+
+		@Override
+		public void update(MessageDigest md, int node) {
+			byte[] buffer = this.buffers.get();
+			this.read(node, buffer, 0);
+			md.update(buffer);
+		}
+
+		@Override
+		public void digest(MessageDigest md, int node) {
+			byte[] buffer = this.buffers.get();
+			try {
+				md.digest(buffer, 0, this.hashSize);
+			} catch (Exception e) {
+				System.out.println("digest into node store error");
+				System.out.println(e);
+			}
+			this.write(node, buffer, 0);
+		}
+
+		@Override
+		public void force() {
+			for (ByteBuffer chunk : this.chunks)
+				if (chunk instanceof MappedByteBuffer && chunk.isReadOnly() == false)
+					((MappedByteBuffer) chunk).force();
+		}
+	}
+}
@@ -1,20 +1,20 @@
-package fchen;
-
-/**
- * It evaluates the performance of the hash tree based algorithm implemented in this project.
- * This is the class that should be run.
- * To change the directory of the files, manually modify new Benchmark("D:\\test\\files\\test6");
- * 
- * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
- * @author First draft on 12-03-2013. License: GNU GPL
- * @author Last updated on 10-04-2013.
- * @author Email: chenfeiorange@163.com
- *
- */
-public class PerformanceEvaluate {
-
-	public static void main(String[] args) {
-		Benchmark b = new Benchmark("D:\\test\\files\\test6");
-		b.run();
-	}
-}
+package fchen;
+
+/**
+ * It evaluates the performance of the hash tree based algorithm implemented in this project.
+ * This is the class that should be run.
+ * To change the directory of the files, manually modify new Benchmark("D:\\test\\files\\test6");
+ * 
+ * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
+ * @author First draft on 12-03-2013. License: GNU GPL
+ * @author Last updated on 10-04-2013.
+ * @author Email: chenfeiorange@163.com
+ *
+ */
+public class PerformanceEvaluate {
+
+	public static void main(String[] args) {
+		Benchmark b = new Benchmark("D:\\test\\files\\test6");
+		b.run();
+	}
+}
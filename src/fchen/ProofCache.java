@@ -0,0 +1,206 @@
+package fchen;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class caches search results on the cloud, keyed by the query MAC, so
+ * that a hot name is not probed and its paths are not read from the tree
+ * versions again. At most 'capacity' results are kept; the least recently
+ * used one is evicted first.
+ *
+ * A result depends only on the probed leaves and on the nodes of their paths.
+ * The leaves are grouped into the subtrees rooted at depth 'levels'; every
+ * update stamps the subtrees it changes with a new change number. A result is
+ * valid as long as none of the subtrees of its probed leaves changed after it
+ * was computed. With 'levels' = 0 there is one subtree, i.e. every update
+ * invalidates every result, which is necessary when the paths reach the root.
+ * When the data user caches the upper levels (see Frontier), the paths stop at
+ * depth 'levels' and an update invalidates only the results below it.
+ *
+ * The cache keeps its own copy of a result and returns a new copy on every
+ * hit (see ProofData.copy()), so a caller may change what it gets without
+ * changing what later searches get.
+ */
+public class ProofCache {
+	private int capacity = 0;
+	private int treeHeight = 0;
+	private TreeShape shape = null; // the levels of the tree
+	private int levels = 0; // depth of the subtrees by which results are invalidated
+	private AtomicLong changes = new AtomicLong(0); // number of the last change
+	private AtomicLongArray lastChange = null; // for each subtree: number of its last change
+	private AtomicLong hits = new AtomicLong(0);
+	private AtomicLong misses = new AtomicLong(0);
+	private LinkedHashMap<ByteBuffer, CachedProof> entries = null; // in access order
+
+	/**
+	 * This function creates an empty cache.
+	 *
+	 * @param capacity   - most results kept
+	 * @param treeHeight - height of the hash tree
+	 * @param levels     - depth of the subtrees by which results are invalidated;
+	 *                   0 to invalidate all results on every update
+	 */
+	public ProofCache(final int capacity, int treeHeight, int levels) {
+		this(capacity, new TreeShape(treeHeight, 2), levels);
+	}
+
+	/**
+	 * This function creates an empty cache for a tree of any arity.
+	 *
+	 * @param capacity - most results kept
+	 * @param shape    - the levels of the hash tree
+	 * @param levels   - depth of the subtrees by which results are invalidated;
+	 *                 0 to invalidate all results on every update
+	 */
+	public ProofCache(final int capacity, TreeShape shape, int levels) {
+		this.capacity = capacity;
+		this.treeHeight = shape.getTreeHeight();
+		this.shape = shape;
+		this.levels = Math.min(levels, shape.getDepth());
+		this.lastChange = new AtomicLongArray(shape.getLevelSize(this.levels));
+		this.entries = new LinkedHashMap<ByteBuffer, CachedProof>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedProof> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * This function gets the number of the last change. A search must call it
+	 * before pinning the tree version from which its result is computed, and
+	 * pass it to put().
+	 */
+	public long begin() {
+		return this.changes.get();
+	}
+
+	/**
+	 * This function looks up a valid result. A stale result is dropped.
+	 *
+	 * @param queryFile - the query MAC
+	 * @return a copy of the cached result, or null
+	 */
+	public ProofData get(byte[] queryFile) {
+		ByteBuffer key = ByteBuffer.wrap(queryFile);
+		CachedProof entry = null;
+		synchronized (this) {
+			entry = this.entries.get(key);
+			if (entry != null && this.isValid(entry) == false) {
+				this.entries.remove(key);
+				entry = null;
+			}
+		}
+
+		if (entry == null) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		return entry.proof.copy();
+	}
+
+	/**
+	 * This function adds a result.
+	 *
+	 * @param queryFile  - the query MAC
+	 * @param proof      - the result computed from one pinned tree version
+	 * @param bucketSize - number of slots per leaf
+	 * @param change     - the number returned by begin() before the version was pinned
+	 */
+	public void put(byte[] queryFile, ProofData proof, int bucketSize, long change) {
+		int[] subtrees = new int[proof.getTotalItems() / bucketSize];
+		int count = 0;
+		for (int i = 0; i < proof.getTotalItems(); i = i + bucketSize) {
+			int subtree = this.subtree(proof.getAuthentication(i).getIndex() / bucketSize);
+			boolean seen = false;
+			for (int j = 0; j < count; j++)
+				seen = seen || subtrees[j] == subtree;
+			if (seen == false)
+				subtrees[count++] = subtree;
+		}
+
+		CachedProof entry = new CachedProof(proof.copy(), Arrays.copyOf(subtrees, count), change);
+		synchronized (this) {
+			if (this.isValid(entry))
+				this.entries.put(ByteBuffer.wrap(queryFile), entry);
+		}
+	}
+
+	/**
+	 * This function invalidates the results over changed slots. It must be
+	 * called after the tree version with the changes has been published.
+	 *
+	 * @param positions  - indices of the changed slots
+	 * @param count      - number of valid entries in 'positions'
+	 * @param bucketSize - number of slots per leaf
+	 */
+	public void invalidate(int[] positions, int count, int bucketSize) {
+		if (count == 0)
+			return;
+
+		long change = this.changes.incrementAndGet();
+		for (int i = 0; i < count; i++)
+			this.lastChange.set(this.subtree(positions[i] / bucketSize), change);
+	}
+
+	/**
+	 * This function drops all the results.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	private int subtree(int leaf) {
+		return this.shape.getAncestor(leaf, this.levels);
+	}
+
+	private boolean isValid(CachedProof entry) {
+		for (int subtree : entry.subtrees)
+			if (this.lastChange.get(subtree) > entry.change)
+				return false;
+		return true;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * A cached result with the subtrees of its probed leaves.
+	 */
+	private static class CachedProof {
+		private ProofData proof = null;
+		private int[] subtrees = null;
+		private long change = 0; // number of the last change seen before computing the result
+
+		CachedProof(ProofData proof, int[] subtrees, long change) {
+			this.proof = proof;
+			this.subtrees = subtrees;
+			this.change = change;
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package fchen;
+
+import java.io.*;
+
+/**
+ * This class encodes a search result (ProofData) into a compact, versioned
+ * binary form and decodes it back. It is used to measure the real size of a
+ * proof and to ship it between the cloud and the data user.
+ *
+ * Format (version 1, all integers big-endian):
+ * magic 'P' 'D' | version (1 byte) | hash size (1 byte) | query MAC (hash size bytes)
+ * | existing flag (1 byte) | number of items (4 bytes) | items
+ *
+ * Each item: index (4 bytes) | flags (1 byte) | filename MAC (hash size bytes,
+ * omitted for the special all-zero filename) | path length (2 bytes) | path hashes.
+ * The flags hold the state in bit 0, COMPACT and EMPTY_FILENAME.
+ *
+ * Version 2 is used for a proof made while the table grows. It appends the proof
+ * for the old table: its length (4 bytes) | its encoding, which is version 1.
+ *
+ * A batch search result (MultiProofData) has its own format:
+ * magic 'M' 'P' | version (1 byte) | hash size (1 byte) | number of results (4 bytes)
+ * | results | number of nodes (4 bytes) | node indices (4 bytes each) | node values.
+ * Each result: query MAC | existing flag (1 byte) | number of items (4 bytes) | items,
+ * whose items carry no paths (flag NO_PATH). Version 2 appends the results in the
+ * old table as for a single proof.
+ *
+ * The decoder checks every count and length against the bytes left, so a
+ * malformed or malicious encoding fails with an IOException and never makes
+ * it allocate more than the encoding could hold.
+ */
+public class ProofCodec {
+	public final static byte[] MAGIC = { 'P', 'D' };
+	public final static int VERSION = 2; // the newest version; a proof without old table is written as version 1
+	public final static byte[] BATCH_MAGIC = { 'M', 'P' };
+
+	private final static int STATE = 0x01; // state of the slot; 0 or 1
+	private final static int NO_PATH = 0x20; // the item carries no path; the path is null
+	private final static int COMPACT = 0x40; // the path holds only siblings
+	private final static int EMPTY_FILENAME = 0x80; // the filename is the special all-zero MAC
+
+	/**
+	 * This function encodes a proof.
+	 *
+	 * @param proof - the search result returned by the cloud
+	 * @return its binary form
+	 */
+	public static byte[] encode(ProofData proof) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+
+		try {
+			int hashSize = proof.getQueryFile().length;
+			out.write(MAGIC);
+			out.writeByte(proof.getOldTableProof() == null ? 1 : 2);
+			out.writeByte(hashSize);
+			out.write(proof.getQueryFile());
+			out.writeByte(proof.getExistingFlag());
+			out.writeInt(proof.getTotalItems());
+
+			for (int i = 0; i < proof.getTotalItems(); i++)
+				writeItem(out, proof.getAuthentication(i));
+
+			if (proof.getOldTableProof() != null) {
+				byte[] old = encode(proof.getOldTableProof());
+				out.writeInt(old.length);
+				out.write(old);
+			}
+		} catch (IOException e) {
+			System.out.println("Error occured when encoding the proof.");
+			System.out.println(e);
+		}
+
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * This function decodes a proof.
+	 *
+	 * @param data - the binary form produced by 'encode'
+	 * @return the search result
+	 * @throws IOException if the data are truncated, malformed or of an unknown
+	 *                     format
+	 */
+	public static ProofData decode(byte[] data) throws IOException {
+		return decode(data, 2);
+	}
+
+	private static ProofData decode(byte[] data, int maxVersion) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+		if (in.readByte() != MAGIC[0] || in.readByte() != MAGIC[1])
+			throw new IOException("not a proof");
+		int version = in.readUnsignedByte();
+		if (version < 1 || version > maxVersion)
+			throw new IOException("unsupported proof version " + version);
+
+		int hashSize = readHashSize(in);
+		byte[] queryFile = new byte[hashSize];
+		in.readFully(queryFile);
+
+		ProofData proof = new ProofData(queryFile);
+		proof.setExistingFlag(in.readByte());
+		int totalItems = readCount(in, 5); // an item takes 5 bytes at least
+		for (int i = 0; i < totalItems; i++)
+			proof.addProofData(readItem(in, hashSize));
+
+		if (version == 2) {
+			byte[] old = new byte[readCount(in, 1)];
+			in.readFully(old);
+			proof.setOldTableProof(decode(old, 1)); // the old table has no older one
+		}
+
+		return proof;
+	}
+
+	/**
+	 * This function encodes the results of a batch search.
+	 *
+	 * @param proof - the batch search result returned by the cloud
+	 * @return its binary form
+	 */
+	public static byte[] encodeBatch(MultiProofData proof) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+
+		try {
+			int hashSize = proof.getTotalResults() > 0 ? proof.getResult(0).getQueryFile().length : HashEngine.HASH_SIZE;
+			out.write(BATCH_MAGIC);
+			out.writeByte(proof.getOldTableProof() == null ? 1 : 2);
+			out.writeByte(hashSize);
+
+			out.writeInt(proof.getTotalResults());
+			for (int i = 0; i < proof.getTotalResults(); i++) {
+				ProofData result = proof.getResult(i);
+				out.write(result.getQueryFile());
+				out.writeByte(result.getExistingFlag());
+				out.writeInt(result.getTotalItems());
+				for (int j = 0; j < result.getTotalItems(); j++)
+					writeItem(out, result.getAuthentication(j));
+			}
+
+			out.writeInt(proof.getNodes().length);
+			for (int node : proof.getNodes())
+				out.writeInt(node);
+			for (byte[] hash : proof.getHashes())
+				out.write(hash);
+
+			if (proof.getOldTableProof() != null) {
+				byte[] old = encodeBatch(proof.getOldTableProof());
+				out.writeInt(old.length);
+				out.write(old);
+			}
+		} catch (IOException e) {
+			System.out.println("Error occured when encoding the batch proof.");
+			System.out.println(e);
+		}
+
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * This function decodes the results of a batch search.
+	 *
+	 * @param data - the binary form produced by 'encodeBatch'
+	 * @return the batch search result
+	 * @throws IOException if the data are truncated, malformed or of an unknown
+	 *                     format
+	 */
+	public static MultiProofData decodeBatch(byte[] data) throws IOException {
+		return decodeBatch(data, 2);
+	}
+
+	private static MultiProofData decodeBatch(byte[] data, int maxVersion) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+		if (in.readByte() != BATCH_MAGIC[0] || in.readByte() != BATCH_MAGIC[1])
+			throw new IOException("not a batch proof");
+		int version = in.readUnsignedByte();
+		if (version < 1 || version > maxVersion)
+			throw new IOException("unsupported proof version " + version);
+		int hashSize = readHashSize(in);
+
+		ProofData[] results = new ProofData[readCount(in, hashSize + 5)]; // MAC, flag and item count
+		for (int i = 0; i < results.length; i++) {
+			byte[] queryFile = new byte[hashSize];
+			in.readFully(queryFile);
+			results[i] = new ProofData(queryFile);
+			results[i].setExistingFlag(in.readByte());
+			int totalItems = readCount(in, 5);
+			for (int j = 0; j < totalItems; j++)
+				results[i].addProofData(readItem(in, hashSize));
+		}
+
+		int[] nodes = new int[readCount(in, 4 + hashSize)]; // index and value
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = in.readInt();
+		byte[][] hashes = new byte[nodes.length][hashSize];
+		for (byte[] hash : hashes)
+			in.readFully(hash);
+
+		MultiProofData proof = new MultiProofData(results, nodes, hashes);
+		if (version == 2) {
+			byte[] old = new byte[readCount(in, 1)];
+			in.readFully(old);
+			proof.setOldTableProof(decodeBatch(old, 1)); // the old table has no older one
+		}
+		return proof;
+	}
+
+	private static int readHashSize(DataInputStream in) throws IOException {
+		int hashSize = in.readUnsignedByte();
+		if (hashSize == 0)
+			throw new IOException("bad hash size");
+		return hashSize;
+	}
+
+	/**
+	 * This function reads a count of elements that take at least 'size' bytes
+	 * each, and checks that so many fit into the bytes left.
+	 */
+	private static int readCount(DataInputStream in, int size) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || (long) count * size > in.available())
+			throw new IOException("bad count " + count);
+		return count;
+	}
+
+	static void writeItem(DataOutputStream out, MetaProofData item) throws IOException {
+		byte[][] path = item.getAuthenticationPath();
+		int flags = item.getState() & STATE;
+		if (item.isCompact())
+			flags = flags | COMPACT;
+		if (isZero(item.getFilename()))
+			flags = flags | EMPTY_FILENAME;
+		if (path == null)
+			flags = flags | NO_PATH;
+
+		out.writeInt(item.getIndex());
+		out.writeByte(flags);
+		if ((flags & EMPTY_FILENAME) == 0)
+			out.write(item.getFilename());
+
+		if (path == null)
+			return;
+		out.writeShort(path.length);
+		for (byte[] node : path)
+			out.write(node);
+	}
+
+	static MetaProofData readItem(DataInputStream in, int hashSize) throws IOException {
+		int index = in.readInt();
+		int flags = in.readUnsignedByte();
+
+		byte[] filename = new byte[hashSize];
+		if ((flags & EMPTY_FILENAME) == 0)
+			in.readFully(filename);
+
+		byte[][] path = null;
+		if ((flags & NO_PATH) == 0) {
+			int length = in.readUnsignedShort();
+			if ((long) length * hashSize > in.available())
+				throw new IOException("bad path length " + length);
+			path = new byte[length][hashSize];
+			for (byte[] node : path)
+				in.readFully(node);
+		}
+
+		MetaProofData item = new MetaProofData(index, filename, flags & STATE, path);
+		item.setCompact((flags & COMPACT) != 0);
+		return item;
+	}
+
+	private static boolean isZero(byte[] b) {
+		for (int i = 0; i < b.length; i++)
+			if (b[i] != 0)
+				return false;
+		return true;
+	}
+}
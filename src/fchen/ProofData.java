@@ -1,151 +1,341 @@
-package fchen;
-
-import java.util.ArrayList;
-
-/**
- * This class encapsulates the search result returned by the cloud, together
- * with its correctness proof.
- * 
- * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
- * @author Last revision on 15-01-2020
- * @author Email: chenfeiorange@163.com
- */
-public class ProofData {
-	private byte[] queryFile = null; // queried filename MAC
-	private int existingFlag = -1; // 1: file exists; 0: file not exist
-	
-	// the number of total authentication paths which are introduced by collisions in the
-	// process mapping a filename to an index
-	private int totalItems = 0;	
-	private ArrayList<MetaProofData> authentication = null; // authentication paths
-
-	// On constructing, only the quried filename is needed.
-	// Other fields are filled subsequently.
-	public ProofData(byte[] queryFile) {
-		super();
-		this.queryFile = queryFile;
-		this.authentication = new ArrayList<MetaProofData>();
-		this.totalItems = 0;
-	}
-
-	public void addProofData(MetaProofData temp) {
-		this.authentication.add(temp);
-		this.totalItems = this.totalItems + 1;
-	}
-
-	/**
-	 * This function checks whether the proof is correct on its own.
-	 * 
-	 * @param leafSize - number of total leaves
-	 * @param root     - the root Hash value of the authentication tree
-	 * @return If the returned result from the cloud is correct, return true; else false.
-	 */
-	public boolean validate(int leafSize, byte[] root) {
-		int cheatFlag = 0;
-		int indexExpected = -1;
-
-		indexExpected = ((int) queryFile[0]) + (((int) queryFile[1]) << 8) + (((int) queryFile[2]) << 16)
-				+ (((int) queryFile[3]) << 24); // calculate h_1(x)
-		indexExpected = Math.abs(indexExpected) % leafSize;
-
-		MetaProofData metaData = this.authentication.get(0);
-		if (metaData.getIndex() != indexExpected || metaData.validate(root) == false)
-			cheatFlag = cheatFlag + 1;
-
-		if (this.totalItems == 1) {
-			if (cheatFlag == 0)
-				return true;
-			else
-				return false;
-		}
-
-		indexExpected = ((int) queryFile[4]) + (((int) queryFile[5]) << 8) + (((int) queryFile[6]) << 16)
-				+ (((int) queryFile[7]) << 24); // calculate h_2
-		indexExpected = Math.abs(indexExpected) % leafSize;
-		metaData = this.authentication.get(1);
-		if (metaData.getIndex() != indexExpected)
-			cheatFlag = cheatFlag + 1;
-		if (metaData.validate(root) == false)
-			cheatFlag = cheatFlag + 1;
-
-		if (this.totalItems == 2) {
-			if (cheatFlag == 0)
-				return true;
-			else
-				return false;
-		}
-
-		// from now on, the index could be easily calculated; the complexity
-		// comes from the index finding process.
-		for (int i = 2; i < this.totalItems; i++) {
-			indexExpected = (indexExpected + 101) % leafSize;
-			metaData = this.authentication.get(i);
-			if (metaData.getIndex() != indexExpected || metaData.validate(root) == false)
-				cheatFlag = cheatFlag + 1;
-		}
-
-		if (cheatFlag == 0)
-			return true;
-		else
-			return false;
-	}
-
-	/**
-	 * This function prints out the whole proof data.
-	 */
-	public void print() {
-		System.out.println("existing flag: " + this.existingFlag);
-		System.out.println("total items: " + this.totalItems);
-		System.out.println("query file: " + DynamicVFS.bytes2HexString(this.queryFile));
-
-		for (int i = 0; i < this.totalItems; i++)
-			this.authentication.get(i).print();		
-	}
-
-	public int getExistingFlag() {
-		return existingFlag;
-	}
-
-	public void setExistingFlag(int existingFlag) {
-		this.existingFlag = existingFlag;
-	}
-
-	public int getTotalItems() {
-		return totalItems;
-	}
-
-	public void setTotalItems(int totalItems) {
-		this.totalItems = totalItems;
-	}
-
-	public byte[] getQueryFile() {
-		return queryFile;
-	}
-
-	public void setQueryFile(byte[] queryFile) {
-		this.queryFile = queryFile;
-	}
-
-	/**
-	 * This function gets the i-th authentication path, where 'i' starts with index
-	 * 0.
-	 * 
-	 * @param i
-	 *            - index
-	 * @return An authentication path
-	 */
-	public MetaProofData getAuthentication(int i) {
-		return this.authentication.get(i);
-	}
-
-	/**
-	 * This function sets the i-th authentication path.
-	 * 
-	 * @param i      - index
-	 * @param proof  - The meta proof data
-	 */
-	public void setAuthentication(int i, MetaProofData proof) {
-		this.authentication.set(i, proof);
-	}
-
-}
+package fchen;
+
+import java.util.ArrayList;
+
+/**
+ * This class encapsulates the search result returned by the cloud, together
+ * with its correctness proof.
+ * 
+ * @author Chen, Fei (https://sites.google.com/site/chenfeiorange/)
+ * @author Last revision on 15-01-2020
+ * @author Email: chenfeiorange@163.com
+ */
+public class ProofData {
+	private byte[] queryFile = null; // queried filename MAC
+	private int existingFlag = -1; // 1: file exists; 0: file not exist
+	
+	// the number of total authentication paths which are introduced by collisions in the
+	// process mapping a filename to an index
+	private int totalItems = 0;	
+	private ArrayList<MetaProofData> authentication = null; // authentication paths
+	private ProofData oldTableProof = null; // while the table grows: the search result in the old table
+
+	// On constructing, only the quried filename is needed.
+	// Other fields are filled subsequently.
+	public ProofData(byte[] queryFile) {
+		super();
+		this.queryFile = queryFile;
+		this.authentication = new ArrayList<MetaProofData>();
+		this.totalItems = 0;
+	}
+
+	public void addProofData(MetaProofData temp) {
+		this.authentication.add(temp);
+		this.totalItems = this.totalItems + 1;
+	}
+
+	/**
+	 * This function copies the result with its leaf tuples and the result in the
+	 * old table, so that changing the copy, e.g. its existing flag or a tuple,
+	 * leaves this result unchanged.
+	 * 
+	 * @return the copy
+	 */
+	public ProofData copy() {
+		ProofData result = new ProofData((this.queryFile == null) ? null : this.queryFile.clone());
+		result.existingFlag = this.existingFlag;
+		for (MetaProofData tuple : this.authentication)
+			result.authentication.add(tuple.copy());
+		result.totalItems = this.totalItems;
+		if (this.oldTableProof != null)
+			result.oldTableProof = this.oldTableProof.copy();
+		return result;
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own.
+	 * 
+	 * @param leafSize - number of total leaves
+	 * @param root     - the root Hash value of the authentication tree
+	 * @return If the returned result from the cloud is correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, byte[] root) {
+		return this.validate(leafSize, 1, root);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own when every
+	 * leaf holds a bucket of 'bucketSize' slots. The slots of a probed leaf are
+	 * listed in order and hashed together; only the first of them carries the
+	 * authentication path of the leaf.
+	 * 
+	 * @param leafSize   - number of total leaves
+	 * @param bucketSize - number of slots per leaf
+	 * @param root       - the root Hash value of the authentication tree
+	 * @return If the returned result from the cloud is correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int bucketSize, byte[] root) {
+		return this.validate(leafSize, bucketSize, root, HashEngine.SHA256);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own in a tree
+	 * built with a chosen hash function.
+	 * 
+	 * @param leafSize   - number of total leaves
+	 * @param bucketSize - number of slots per leaf
+	 * @param root       - the root Hash value of the authentication tree
+	 * @param engine     - the hash function of the tree
+	 * @return If the returned result from the cloud is correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int bucketSize, byte[] root, HashEngine engine) {
+		return this.validate(leafSize, bucketSize, 2, root, engine);
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own in a tree
+	 * with 'arity' children per inner node.
+	 * 
+	 * @param leafSize   - number of total leaves
+	 * @param bucketSize - number of slots per leaf
+	 * @param arity      - children per inner node: 2, 4, 8 or 16
+	 * @param root       - the root Hash value of the authentication tree
+	 * @param engine     - the hash function of the tree
+	 * @return If the returned result from the cloud is correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int bucketSize, int arity, byte[] root, HashEngine engine) {
+		int cheatFlag = 0;
+
+		if (this.validateIndices(leafSize, bucketSize) == false)
+			return false;
+
+		for (int i = 0; i < this.totalItems; i = i + bucketSize) {
+			MetaProofData first = this.authentication.get(i);
+			if (bucketSize == 1) {
+				if (first.validate(root, arity, engine) == false)
+					cheatFlag = cheatFlag + 1;
+				continue;
+			}
+
+			int index = first.getIndex() / bucketSize;
+			byte[] leafHash = engine.getScratch().leaf; // only compared, never kept
+			MetaProofData.generateHash(index, this.authentication, i, bucketSize, engine, leafHash, 0);
+			if (MetaProofData.validate(leafHash, index, first.getAuthenticationPath(), first.isCompact(), root, arity,
+					engine) == false)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}
+
+	/**
+	 * This function checks whether the proof is correct on its own against the
+	 * cached upper levels of the tree. A compact path may stop at the frontier; a
+	 * full path is checked against the cached root. The hash function and the
+	 * arity are those of the tree the frontier was taken from.
+	 * 
+	 * @param leafSize   - number of total leaves
+	 * @param bucketSize - number of slots per leaf
+	 * @param frontier   - the checked upper levels of the authentication tree
+	 * @return If the returned result from the cloud is correct, return true; else false.
+	 */
+	public boolean validate(int leafSize, int bucketSize, Frontier frontier) {
+		int cheatFlag = 0;
+
+		if (this.validateIndices(leafSize, bucketSize) == false)
+			return false;
+
+		for (int i = 0; i < this.totalItems; i = i + bucketSize) {
+			MetaProofData first = this.authentication.get(i);
+			int index = first.getIndex() / bucketSize;
+			byte[] leafHash = frontier.getEngine().getScratch().leaf; // only compared, never kept
+			MetaProofData.generateHash(index, this.authentication, i, bucketSize, frontier.getEngine(), leafHash, 0);
+			if (first.isCompact()) {
+				if (frontier.verify(leafHash, index, first.getAuthenticationPath()) == false)
+					cheatFlag = cheatFlag + 1;
+			} else if (MetaProofData.validate(leafHash, index, first.getAuthenticationPath(), false,
+					frontier.getRoot(), frontier.getArity(), frontier.getEngine()) == false)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}
+
+	/**
+	 * This function gets the slots items[from], ..., items[from + bucketSize - 1].
+	 */
+	MetaProofData[] getBucket(int from, int bucketSize) {
+		MetaProofData[] bucket = new MetaProofData[bucketSize];
+		for (int i = 0; i < bucketSize; i++)
+			bucket[i] = this.authentication.get(from + i);
+		return bucket;
+	}
+
+	/**
+	 * This function checks whether the returned slots follow the probing sequence
+	 * h_1, h_2, h_2 + 101, h_2 + 2 * 101, ... of the queried filename. The
+	 * authentication paths are not checked.
+	 * 
+	 * @param leafSize - number of total leaves
+	 * @return true if the indices are correct; else false.
+	 */
+	public boolean validateIndices(int leafSize) {
+		return this.validateIndices(leafSize, 1);
+	}
+
+	/**
+	 * This function checks whether the returned leaves follow the probing sequence
+	 * of the queried filename when every leaf holds a bucket of 'bucketSize'
+	 * slots. All the slots of every probed leaf must be returned, in order.
+	 * 
+	 * @param leafSize   - number of total leaves
+	 * @param bucketSize - number of slots per leaf
+	 * @return true if the indices are correct; else false.
+	 */
+	public boolean validateIndices(int leafSize, int bucketSize) {
+		if (this.totalItems == 0 || this.totalItems % bucketSize != 0)
+			return false;
+		if (bucketSize == 1)
+			return this.validateLeafIndices(leafSize);
+
+		int indexExpected = ((int) queryFile[0]) + (((int) queryFile[1]) << 8) + (((int) queryFile[2]) << 16)
+				+ (((int) queryFile[3]) << 24); // calculate h_1(x)
+		indexExpected = Math.abs(indexExpected) % leafSize;
+
+		for (int i = 0; i < this.totalItems; i = i + bucketSize) {
+			if (i == bucketSize) {
+				indexExpected = ((int) queryFile[4]) + (((int) queryFile[5]) << 8) + (((int) queryFile[6]) << 16)
+						+ (((int) queryFile[7]) << 24); // calculate h_2
+				indexExpected = Math.abs(indexExpected) % leafSize;
+			} else if (i > bucketSize)
+				indexExpected = (indexExpected + 101) % leafSize;
+
+			for (int j = 0; j < bucketSize; j++)
+				if (this.authentication.get(i + j).getIndex() != indexExpected * bucketSize + j)
+					return false;
+		}
+
+		return true;
+	}
+
+	private boolean validateLeafIndices(int leafSize) {
+		int cheatFlag = 0;
+		int indexExpected = -1;
+
+		indexExpected = ((int) queryFile[0]) + (((int) queryFile[1]) << 8) + (((int) queryFile[2]) << 16)
+				+ (((int) queryFile[3]) << 24); // calculate h_1(x)
+		indexExpected = Math.abs(indexExpected) % leafSize;
+
+		MetaProofData metaData = this.authentication.get(0);
+		if (metaData.getIndex() != indexExpected)
+			cheatFlag = cheatFlag + 1;
+
+		if (this.totalItems > 1) {
+			indexExpected = ((int) queryFile[4]) + (((int) queryFile[5]) << 8) + (((int) queryFile[6]) << 16)
+					+ (((int) queryFile[7]) << 24); // calculate h_2
+			indexExpected = Math.abs(indexExpected) % leafSize;
+			metaData = this.authentication.get(1);
+			if (metaData.getIndex() != indexExpected)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		// from now on, the index could be easily calculated; the complexity
+		// comes from the index finding process.
+		for (int i = 2; i < this.totalItems; i++) {
+			indexExpected = (indexExpected + 101) % leafSize;
+			metaData = this.authentication.get(i);
+			if (metaData.getIndex() != indexExpected)
+				cheatFlag = cheatFlag + 1;
+		}
+
+		if (cheatFlag == 0)
+			return true;
+		else
+			return false;
+	}
+
+	/**
+	 * This function prints out the whole proof data.
+	 */
+	public void print() {
+		System.out.println("existing flag: " + this.existingFlag);
+		System.out.println("total items: " + this.totalItems);
+		System.out.println("query file: " + DynamicVFS.bytes2HexString(this.queryFile));
+
+		for (int i = 0; i < this.totalItems; i++)
+			this.authentication.get(i).print();		
+
+		if (this.oldTableProof != null) {
+			System.out.println("old table:");
+			this.oldTableProof.print();
+		}
+	}
+
+	public int getExistingFlag() {
+		return existingFlag;
+	}
+
+	public void setExistingFlag(int existingFlag) {
+		this.existingFlag = existingFlag;
+	}
+
+	public int getTotalItems() {
+		return totalItems;
+	}
+
+	public void setTotalItems(int totalItems) {
+		this.totalItems = totalItems;
+	}
+
+	public byte[] getQueryFile() {
+		return queryFile;
+	}
+
+	public void setQueryFile(byte[] queryFile) {
+		this.queryFile = queryFile;
+	}
+
+	/**
+	 * This function gets the i-th authentication path, where 'i' starts with index
+	 * 0.
+	 * 
+	 * @param i
+	 *            - index
+	 * @return An authentication path
+	 */
+	public MetaProofData getAuthentication(int i) {
+		return this.authentication.get(i);
+	}
+
+	/**
+	 * This function sets the i-th authentication path.
+	 * 
+	 * @param i      - index
+	 * @param proof  - The meta proof data
+	 */
+	public void setAuthentication(int i, MetaProofData proof) {
+		this.authentication.set(i, proof);
+	}
+
+	public ProofData getOldTableProof() {
+		return oldTableProof;
+	}
+
+	/**
+	 * This function attaches the search result in the old table while the table
+	 * grows. This proof then covers the new table, and its existing flag is 1 if
+	 * the file exists in either table.
+	 * 
+	 * @param oldTableProof - the search result in the old table
+	 */
+	public void setOldTableProof(ProofData oldTableProof) {
+		this.oldTableProof = oldTableProof;
+	}
+
+}
@@ -0,0 +1,328 @@
+package fchen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the data user of a QueryServer. It sends search requests over
+ * one connection without waiting for the responses; up to 'window' requests
+ * may be outstanding, and a caller blocks when the window is full. Every
+ * response is decoded and verified as soon as it arrives, against the state
+ * of the data user kept by a DynamicVFS (its root), and then completes the
+ * future of its request: with the proof if it is correct, or exceptionally
+ * with an IOException if the cloud cheats or the request failed.
+ *
+ * A writer thread sends the queued requests, many per system call, and a
+ * reader thread receives, verifies and completes the responses.
+ */
+public class QueryClient {
+	private final static ByteBuffer CLOSE = ByteBuffer.allocate(0); // tells the writer thread to stop
+
+	private DynamicVFS user = null; // verifies the responses
+	private SocketChannel channel = null;
+	private int window = 0;
+	private Semaphore outstanding = null; // free places in the window
+	private AtomicInteger nextId = new AtomicInteger(0);
+	private ConcurrentHashMap<Integer, Request> pending = new ConcurrentHashMap<Integer, Request>();
+	private LinkedBlockingQueue<ByteBuffer> requests = new LinkedBlockingQueue<ByteBuffer>();
+	private Thread writer = null;
+	private Thread reader = null;
+	private volatile boolean closed = false;
+	private AtomicLong verified = new AtomicLong(0);
+	private AtomicLong failed = new AtomicLong(0);
+
+	/**
+	 * An outstanding request.
+	 */
+	private static class Request {
+		byte[] queryFile = null; // for a single search
+		byte[][] queryFiles = null; // for a batch search
+		CompletableFuture<ProofData> result = null;
+		CompletableFuture<MultiProofData> batchResult = null;
+	}
+
+	/**
+	 * It connects to a server.
+	 *
+	 * @param user    - the data user; its root verifies the responses
+	 * @param address - the address of the server
+	 * @param window  - most requests outstanding at once
+	 * @throws IOException if the server cannot be reached
+	 */
+	public QueryClient(DynamicVFS user, InetSocketAddress address, int window) throws IOException {
+		super();
+		this.user = user;
+		this.window = Math.max(1, window);
+		this.outstanding = new Semaphore(this.window);
+		this.channel = SocketChannel.open(address);
+		this.channel.socket().setTcpNoDelay(true);
+
+		this.writer = new Thread(new Runnable() {
+			public void run() {
+				send();
+			}
+		}, "QueryClient-writer");
+		this.reader = new Thread(new Runnable() {
+			public void run() {
+				receive();
+			}
+		}, "QueryClient-reader");
+		this.writer.setDaemon(true);
+		this.reader.setDaemon(true);
+		this.writer.start();
+		this.reader.start();
+	}
+
+	/**
+	 * This function sends a search request.
+	 *
+	 * @param queryFile - a query token, i.e. the MAC of a filename
+	 * @return the verified search result
+	 */
+	public CompletableFuture<ProofData> search(byte[] queryFile) {
+		Request request = new Request();
+		request.queryFile = queryFile;
+		request.result = new CompletableFuture<ProofData>();
+		this.submit(request, QueryServer.SEARCH, queryFile);
+		return request.result;
+	}
+
+	/**
+	 * This function sends a batch search request; its results are proved by one
+	 * multi-proof.
+	 *
+	 * @param queryFiles - the query tokens
+	 * @return the verified batch search result
+	 */
+	public CompletableFuture<MultiProofData> searchBatch(byte[][] queryFiles) {
+		Request request = new Request();
+		request.queryFiles = queryFiles;
+		request.batchResult = new CompletableFuture<MultiProofData>();
+
+		ByteBuffer payload = ByteBuffer.allocate(4 + queryFiles.length * HashEngine.HASH_SIZE);
+		payload.putInt(queryFiles.length);
+		for (byte[] queryFile : queryFiles)
+			payload.put(queryFile);
+		this.submit(request, QueryServer.SEARCH_BATCH, payload.array());
+		return request.batchResult;
+	}
+
+	private void submit(Request request, byte type, byte[] payload) {
+		try {
+			this.outstanding.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail(request, new IOException("interrupted"));
+			return;
+		}
+		if (this.closed) {
+			this.outstanding.release();
+			fail(request, new IOException("connection closed"));
+			return;
+		}
+
+		int id = this.nextId.getAndIncrement();
+		this.pending.put(id, request);
+		this.requests.add(QueryServer.frame(type, id, payload));
+		if (this.closed && this.pending.remove(id) != null) { // closed meanwhile; nobody will answer it
+			this.outstanding.release();
+			fail(request, new IOException("connection closed"));
+		}
+	}
+
+	/**
+	 * This function runs on the writer thread: it writes all the queued requests
+	 * with one system call.
+	 */
+	private void send() {
+		List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+		try {
+			while (true) {
+				batch.clear();
+				batch.add(this.requests.take());
+				this.requests.drainTo(batch, 1023);
+				boolean stop = false;
+				for (int i = batch.size() - 1; i >= 0; i--)
+					if (batch.get(i) == CLOSE) {
+						batch.remove(i);
+						stop = true;
+					}
+
+				ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+				long remaining = 0;
+				for (ByteBuffer buffer : buffers)
+					remaining = remaining + buffer.remaining();
+				while (remaining > 0)
+					remaining = remaining - this.channel.write(buffers);
+				if (stop)
+					return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			this.shutdown(e);
+		}
+	}
+
+	/**
+	 * This function runs on the reader thread: it reads the responses, verifies
+	 * them and completes their requests.
+	 */
+	private void receive() {
+		ByteBuffer in = ByteBuffer.allocate(1 << 20);
+		try {
+			while (true) {
+				if (this.channel.read(in) < 0)
+					throw new IOException("connection closed by the server");
+
+				in.flip();
+				while (in.remaining() >= 4) {
+					int length = in.getInt(in.position());
+					if (length < QueryServer.HEADER_SIZE - 4 || length > QueryServer.MAX_FRAME)
+						throw new IOException("bad frame length " + length);
+					if (in.remaining() < 4 + length)
+						break;
+					in.getInt();
+					byte type = in.get();
+					int id = in.getInt();
+					byte[] payload = new byte[length - (QueryServer.HEADER_SIZE - 4)];
+					in.get(payload);
+					this.complete(type, id, payload);
+				}
+				in.compact();
+
+				if (in.position() >= 4 && in.position() == in.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * in.capacity(), 4 + in.getInt(0)));
+					in.flip();
+					larger.put(in);
+					in = larger;
+				}
+			}
+		} catch (IOException e) {
+			this.shutdown(e);
+		} catch (RuntimeException e) {
+			this.shutdown(new IOException("the reader failed", e)); // never leave requests waiting
+		}
+	}
+
+	/**
+	 * This function completes a request with its response. A response that
+	 * cannot be decoded or verified fails the request, whatever goes wrong.
+	 */
+	private void complete(byte type, int id, byte[] payload) {
+		Request request = this.pending.remove(id);
+		if (request == null)
+			return; // not a request of ours
+		this.outstanding.release();
+
+		try {
+			if (type == QueryServer.ERROR)
+				throw new IOException("the server failed: " + new String(payload, StandardCharsets.UTF_8));
+
+			if (request.result != null) {
+				ProofData proof = ProofCodec.decode(payload);
+				if (type != QueryServer.SEARCH || this.user.verify(request.queryFile, proof) == false)
+					throw new IOException("the cloud cheats");
+				this.verified.incrementAndGet();
+				request.result.complete(proof);
+			} else {
+				MultiProofData proof = ProofCodec.decodeBatch(payload);
+				if (type != QueryServer.SEARCH_BATCH || this.user.verifyBatch(request.queryFiles, proof) == false)
+					throw new IOException("the cloud cheats");
+				this.verified.incrementAndGet();
+				request.batchResult.complete(proof);
+			}
+		} catch (IOException e) {
+			this.failed.incrementAndGet();
+			fail(request, e);
+		} catch (RuntimeException e) {
+			this.failed.incrementAndGet();
+			fail(request, new IOException("malformed response", e));
+		}
+	}
+
+	private static void fail(Request request, IOException e) {
+		if (request.result != null)
+			request.result.completeExceptionally(e);
+		else
+			request.batchResult.completeExceptionally(e);
+	}
+
+	/**
+	 * This function closes the connection and fails every outstanding request.
+	 */
+	private void shutdown(IOException cause) {
+		this.closed = true;
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			System.out.println("Error occured when closing the connection.");
+		}
+		for (Integer id : this.pending.keySet()) {
+			Request request = this.pending.remove(id);
+			if (request != null) {
+				this.outstanding.release();
+				fail(request, cause);
+			}
+		}
+	}
+
+	/**
+	 * This function waits until every outstanding request is completed.
+	 */
+	public void drain() throws InterruptedException {
+		this.outstanding.acquire(this.window);
+		this.outstanding.release(this.window);
+	}
+
+	/**
+	 * This function sends the queued requests, closes the connection and fails
+	 * the requests still outstanding.
+	 */
+	public void close() {
+		this.requests.add(CLOSE);
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.shutdown(new IOException("connection closed"));
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * This function gets the number of outstanding requests.
+	 */
+	public int getOutstanding() {
+		return window - outstanding.availablePermits();
+	}
+
+	/**
+	 * This function gets the number of responses verified so far.
+	 */
+	public long getVerified() {
+		return verified.get();
+	}
+
+	/**
+	 * This function gets the number of responses that failed, because the cloud
+	 * cheats or the server could not answer.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+}
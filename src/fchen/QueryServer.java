@@ -0,0 +1,383 @@
+package fchen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class runs the cloud as a network service. It answers search and batch
+ * search requests for a DynamicVFS over TCP, with the proofs in the binary
+ * form of ProofCodec.
+ *
+ * One selector thread accepts the connections, reads the requests and writes
+ * the responses, all without blocking. A request is answered on one of
+ * 'threads' worker threads (or on the selector thread if 'threads' is 1);
+ * searches take no lock, so the workers never wait for each other. A client may
+ * send many requests without waiting; every response carries the identifier of
+ * its request and responses may come in any order. A connection is not read
+ * while more than MAX_QUEUED bytes of its responses wait to be written.
+ *
+ * Frame format (all integers big-endian): length of the rest (4 bytes) | type
+ * (1 byte) | request identifier (4 bytes) | payload. A SEARCH request carries
+ * one query MAC and is answered by an encoded ProofData; a SEARCH_BATCH request
+ * carries the number of MACs (4 bytes) and the MACs, and is answered by an
+ * encoded MultiProofData. A request that cannot be answered gets an ERROR frame
+ * with a message in UTF-8.
+ */
+public class QueryServer {
+	public final static byte SEARCH = 1;
+	public final static byte SEARCH_BATCH = 2;
+	public final static byte ERROR = 127;
+	public final static int HEADER_SIZE = 9; // length, type and request identifier
+	public final static int MAX_FRAME = 64 << 20; // longest frame accepted
+	public final static int MAX_QUEUED = 4 << 20; // response bytes per connection before reading stops
+
+	private DynamicVFS vfs = null;
+	private InetSocketAddress address = null;
+	private int threads = 1;
+	private ServerSocketChannel server = null;
+	private Selector selector = null;
+	private ExecutorService workers = null; // null if the requests are answered on the selector thread
+	private Thread loop = null;
+	private volatile boolean running = false;
+	private ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<Connection>(); // connections with new responses
+	private AtomicLong requests = new AtomicLong(0);
+
+	/**
+	 * The state of one client connection.
+	 */
+	private static class Connection {
+		SocketChannel channel = null;
+		SelectionKey key = null;
+		ByteBuffer in = ByteBuffer.allocate(1 << 16); // bytes read and not yet parsed
+		ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<ByteBuffer>(); // responses to write
+		AtomicLong queued = new AtomicLong(0); // bytes in 'out'
+		AtomicBoolean flagged = new AtomicBoolean(false); // whether it is in 'ready'
+	}
+
+	/**
+	 * It constructs a server for the cloud side of a DynamicVFS.
+	 *
+	 * @param vfs     - the outsourced data
+	 * @param address - the address to listen on; port 0 for any free port
+	 * @param threads - worker threads answering requests; 1 to answer on the selector thread
+	 */
+	public QueryServer(DynamicVFS vfs, InetSocketAddress address, int threads) {
+		super();
+		this.vfs = vfs;
+		this.address = address;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * This function opens the listening socket and starts the selector thread.
+	 *
+	 * @throws IOException if the address cannot be bound
+	 */
+	public void start() throws IOException {
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.bind(this.address, 1024);
+		this.server.configureBlocking(false);
+		this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.address = (InetSocketAddress) this.server.getLocalAddress();
+
+		if (this.threads > 1)
+			this.workers = Executors.newFixedThreadPool(this.threads);
+		this.running = true;
+		this.loop = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "QueryServer-" + this.address.getPort());
+		this.loop.start();
+	}
+
+	/**
+	 * This function stops the server and closes all the connections.
+	 */
+	public void stop() {
+		this.running = false;
+		if (this.selector == null)
+			return;
+		this.selector.wakeup();
+		try {
+			this.loop.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.workers != null)
+			this.workers.shutdown();
+	}
+
+	private void serve() {
+		try {
+			while (this.running) {
+				this.selector.select();
+
+				Connection connection = null;
+				while ((connection = this.ready.poll()) != null) {
+					connection.flagged.set(false);
+					if (connection.key.isValid())
+						connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+				}
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isValid() && key.isAcceptable())
+							this.accept();
+						if (key.isValid() && key.isReadable())
+							this.read((Connection) key.attachment());
+						if (key.isValid() && key.isWritable())
+							this.write((Connection) key.attachment());
+					} catch (IOException e) {
+						close(key); // the client went away or sent a malformed frame
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Error occured when serving queries.");
+			System.out.println(e);
+		} finally {
+			for (SelectionKey key : this.selector.keys())
+				close(key);
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				System.out.println("Error occured when closing the selector.");
+			}
+		}
+	}
+
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			System.out.println("Error occured when closing a connection.");
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = this.server.accept();
+		if (channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection();
+		connection.channel = channel;
+		connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+	}
+
+	/**
+	 * This function reads what a connection has sent and dispatches every
+	 * complete frame.
+	 */
+	private void read(Connection connection) throws IOException {
+		if (connection.channel.read(connection.in) < 0)
+			throw new IOException("connection closed");
+
+		ByteBuffer in = connection.in;
+		in.flip();
+		while (in.remaining() >= 4) {
+			int length = in.getInt(in.position());
+			if (length < HEADER_SIZE - 4 || length > MAX_FRAME)
+				throw new IOException("bad frame length " + length);
+			if (in.remaining() < 4 + length)
+				break;
+			in.getInt();
+			byte type = in.get();
+			int id = in.getInt();
+			byte[] payload = new byte[length - (HEADER_SIZE - 4)];
+			in.get(payload);
+			this.dispatch(connection, type, id, payload);
+		}
+		in.compact();
+
+		// a frame larger than the buffer needs a larger buffer
+		if (in.position() >= 4 && in.position() == in.capacity()) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * in.capacity(), 4 + in.getInt(0)));
+			in.flip();
+			larger.put(in);
+			connection.in = larger;
+		}
+
+		if (connection.queued.get() > MAX_QUEUED)
+			connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+	}
+
+	private void write(Connection connection) throws IOException {
+		ByteBuffer head = null;
+		while ((head = connection.out.peek()) != null) {
+			int written = connection.channel.write(head);
+			connection.queued.addAndGet(-written);
+			if (head.hasRemaining())
+				break; // the socket buffer is full; continue when it is writable again
+			connection.out.poll();
+		}
+
+		int ops = SelectionKey.OP_READ;
+		if (connection.out.isEmpty() == false)
+			ops = ops | SelectionKey.OP_WRITE;
+		if (connection.queued.get() > MAX_QUEUED)
+			ops = ops & ~SelectionKey.OP_READ;
+		connection.key.interestOps(ops);
+	}
+
+	private void dispatch(final Connection connection, final byte type, final int id, final byte[] payload) {
+		this.requests.incrementAndGet();
+		if (this.workers == null) {
+			this.respond(connection, answer(type, id, payload));
+			return;
+		}
+		this.workers.execute(new Runnable() {
+			public void run() {
+				respond(connection, answer(type, id, payload));
+			}
+		});
+	}
+
+	/**
+	 * This function answers one request.
+	 *
+	 * @return the response frame
+	 */
+	private ByteBuffer answer(byte type, int id, byte[] payload) {
+		try {
+			if (type == SEARCH)
+				return frame(SEARCH, id, ProofCodec.encode(this.vfs.search(payload)));
+
+			if (type == SEARCH_BATCH) {
+				ByteBuffer in = ByteBuffer.wrap(payload);
+				int count = in.getInt();
+				if (count < 0 || (long) count * HashEngine.HASH_SIZE != in.remaining())
+					return frame(ERROR, id, ("bad batch of " + count + " queries").getBytes(StandardCharsets.UTF_8));
+				byte[][] queryFiles = new byte[count][HashEngine.HASH_SIZE];
+				for (byte[] queryFile : queryFiles)
+					in.get(queryFile);
+				return frame(SEARCH_BATCH, id, ProofCodec.encodeBatch(this.vfs.searchBatch(queryFiles)));
+			}
+
+			return frame(ERROR, id, ("unknown request type " + type).getBytes(StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			return frame(ERROR, id, String.valueOf(e).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * This function builds a frame; see the class comment.
+	 */
+	static ByteBuffer frame(byte type, int id, byte[] payload) {
+		ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		result.putInt(HEADER_SIZE - 4 + payload.length);
+		result.put(type);
+		result.putInt(id);
+		result.put(payload);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * This function queues a response and lets the selector thread write it.
+	 */
+	private void respond(Connection connection, ByteBuffer response) {
+		connection.queued.addAndGet(response.remaining());
+		connection.out.add(response);
+		if (connection.flagged.compareAndSet(false, true)) {
+			this.ready.add(connection);
+			this.selector.wakeup();
+		}
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public int getPort() {
+		return address.getPort();
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * This function gets the number of requests received so far.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * This function outsources a directory and serves it, or measures the
+	 * verified lookups per second over loopback with "-benchmark".
+	 *
+	 * Usage: QueryServer directory [port [threads]] | QueryServer -benchmark
+	 * directory [queries [window [threads]]]
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean benchmark = args.length > 0 && args[0].equals("-benchmark");
+		if (benchmark)
+			args = Arrays.copyOfRange(args, 1, args.length);
+		if (args.length < 1) {
+			System.out.println("Usage: QueryServer directory [port [threads]]");
+			System.out.println("       QueryServer -benchmark directory [queries [window [threads]]]");
+			return;
+		}
+
+		DynamicVFS vfs = new DynamicVFS(args[0], 0.5);
+		vfs.setThreads(Runtime.getRuntime().availableProcessors());
+		vfs.prepareOutsource();
+		vfs.outsource();
+		String[] files = new File(args[0]).list();
+
+		if (benchmark == false) {
+			int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			QueryServer server = new QueryServer(vfs, new InetSocketAddress(port), threads);
+			server.start();
+			System.out.println("serving " + files.length + " files on " + server.getAddress());
+			return;
+		}
+
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int window = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		QueryServer server = new QueryServer(vfs, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), threads);
+		server.start();
+		QueryClient client = new QueryClient(vfs, server.getAddress(), window);
+
+		byte[][] queryFiles = new byte[files.length][];
+		for (int i = 0; i < files.length; i++)
+			queryFiles[i] = vfs.query(files[i]);
+		for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+			long startTime = System.nanoTime();
+			for (int i = 0; i < queries; i++)
+				client.search(queryFiles[i % queryFiles.length]);
+			client.drain();
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			if (pass == 1)
+				System.out.println(String.format("%d verified lookups in %.2f s: %.0f per second, %d failed", queries,
+						seconds, queries / seconds, client.getFailed()));
+		}
+		client.close();
+		server.stop();
+	}
+}
@@ -0,0 +1,68 @@
+package fchen;
+
+/**
+ * This class encapsulates the search result of a ShardedVFS: the search result
+ * of the shard that holds the queried MAC, the roots of that shard, and the
+ * leaf of the shard in the top tree with its authentication path, which proves
+ * the shard roots against the root kept by the data owner.
+ */
+public class ShardedProofData {
+	private int shard = 0; // the index of the shard that holds the queried MAC
+	private ProofData proof = null; // the search result in the shard
+	private byte[] root = null; // the root of the shard
+	private byte[] nextRoot = null; // the root of the new table of the shard while it grows; null otherwise
+	private MetaProofData topProof = null; // the leaf of the shard in the top tree, with its path
+
+	public ShardedProofData(int shard, ProofData proof, byte[] root, byte[] nextRoot, MetaProofData topProof) {
+		super();
+		this.shard = shard;
+		this.proof = proof;
+		this.root = root;
+		this.nextRoot = nextRoot;
+		this.topProof = topProof;
+	}
+
+	public int getShard() {
+		return shard;
+	}
+
+	public void setShard(int shard) {
+		this.shard = shard;
+	}
+
+	public ProofData getProof() {
+		return proof;
+	}
+
+	public void setProof(ProofData proof) {
+		this.proof = proof;
+	}
+
+	public byte[] getRoot() {
+		return root;
+	}
+
+	public void setRoot(byte[] root) {
+		this.root = root;
+	}
+
+	public byte[] getNextRoot() {
+		return nextRoot;
+	}
+
+	public void setNextRoot(byte[] nextRoot) {
+		this.nextRoot = nextRoot;
+	}
+
+	public MetaProofData getTopProof() {
+		return topProof;
+	}
+
+	public void setTopProof(MetaProofData topProof) {
+		this.topProof = topProof;
+	}
+
+	public int getExistingFlag() {
+		return this.proof.getExistingFlag();
+	}
+}
@@ -0,0 +1,474 @@
+package fchen;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.SecretKey;
+
+/**
+ * This class splits the outsourced files into a forest of independent tables,
+ * so that updates and builds run on many cores. The space of filename MACs is
+ * partitioned by prefix: bytes 8 and 9 of a MAC choose one of 'shardCount'
+ * shards (the probing sequence uses bytes 0 to 7, so the shards stay evenly
+ * loaded). Every shard is a DynamicVFS with its own table, tree, lock and root.
+ *
+ * A small top tree has one leaf per shard, holding the commitment of the shard:
+ * its root or, while the shard grows, hash(root || nextRoot). The root of the
+ * top tree is the only value the data owner needs; a search result carries the
+ * search result of the shard, the roots of the shard and the path of the shard
+ * in the top tree. A verifier checks the path against the root of the top tree
+ * and then the shard result against the proved shard roots.
+ *
+ * Updates of different shards run in parallel; only the top tree update, a
+ * path of 'log2(shardCount)' nodes, is serialized. A search waits only for an
+ * update of its own shard, so that the shard result and the top path it
+ * returns belong to the same shard roots. As with one table, a search result
+ * is proved against the newest root; a result fetched before any later update
+ * does not verify any more.
+ */
+public class ShardedVFS {
+	private int shardBits = 0; // the number of MAC prefix bits that choose a shard
+	private DynamicVFS[] shards = null;
+	private ReentrantReadWriteLock[] locks = null; // per shard: updates write, searches read
+	private HashTree top = null; // one leaf per shard: index + commitment of the shard
+	private volatile byte[] root = null; // the root of the top tree; the state of the data owner
+	private HashEngine hashEngine = HashEngine.SHA256; // hash function of the top tree and the shards
+	private int threads = 1; // threads used for outsourcing and for batch updates
+
+	/**
+	 * It constructs the shards, all with the same secret key.
+	 *
+	 * @param rootDirectory - the directory to be outsourced
+	 * @param loadFactor    - the load factor of every shard
+	 * @param shardCount    - the number of shards; rounded up to a power of two, at least 2
+	 */
+	public ShardedVFS(String rootDirectory, double loadFactor, int shardCount) {
+		super();
+		while ((1 << this.shardBits) < shardCount && this.shardBits < 16)
+			this.shardBits = this.shardBits + 1;
+		this.shardBits = Math.max(1, this.shardBits);
+
+		this.shards = new DynamicVFS[1 << this.shardBits];
+		this.locks = new ReentrantReadWriteLock[this.shards.length];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new DynamicVFS(rootDirectory, loadFactor);
+			this.locks[i] = new ReentrantReadWriteLock();
+		}
+		this.setSecretKey(this.shards[0].getSecretKey());
+	}
+
+	/**
+	 * This function gets the shard that holds a filename MAC.
+	 *
+	 * @param fileMac - the HMAC of a filename
+	 * @return the index of the shard
+	 */
+	public int shardOf(byte[] fileMac) {
+		int prefix = ((fileMac[8] & 0xff) << 8) | (fileMac[9] & 0xff);
+		return prefix >>> (16 - this.shardBits);
+	}
+
+	/**
+	 * This function computes the HMAC of a filename; it is the same in every
+	 * shard.
+	 *
+	 * @param file - the filename of the queried file
+	 * @return - its MAC
+	 */
+	public byte[] query(String file) {
+		return this.shards[0].query(file);
+	}
+
+	/**
+	 * This function outsources a stream of filenames. Every name is HMACed once
+	 * and routed to its shard; the HMACs of a batch of BATCH_SIZE names are
+	 * computed on 'threads' threads. Then the shards are built in parallel, each
+	 * by one thread, and the top tree is built over their roots.
+	 *
+	 * @param files - the filenames to be outsourced
+	 * @throws IllegalStateException or the exception of a shard if a shard could
+	 *                               not be built; the top tree is not built then
+	 */
+	public void outsource(Iterator<String> files) {
+		List<List<byte[]>> routed = new ArrayList<List<byte[]>>();
+		for (int i = 0; i < this.shards.length; i++)
+			routed.add(new ArrayList<byte[]>());
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			// a few batches are HMACed ahead while the oldest one is routed, in stream order
+			List<Future<byte[][]>> pending = new ArrayList<Future<byte[][]>>();
+			while (files.hasNext() || pending.isEmpty() == false) {
+				while (files.hasNext() && pending.size() < 2 * this.threads)
+					pending.add(executor.submit(this.macBatch(nextBatch(files))));
+				for (byte[] fileMac : await(pending.remove(0)))
+					routed.get(this.shardOf(fileMac)).add(fileMac);
+			}
+
+			List<Future<Object>> builds = new ArrayList<Future<Object>>();
+			for (int i = 0; i < this.shards.length; i++) {
+				final DynamicVFS shard = this.shards[i];
+				final List<byte[]> fileMacs = routed.get(i);
+				builds.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						shard.prepareOutsourceMacs(fileMacs);
+						shard.outsource();
+						return null;
+					}
+				}));
+			}
+			awaitAll(builds);
+		} finally {
+			executor.shutdown();
+		}
+
+		this.buildTop();
+	}
+
+	private static String[] nextBatch(Iterator<String> files) {
+		List<String> batch = new ArrayList<String>();
+		while (batch.size() < DynamicVFS.BATCH_SIZE && files.hasNext())
+			batch.add(files.next());
+		return batch.toArray(new String[batch.size()]);
+	}
+
+	private Callable<byte[][]> macBatch(final String[] batch) {
+		return new Callable<byte[][]>() {
+			public byte[][] call() {
+				byte[][] result = new byte[batch.length][];
+				for (int i = 0; i < batch.length; i++)
+					result[i] = query(batch[i]);
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * This function builds the top tree over the commitments of all the shards.
+	 */
+	private void buildTop() {
+		MetaProofData[] leaves = new MetaProofData[this.shards.length];
+		for (int i = 0; i < this.shards.length; i++)
+			leaves[i] = new MetaProofData(i, this.commitment(this.shards[i].getRoots()), 0);
+
+		HashTree table = new HashTree(this.shardBits, leaves, HashTree.HEAP, this.hashEngine);
+		table.build();
+		synchronized (this) {
+			this.top = table;
+			this.root = table.getRoot();
+		}
+	}
+
+	/**
+	 * This function gets the commitment of a shard: its root or, while it grows,
+	 * hash(root || nextRoot).
+	 *
+	 * @param roots - the root of the shard and the root of its new table (or null)
+	 */
+	private byte[] commitment(byte[][] roots) {
+		if (roots[1] == null)
+			return roots[0];
+		MessageDigest md = this.hashEngine.getDigest();
+		md.update(roots[0]);
+		md.update(roots[1]);
+		return md.digest();
+	}
+
+	/**
+	 * This function puts the current commitment of a shard into the top tree. It
+	 * is called with the write lock of the shard held.
+	 */
+	private void refresh(int shard) {
+		MetaProofData leaf = new MetaProofData(shard, this.commitment(this.shards[shard].getRoots()), 0);
+		synchronized (this) {
+			this.top.update(shard, leaf);
+			this.root = this.top.getRoot();
+		}
+	}
+
+	/**
+	 * This function helps a cloud answer a query of a data user. Only the shard
+	 * of the queried MAC is searched.
+	 *
+	 * @param queryFile - a query token send by the data user
+	 * @return the search result in the shard, the shard roots and their top path
+	 */
+	public ShardedProofData search(byte[] queryFile) {
+		int shard = this.shardOf(queryFile);
+		this.locks[shard].readLock().lock();
+		try {
+			ProofData proof = this.shards[shard].search(queryFile);
+			byte[][] roots = this.shards[shard].getRoots();
+			byte[][] path = null;
+			synchronized (this) {
+				path = this.top.getAuthenticationPath(shard);
+			}
+			MetaProofData topProof = new MetaProofData(shard, this.commitment(roots), 0, path);
+			return new ShardedProofData(shard, proof, roots[0], roots[1], topProof);
+		} finally {
+			this.locks[shard].readLock().unlock();
+		}
+	}
+
+	/**
+	 * This function helps the data user check whether the returned result from
+	 * the cloud is correct: the result must come from the shard of the queried
+	 * MAC, the shard roots must lead to the root of the top tree, and the shard
+	 * result must be correct for these roots.
+	 *
+	 * @param queryFile - the query token sent to the cloud by the data user
+	 * @param proof     - the returned result from the cloud
+	 * @return true if the cloud is honest; false if the cloud cheats
+	 */
+	public boolean verify(byte[] queryFile, ShardedProofData proof) {
+		int cheatFlag = 0;
+		int shard = this.shardOf(queryFile);
+		MetaProofData topProof = proof.getTopProof();
+
+		if (proof.getShard() != shard || proof.getRoot() == null || topProof == null || topProof.getIndex() != shard)
+			cheatFlag = cheatFlag + 1;
+		else if (Arrays.equals(topProof.getFilename(),
+				this.commitment(new byte[][] { proof.getRoot(), proof.getNextRoot() })) == false)
+			cheatFlag = cheatFlag + 1;
+		else if (topProof.validate(this.root, this.hashEngine) == false)
+			cheatFlag = cheatFlag + 1;
+		else if (this.shards[shard].verify(queryFile, proof.getProof(), proof.getRoot(), proof.getNextRoot()) == false)
+			cheatFlag = cheatFlag + 1;
+
+		if (cheatFlag == 0)
+			return true;
+		else {
+			System.out.println("cheatFlag: " + cheatFlag);
+			return false;
+		}
+	}
+
+	/**
+	 * Add a new file in the outsourced data. Only the shard of the file is
+	 * locked, so additions to different shards run in parallel.
+	 *
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 */
+	public void add(byte[] queryFile) {
+		this.apply(this.shardOf(queryFile), new byte[][] { queryFile }, new byte[0][]);
+	}
+
+	/**
+	 * Delete a file from the outsourced data. Only the shard of the file is
+	 * locked, so deletions from different shards run in parallel.
+	 *
+	 * @param queryFile - the pseudorandom filename masked by a MAC
+	 */
+	public void delete(byte[] queryFile) {
+		this.apply(this.shardOf(queryFile), new byte[0][], new byte[][] { queryFile });
+	}
+
+	/**
+	 * Add and delete many files at once. The files are routed to their shards,
+	 * every shard applies its part as one batch (see 'DynamicVFS.applyBatch()'),
+	 * and the shards run in parallel on 'threads' threads.
+	 *
+	 * @param adds    - the pseudorandom filenames to be added
+	 * @param deletes - the pseudorandom filenames to be deleted
+	 * @throws IllegalStateException or the exception of a shard if a shard could
+	 *                               not apply its part; the other shards and
+	 *                               their leaves in the top tree are updated
+	 */
+	public void applyBatch(byte[][] adds, byte[][] deletes) {
+		final List<List<byte[]>> shardAdds = this.route(adds);
+		final List<List<byte[]>> shardDeletes = this.route(deletes);
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+		try {
+			List<Future<Object>> updates = new ArrayList<Future<Object>>();
+			for (int i = 0; i < this.shards.length; i++) {
+				if (shardAdds.get(i).isEmpty() && shardDeletes.get(i).isEmpty())
+					continue;
+				final int shard = i;
+				updates.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						apply(shard, shardAdds.get(shard).toArray(new byte[0][]),
+								shardDeletes.get(shard).toArray(new byte[0][]));
+						return null;
+					}
+				}));
+			}
+			awaitAll(updates);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * This function waits for every task and then rethrows the failure of the
+	 * first one that failed, so that the caller does not go on as if every shard
+	 * had done its part.
+	 */
+	private static void awaitAll(List<Future<Object>> tasks) {
+		RuntimeException failure = null;
+		for (Future<Object> task : tasks) {
+			try {
+				await(task);
+			} catch (RuntimeException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * This function waits for a task and rethrows its exception unchecked.
+	 */
+	private static <T> T await(Future<T> task) {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for the shards", e);
+		}
+	}
+
+	private List<List<byte[]>> route(byte[][] fileMacs) {
+		List<List<byte[]>> result = new ArrayList<List<byte[]>>();
+		for (int i = 0; i < this.shards.length; i++)
+			result.add(new ArrayList<byte[]>());
+		for (byte[] fileMac : fileMacs)
+			result.get(this.shardOf(fileMac)).add(fileMac);
+		return result;
+	}
+
+	private void apply(int shard, byte[][] adds, byte[][] deletes) {
+		this.locks[shard].writeLock().lock();
+		try {
+			if (adds.length == 1 && deletes.length == 0)
+				this.shards[shard].add(adds[0]);
+			else if (adds.length == 0 && deletes.length == 1)
+				this.shards[shard].delete(deletes[0]);
+			else
+				this.shards[shard].applyBatch(adds, deletes);
+			this.refresh(shard);
+		} finally {
+			this.locks[shard].writeLock().unlock();
+		}
+	}
+
+	public byte[] getRoot() {
+		return root;
+	}
+
+	public HashTree getTopTree() {
+		return top;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public DynamicVFS getShard(int shard) {
+		return shards[shard];
+	}
+
+	/**
+	 * This function gets the number of used slots of all the shards.
+	 */
+	public int getUsedSize() {
+		int result = 0;
+		for (DynamicVFS shard : this.shards)
+			result = result + shard.getUsedSize();
+		return result;
+	}
+
+	public SecretKey getSecretKey() {
+		return this.shards[0].getSecretKey();
+	}
+
+	/**
+	 * This function sets the secret key for HMAC of every shard.
+	 *
+	 * @param sk - the secret key
+	 */
+	public void setSecretKey(SecretKey sk) {
+		for (DynamicVFS shard : this.shards)
+			shard.setSecretKey(sk);
+	}
+
+	public HashEngine getHashEngine() {
+		return hashEngine;
+	}
+
+	/**
+	 * This function sets the hash function of the top tree and of every shard.
+	 * It takes effect on the next call of 'outsource()'.
+	 */
+	public void setHashEngine(HashEngine hashEngine) {
+		this.hashEngine = hashEngine;
+		for (DynamicVFS shard : this.shards)
+			shard.setHashEngine(hashEngine);
+	}
+
+	public int getArity() {
+		return this.shards[0].getArity();
+	}
+
+	/**
+	 * This function sets the number of children per inner node of the tree of
+	 * every shard; see 'DynamicVFS.setArity()'. The top tree stays binary, since
+	 * it has few leaves.
+	 */
+	public void setArity(int arity) {
+		for (DynamicVFS shard : this.shards)
+			shard.setArity(arity);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * This function sets the slots per leaf of every shard; see
+	 * 'DynamicVFS.setBucketSize()'.
+	 */
+	public void setBucketSize(int bucketSize) {
+		for (DynamicVFS shard : this.shards)
+			shard.setBucketSize(bucketSize);
+	}
+
+	/**
+	 * This function sets the most leaves probed per search of every shard; see
+	 * 'DynamicVFS.setMaxProbes()'.
+	 */
+	public void setMaxProbes(int maxProbes) {
+		for (DynamicVFS shard : this.shards)
+			shard.setMaxProbes(maxProbes);
+	}
+
+	/**
+	 * This function sets whether every shard returns sibling-only authentication
+	 * paths; see 'DynamicVFS.setCompactProof()'.
+	 */
+	public void setCompactProof(boolean compactProof) {
+		for (DynamicVFS shard : this.shards)
+			shard.setCompactProof(compactProof);
+	}
+}
@@ -0,0 +1,421 @@
+package fchen;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class builds a tree file (see TreeFile) in bounded memory, for tables
+ * whose leaves and nodes do not fit into the heap. The filename MACs are added
+ * one by one; each is placed at once by the usual probing sequence, so the
+ * slots are those of DynamicVFS.prepareOutsource() for the same order. The
+ * (slot, MAC) pairs are collected in a buffer and spilled to disk as sorted
+ * runs whenever it is full. write() merges the runs, streams the leaf level in
+ * slot order and hashes the tree from the bottom up: a node is hashed as soon
+ * as its last child is known, and every level is appended to its region of
+ * the file through a buffer of its own. Nothing of the size of the tree is
+ * kept, except one bit per slot that marks the slots already taken.
+ *
+ * Memory: the bit set (slots / 8 bytes), the run buffer (what is left of the
+ * budget, 8 + hash size bytes per pair) and the buffers of the file regions
+ * and of the merged runs (IO_BUFFER bytes each).
+ */
+public class TreeBuilder {
+	public final static int IO_BUFFER = 1 << 16; // bytes per run being merged and per region being written
+	public final static int MIN_RUN_SIZE = 1 << 12; // pairs; the least run, however small the budget
+
+	private int treeHeight = 0;
+	private int leafSize = 0;
+	private int bucketSize = 1;
+	private int arity = 2; // children per inner node
+	private int maxProbes = 0; // most leaves probed for a file; 0 for no bound
+	private int hashSize = HashEngine.HASH_SIZE;
+	private HashEngine engine = HashEngine.SHA256;
+	private File tempDirectory = null; // where the runs are spilled; null for the default temporary directory
+
+	private BitSet used = null; // slot i is taken if bit i is set
+	private int usedSize = 0;
+	private int overflow = 0; // files whose probed leaves were all full
+
+	private long[] keys = null; // slot << 32 | position of the MAC in 'macs'
+	private byte[] macs = null;
+	private int count = 0; // pairs in the run buffer
+	private List<File> runs = new ArrayList<File>();
+
+	/**
+	 * This function prepares a builder.
+	 *
+	 * @param treeHeight   - the height of the tree; it has 2^treeHeight leaves
+	 * @param bucketSize   - number of slots per leaf
+	 * @param memoryBudget - bytes the builder may use, including the bit set of slots
+	 */
+	public TreeBuilder(int treeHeight, int bucketSize, long memoryBudget) {
+		this.treeHeight = treeHeight;
+		this.leafSize = 1 << treeHeight;
+		this.bucketSize = bucketSize;
+		this.used = new BitSet(this.leafSize * bucketSize);
+
+		long free = memoryBudget - (long) this.leafSize * bucketSize / 8 - (long) (treeHeight + 2) * IO_BUFFER;
+		int runSize = (int) Math.min(Integer.MAX_VALUE / this.hashSize, Math.max(MIN_RUN_SIZE, free / (8 + this.hashSize)));
+		this.keys = new long[runSize];
+		this.macs = new byte[runSize * this.hashSize];
+	}
+
+	/**
+	 * This function places a filename MAC into the first free slot of its probing
+	 * sequence h_1, h_2, h_2 + 101, h_2 + 2 * 101, ... of leaves, and keeps the
+	 * pair for write().
+	 *
+	 * @param fileMac - the MAC of a filename
+	 * @return false if 'maxProbes' leaves are full and the file was not placed
+	 * @throws IOException if a full run cannot be spilled
+	 */
+	public boolean add(byte[] fileMac) throws IOException {
+		int slot = this.place(fileMac);
+		if (slot < 0) {
+			this.overflow = this.overflow + 1;
+			return false;
+		}
+
+		if (this.count == this.keys.length)
+			this.spill();
+		this.keys[this.count] = ((long) slot << 32) | this.count;
+		System.arraycopy(fileMac, 0, this.macs, this.count * this.hashSize, this.hashSize);
+		this.count = this.count + 1;
+		return true;
+	}
+
+	private int place(byte[] fileMac) {
+		int index = 0;
+		index = ((int) fileMac[0]) + (((int) fileMac[1]) << 8) + (((int) fileMac[2]) << 16)
+				+ (((int) fileMac[3]) << 24);
+		index = Math.abs(index) % this.leafSize; // h_1
+
+		int probes = 0;
+		while (true) {
+			probes = probes + 1;
+			for (int slot = index * this.bucketSize; slot < (index + 1) * this.bucketSize; slot++) {
+				if (this.used.get(slot) == false) {
+					this.used.set(slot);
+					this.usedSize = this.usedSize + 1;
+					return slot;
+				}
+			}
+
+			if ((this.maxProbes > 0 && probes >= this.maxProbes) || this.usedSize == this.leafSize * this.bucketSize)
+				return -1;
+
+			if (probes == 1) {
+				index = ((int) fileMac[4]) + (((int) fileMac[5]) << 8) + (((int) fileMac[6]) << 16)
+						+ (((int) fileMac[7]) << 24);
+				index = Math.abs(index) % this.leafSize; // h_2
+			} else
+				index = (index + 101) % this.leafSize;
+		}
+	}
+
+	/**
+	 * This function sorts the run buffer by slot and writes it to a new run file.
+	 */
+	private void spill() throws IOException {
+		Arrays.sort(this.keys, 0, this.count);
+
+		File run = File.createTempFile("vfs-run", ".tmp", this.tempDirectory);
+		this.runs.add(run);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER))) {
+			out.writeInt(this.count);
+			for (int i = 0; i < this.count; i++) {
+				out.writeInt((int) (this.keys[i] >>> 32));
+				out.write(this.macs, (int) this.keys[i] * this.hashSize, this.hashSize);
+			}
+		}
+		this.count = 0;
+	}
+
+	/**
+	 * This function writes the tree file. The file is written under a temporary
+	 * name and then renamed, like TreeFile.write(). The run files are deleted
+	 * afterwards, and the builder cannot be used again.
+	 *
+	 * @param file       - the path of the tree file
+	 * @param loadFactor - the load factor recorded in the file
+	 * @throws IOException if some files could not be placed or the file cannot be written
+	 */
+	public void write(String file, double loadFactor) throws IOException {
+		if (this.overflow > 0)
+			throw new IOException(this.overflow + " files could not be placed within " + this.maxProbes
+					+ " leaves; the tree is too small");
+
+		List<Run> readers = new ArrayList<Run>();
+		Path path = Paths.get(file);
+		Path temp = Paths.get(file + ".tmp");
+		try {
+			if (this.count > 0)
+				this.spill();
+			this.keys = null;
+			this.macs = null;
+			this.used = null;
+
+			PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, this.runs.size()), new Comparator<Run>() {
+				public int compare(Run a, Run b) {
+					return Integer.compare(a.slot, b.slot);
+				}
+			});
+			for (File run : this.runs) {
+				Run reader = new Run(run, this.hashSize);
+				readers.add(reader);
+				if (reader.next())
+					queue.add(reader);
+			}
+
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer header = ByteBuffer.wrap(TreeFile.header(this.treeHeight, this.usedSize, this.usedSize,
+						loadFactor, this.hashSize, 0, this.bucketSize, this.engine, this.arity, this.maxProbes));
+				while (header.hasRemaining())
+					channel.write(header, header.position());
+
+				this.writeTree(channel, queue);
+				channel.force(true);
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			for (Run reader : readers)
+				reader.close();
+			for (File run : this.runs)
+				run.delete();
+			this.runs.clear();
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * This function streams the leaves in slot order and hashes the tree from the
+	 * bottom up. group[d] holds the children at depth d whose last sibling is not
+	 * known yet; an all-empty subtree is not hashed, its value is known.
+	 */
+	private void writeTree(FileChannel channel, PriorityQueue<Run> queue) throws IOException {
+		TreeShape shape = new TreeShape(this.treeHeight, this.arity);
+		int leafDepth = shape.getDepth();
+		byte[][] emptyHash = shape.emptyHashes(this.engine);
+		MessageDigest md = this.engine.getDigest();
+
+		Region[] levels = new Region[leafDepth + 1];
+		for (int depth = 0; depth <= leafDepth; depth++)
+			levels[depth] = new Region(channel, TreeFile.HEADER_SIZE + (long) shape.getLevelStart(depth) * this.hashSize,
+					(int) Math.min(IO_BUFFER, (long) shape.getLevelSize(depth) * this.hashSize));
+		Region leaves = new Region(channel,
+				TreeFile.HEADER_SIZE + (long) shape.getNodeCount() * this.hashSize, IO_BUFFER);
+
+		byte[][][] group = new byte[leafDepth + 1][][];
+		for (int depth = 1; depth <= leafDepth; depth++)
+			group[depth] = new byte[shape.getFanOut(depth - 1)][this.hashSize];
+		int[] filled = new int[leafDepth + 1];
+		boolean[] groupEmpty = new boolean[leafDepth + 1];
+		byte[][] computed = new byte[leafDepth + 1][this.hashSize];
+
+		MetaProofData[] bucket = new MetaProofData[this.bucketSize];
+		for (int i = 0; i < this.bucketSize; i++)
+			bucket[i] = new MetaProofData(i, new byte[this.hashSize], 0);
+		List<MetaProofData> slots = Arrays.asList(bucket);
+		byte[] zero = new byte[this.hashSize];
+
+		for (int leaf = 0; leaf < this.leafSize; leaf++) {
+			boolean empty = true;
+			for (int i = 0; i < this.bucketSize; i++) {
+				int slot = leaf * this.bucketSize + i;
+				byte[] filename = bucket[i].getFilename();
+				bucket[i].setIndex(slot);
+				Run head = queue.peek();
+				if (head != null && head.slot == slot) {
+					queue.poll();
+					System.arraycopy(head.mac, 0, filename, 0, this.hashSize);
+					if (head.next())
+						queue.add(head);
+					empty = false;
+				} else
+					System.arraycopy(zero, 0, filename, 0, this.hashSize);
+				leaves.write(filename, 0, this.hashSize);
+				leaves.write((byte) 0);
+			}
+
+			byte[] value = emptyHash[0];
+			if (empty == false) {
+				MetaProofData.generateHash(leaf, slots, 0, this.bucketSize, this.engine, computed[leafDepth], 0);
+				value = computed[leafDepth];
+			}
+
+			// write the node and combine it with its siblings, as far up as possible
+			int depth = leafDepth;
+			while (true) {
+				levels[depth].write(value, 0, this.hashSize);
+				if (depth == 0)
+					break;
+				System.arraycopy(value, 0, group[depth][filled[depth]], 0, this.hashSize);
+				groupEmpty[depth] = (filled[depth] == 0) ? empty : groupEmpty[depth] && empty;
+				filled[depth] = filled[depth] + 1;
+				if (filled[depth] < group[depth].length)
+					break;
+
+				filled[depth] = 0;
+				empty = groupEmpty[depth];
+				if (empty)
+					value = emptyHash[leafDepth - depth + 1];
+				else {
+					for (byte[] child : group[depth])
+						md.update(child);
+					HashEngine.digest(md, computed[depth - 1], 0);
+					value = computed[depth - 1];
+				}
+				depth = depth - 1;
+			}
+		}
+
+		if (queue.isEmpty() == false)
+			throw new IOException("a run holds a slot outside the tree");
+		for (Region level : levels)
+			level.flush();
+		leaves.flush();
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	public int getBucketSize() {
+		return bucketSize;
+	}
+
+	public int getArity() {
+		return arity;
+	}
+
+	/**
+	 * This function chooses the number of children per inner node of the tree:
+	 * 2, 4, 8 or 16.
+	 */
+	public void setArity(int arity) {
+		if (TreeShape.isValidArity(arity) == false)
+			throw new IllegalArgumentException("unsupported arity " + arity);
+		this.arity = arity;
+	}
+
+	/**
+	 * This function gets the number of placed files.
+	 */
+	public int getUsedSize() {
+		return usedSize;
+	}
+
+	public int getRunCount() {
+		return runs.size();
+	}
+
+	public int getMaxProbes() {
+		return maxProbes;
+	}
+
+	public void setMaxProbes(int maxProbes) {
+		this.maxProbes = maxProbes;
+	}
+
+	public HashEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * This function chooses the hash function of the tree; see HashEngine.
+	 */
+	public void setEngine(HashEngine engine) {
+		this.engine = engine;
+	}
+
+	public File getTempDirectory() {
+		return tempDirectory;
+	}
+
+	public void setTempDirectory(File tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * A sorted run being merged; 'slot' and 'mac' hold its current pair.
+	 */
+	private static class Run {
+		private DataInputStream in = null;
+		private int remaining = 0;
+		private int slot = -1;
+		private byte[] mac = null;
+
+		Run(File file, int hashSize) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER));
+			this.remaining = this.in.readInt();
+			this.mac = new byte[hashSize];
+		}
+
+		boolean next() throws IOException {
+			if (this.remaining == 0)
+				return false;
+			this.slot = this.in.readInt();
+			this.in.readFully(this.mac);
+			this.remaining = this.remaining - 1;
+			return true;
+		}
+
+		void close() {
+			try {
+				this.in.close();
+			} catch (IOException e) {
+				System.out.println("Error occured when closing a run.");
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**
+	 * A region of the tree file that is written sequentially through a buffer.
+	 */
+	private static class Region {
+		private FileChannel channel = null;
+		private long position = 0; // where the buffer goes in the file
+		private ByteBuffer buffer = null;
+
+		Region(FileChannel channel, long position, int bufferSize) {
+			this.channel = channel;
+			this.position = position;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+		}
+
+		void write(byte[] src, int offset, int length) throws IOException {
+			while (length > 0) {
+				int n = Math.min(length, this.buffer.remaining());
+				this.buffer.put(src, offset, n);
+				offset = offset + n;
+				length = length - n;
+				if (this.buffer.hasRemaining() == false)
+					this.flush();
+			}
+		}
+
+		void write(byte b) throws IOException {
+			this.buffer.put(b);
+			if (this.buffer.hasRemaining() == false)
+				this.flush();
+		}
+
+		void flush() throws IOException {
+			this.buffer.flip();
+			while (this.buffer.hasRemaining())
+				this.position = this.position + this.channel.write(this.buffer, this.position);
+			this.buffer.clear();
+		}
+	}
+}
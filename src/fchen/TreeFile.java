@@ -0,0 +1,329 @@
+package fchen;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * This class saves the outsourced data of the cloud, i.e. the hash tree and its
+ * leaf tuples, into one file and opens such a file again. Opening maps the file
+ * into memory and reads only the header, so it takes the same time for any tree
+ * size; the nodes and leaves are loaded by the operating system when they are
+ * first accessed.
+ *
+ * Format (version 1, all integers big-endian):
+ * header of HEADER_SIZE bytes: magic 'V' 'F' 'S' 'T' | version (4 bytes) |
+ * tree height (4 bytes) | leaf size (4 bytes) | current size (4 bytes) |
+ * load factor (8 bytes) | hash size (4 bytes) | log sequence (8 bytes) |
+ * used size (4 bytes) | bucket size (4 bytes) | hash engine (4 bytes) | arity (4 bytes) |
+ * max probes (4 bytes) | zero padding
+ * nodes: node 0, node 1, ..., hash size bytes each, as in the heap layout of HashTree
+ * (see TreeShape)
+ * leaves: one record per slot, i.e. leaf size * bucket size records;
+ * filename MAC (hash size bytes) | state (1 byte)
+ *
+ * The log sequence is the number of the last record of the update log that the
+ * file contains; it is 0 without a log. The used size is the number of
+ * non-empty slots, occupied or deleted; 0 means unknown. A file opened for
+ * writing keeps the current size and the used size up to date with its
+ * leaves. A bucket size of 0
+ * means 1. The hash engine is the identifier of the hash function of the tree
+ * (see HashEngine); 0, as in files written before it was recorded, means
+ * SHA-256. The arity is the number of children per inner node; 0, as in
+ * files written before it was recorded, means 2. The max probes value is the
+ * bound on the probing sequence the files were placed with; 0, as in files
+ * written before it was recorded, means no bound. The secret key of the data
+ * user is not part of the file.
+ */
+public class TreeFile {
+	public final static byte[] MAGIC = { 'V', 'F', 'S', 'T' };
+	public final static int VERSION = 1;
+	public final static int HEADER_SIZE = 64;
+	private final static int CURRENT_SIZE_OFFSET = 16; // offsets of the counters in the header
+	private final static int USED_SIZE_OFFSET = 40;
+
+	private int treeHeight = 0;
+	private int leafSize = 0;
+	private int currentSize = 0;
+	private double loadFactor = 0;
+	private int hashSize = 0;
+	private long sequence = 0;
+	private int usedSize = 0;
+	private int bucketSize = 1;
+	private HashEngine engine = HashEngine.SHA256;
+	private int arity = 2;
+	private int maxProbes = 0;
+	private FileChannel channel = null;
+	private MappedByteBuffer header = null; // the mapped header of a file opened for writing
+	private HashTree tree = null;
+
+	private TreeFile() {
+	}
+
+	/**
+	 * This function saves the newest version of a hash tree into a file. The file
+	 * is written under a temporary name and then renamed, so an existing file is
+	 * replaced only by a complete one.
+	 *
+	 * @param file        - the path of the tree file
+	 * @param tree        - the hash tree and its leaves
+	 * @param currentSize - number of outsourced files
+	 * @param loadFactor  - the load factor used to size the tree
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(String file, HashTree tree, int currentSize, double loadFactor) throws IOException {
+		TreeVersion version = tree.pin();
+		try {
+			write(file, version, tree.getTreeHeight(), currentSize, 0, loadFactor, 0);
+		} finally {
+			version.release();
+		}
+	}
+
+	/**
+	 * This function saves a pinned version of a hash tree into a file, as a
+	 * checkpoint of an update log. The file is forced to disk before it replaces
+	 * an existing one.
+	 *
+	 * @param file        - the path of the tree file
+	 * @param version     - the pinned version of the tree
+	 * @param treeHeight  - the height of the tree
+	 * @param currentSize - number of outsourced files
+	 * @param usedSize    - number of occupied or deleted slots; 0 if unknown
+	 * @param loadFactor  - the load factor used to size the tree
+	 * @param sequence    - number of the last log record contained in the version
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(String file, TreeVersion version, int treeHeight, int currentSize, int usedSize,
+			double loadFactor, long sequence) throws IOException {
+		Path path = Paths.get(file);
+		Path temp = Paths.get(file + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp.toFile());
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 20))) {
+			int leafSize = 1 << treeHeight;
+			int bucketSize = version.getBucketSize();
+			int hashSize = version.getRoot().length;
+
+			out.write(header(treeHeight, currentSize, usedSize, loadFactor, hashSize, sequence, bucketSize,
+					version.getTree().getEngine(), version.getTree().getArity(), version.getMaxProbes()));
+
+			for (int i = 0; i < version.getTree().getTreeSize(); i++)
+				out.write(version.getNode(i));
+
+			for (int i = 0; i < leafSize * bucketSize; i++) {
+				MetaProofData tuple = version.getLeaf(i);
+				out.write(tuple.getFilename());
+				out.writeByte(tuple.getState());
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * This function makes the header of a tree file.
+	 *
+	 * @return HEADER_SIZE bytes
+	 */
+	static byte[] header(int treeHeight, int currentSize, int usedSize, double loadFactor, int hashSize,
+			long sequence, int bucketSize, HashEngine engine, int arity, int maxProbes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(treeHeight);
+		out.writeInt(1 << treeHeight);
+		out.writeInt(currentSize);
+		out.writeDouble(loadFactor);
+		out.writeInt(hashSize);
+		out.writeLong(sequence);
+		out.writeInt(usedSize);
+		out.writeInt(bucketSize);
+		out.writeInt(engine.getId());
+		out.writeInt(arity);
+		out.writeInt(maxProbes);
+		out.write(new byte[HEADER_SIZE - out.size()]);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * This function opens a tree file.
+	 *
+	 * @param file     - the path of the tree file
+	 * @param writable - true to write later updates of the tree through to the
+	 *                 file; false to open it for searches only
+	 * @return the opened file with its hash tree
+	 * @throws IOException if the file cannot be read or is of an unknown format
+	 */
+	public static TreeFile open(String file, boolean writable) throws IOException {
+		return open(file, writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+	}
+
+	/**
+	 * This function opens a tree file.
+	 *
+	 * @param file - the path of the tree file
+	 * @param mode - READ_ONLY for searches only, READ_WRITE to write later
+	 *             updates through to the file, or PRIVATE to keep them in memory
+	 *             and leave the file unchanged
+	 * @return the opened file with its hash tree
+	 * @throws IOException if the file cannot be read or is of an unknown format
+	 */
+	public static TreeFile open(String file, FileChannel.MapMode mode) throws IOException {
+		TreeFile result = new TreeFile();
+		if (mode != FileChannel.MapMode.READ_ONLY)
+			result.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		else
+			result.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+
+		try {
+			byte[] header = new byte[HEADER_SIZE];
+			ByteBuffer buffer = ByteBuffer.wrap(header);
+			while (buffer.hasRemaining())
+				if (result.channel.read(buffer, buffer.position()) < 0)
+					throw new IOException("truncated tree file");
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+			for (int i = 0; i < MAGIC.length; i++)
+				if (in.readByte() != MAGIC[i])
+					throw new IOException("not a tree file");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("unsupported tree file version " + version);
+
+			result.treeHeight = in.readInt();
+			result.leafSize = in.readInt();
+			result.currentSize = in.readInt();
+			result.loadFactor = in.readDouble();
+			result.hashSize = in.readInt();
+			result.sequence = in.readLong();
+			result.usedSize = in.readInt();
+			result.bucketSize = Math.max(1, in.readInt());
+			result.engine = HashEngine.get(in.readInt());
+			if (result.engine == null)
+				throw new IOException("unknown hash engine");
+			result.arity = in.readInt();
+			if (result.arity == 0)
+				result.arity = 2;
+			if (TreeShape.isValidArity(result.arity) == false)
+				throw new IOException("unsupported arity " + result.arity);
+			result.maxProbes = in.readInt();
+			if (result.maxProbes < 0)
+				throw new IOException("inconsistent tree file");
+			if (result.leafSize != 1 << result.treeHeight)
+				throw new IOException("inconsistent tree file");
+
+			int nodeCount = new TreeShape(result.treeHeight, result.arity).getNodeCount();
+			long nodeRegion = (long) nodeCount * result.hashSize;
+			long leafRegion = (long) result.leafSize * result.bucketSize * (result.hashSize + 1);
+			if (result.channel.size() != HEADER_SIZE + nodeRegion + leafRegion)
+				throw new IOException("truncated tree file");
+
+			NodeStore nodes = NodeStore.map(result.channel, HEADER_SIZE, nodeCount, result.hashSize, mode);
+			LeafStore leaves = LeafStore.map(result.channel, HEADER_SIZE + nodeRegion,
+					result.leafSize * result.bucketSize, result.hashSize, mode);
+			result.tree = new HashTree(result.treeHeight, leaves, nodes, result.engine, result.arity);
+			result.tree.setMaxProbes(result.maxProbes);
+			if (mode == FileChannel.MapMode.READ_WRITE)
+				result.header = result.channel.map(mode, 0, HEADER_SIZE);
+		} catch (IOException e) {
+			result.channel.close();
+			throw e;
+		}
+
+		return result;
+	}
+
+	/**
+	 * This function sets the number of outsourced files and of used slots after
+	 * the leaves changed. In a file opened for writing, they are written through
+	 * to the header like the changes of the tree.
+	 *
+	 * @param currentSize - number of outsourced files
+	 * @param usedSize    - number of occupied or deleted slots
+	 */
+	public void setSizes(int currentSize, int usedSize) {
+		this.currentSize = currentSize;
+		this.usedSize = usedSize;
+		if (this.header != null) {
+			this.header.putInt(CURRENT_SIZE_OFFSET, currentSize);
+			this.header.putInt(USED_SIZE_OFFSET, usedSize);
+		}
+	}
+
+	/**
+	 * This function writes the changes of the tree back to the file.
+	 */
+	public void force() {
+		this.tree.getHt().force();
+		this.tree.getLeafStore().force();
+		if (this.header != null)
+			this.header.force();
+	}
+
+	/**
+	 * This function closes the file. The mapped tree stays readable until it is
+	 * garbage collected.
+	 */
+	public void close() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			System.out.println("Error occured when closing the tree file.");
+			System.out.println(e);
+		}
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	public int getLeafSize() {
+		return leafSize;
+	}
+
+	public int getCurrentSize() {
+		return currentSize;
+	}
+
+	public double getLoadFactor() {
+		return loadFactor;
+	}
+
+	public int getHashSize() {
+		return hashSize;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getUsedSize() {
+		return usedSize;
+	}
+
+	public int getBucketSize() {
+		return bucketSize;
+	}
+
+	public HashEngine getEngine() {
+		return engine;
+	}
+
+	public int getArity() {
+		return arity;
+	}
+
+	public int getMaxProbes() {
+		return maxProbes;
+	}
+
+	public HashTree getTree() {
+		return tree;
+	}
+}
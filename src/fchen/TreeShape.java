@@ -0,0 +1,232 @@
+package fchen;
+
+import java.security.MessageDigest;
+
+/**
+ * This class describes the shape of a hash tree whose inner nodes have 'arity'
+ * children, for an arity of 2, 4, 8 or 16. The tree has 2^treeHeight leaves
+ * like the binary tree of the same height, but only ceil(treeHeight / b)
+ * levels of inner nodes above them, where arity = 2^b. Every inner node has
+ * 'arity' children, except the root when b does not divide the height: it has
+ * 2^(treeHeight - b * (depth - 1)) children.
+ *
+ * The nodes are stored level by level from the root, as in the heap layout of
+ * HashTree: the node at position p of depth d has the index levelStart[d] + p,
+ * its parent is at position p / arity of depth d - 1, and its children are at
+ * positions p * arity, ..., p * arity + arity - 1 of depth d + 1. For arity 2
+ * this is the layout of the complete binary tree.
+ *
+ * A full authentication path holds the whole group of children at every level,
+ * from the bottom, followed by the root; a compact path holds the siblings of
+ * the group, arity - 1 per level.
+ */
+public class TreeShape {
+	public final static int[] ARITIES = { 2, 4, 8, 16 };
+
+	private int treeHeight = 0; // the tree has 2^treeHeight leaves
+	private int arity = 2;
+	private int bits = 1; // arity = 2^bits
+	private int depth = 0; // depth of the leaves; the root has depth 0
+	private int[] levelStart = null; // levelStart[d] is the index of the first node of depth d
+	private int[] levelSize = null; // levelSize[d] is the number of nodes of depth d
+	private int nodeCount = 0;
+
+	/**
+	 * It constructs the shape of a tree.
+	 *
+	 * @param treeHeight - the tree has 2^treeHeight leaves
+	 * @param arity      - children per inner node: 2, 4, 8 or 16
+	 */
+	public TreeShape(int treeHeight, int arity) {
+		if (isValidArity(arity) == false)
+			throw new IllegalArgumentException("unsupported arity " + arity);
+
+		this.treeHeight = treeHeight;
+		this.arity = arity;
+		this.bits = Integer.numberOfTrailingZeros(arity);
+		this.depth = (treeHeight + this.bits - 1) / this.bits;
+		this.levelStart = new int[this.depth + 1];
+		this.levelSize = new int[this.depth + 1];
+		for (int d = 0; d <= this.depth; d++) {
+			this.levelSize[d] = 1 << Math.max(0, treeHeight - this.bits * (this.depth - d));
+			this.levelStart[d] = (d == 0) ? 0 : this.levelStart[d - 1] + this.levelSize[d - 1];
+		}
+		this.nodeCount = this.levelStart[this.depth] + this.levelSize[this.depth];
+	}
+
+	/**
+	 * This function tells whether a tree may have 'arity' children per node.
+	 */
+	public static boolean isValidArity(int arity) {
+		for (int a : ARITIES)
+			if (a == arity)
+				return true;
+		return false;
+	}
+
+	/**
+	 * This function gets the number of children of a node of depth 'depth'.
+	 */
+	public int getFanOut(int depth) {
+		return (depth == 0) ? this.levelSize[Math.min(1, this.depth)] : this.arity;
+	}
+
+	/**
+	 * This function gets the depth of a node.
+	 *
+	 * @param node - node index; the root is at index 0
+	 */
+	public int getDepth(int node) {
+		if (this.bits == 1)
+			return 31 - Integer.numberOfLeadingZeros(node + 1); // node + 1 has 'depth + 1' bits
+		int d = 0;
+		while (d < this.depth && node >= this.levelStart[d + 1])
+			d = d + 1;
+		return d;
+	}
+
+	/**
+	 * This function gets the parent of 'node', which has depth 'depth'.
+	 */
+	public int getParent(int node, int depth) {
+		return this.levelStart[depth - 1] + ((node - this.levelStart[depth]) >>> this.bits);
+	}
+
+	/**
+	 * This function gets the first child of 'node', which has depth 'depth'.
+	 */
+	public int getFirstChild(int node, int depth) {
+		return this.levelStart[depth + 1] + ((node - this.levelStart[depth]) << this.bits);
+	}
+
+	/**
+	 * This function gets the first node of the group of children that 'node',
+	 * which has depth 'depth', belongs to.
+	 */
+	public int getGroupStart(int node, int depth) {
+		return this.levelStart[depth] + (((node - this.levelStart[depth]) >>> this.bits) << this.bits);
+	}
+
+	/**
+	 * This function gets the position within its level of the ancestor of depth
+	 * 'depth' of the leaf 'leaf'.
+	 */
+	public int getAncestor(int leaf, int depth) {
+		int shift = this.bits * (this.depth - depth);
+		return (shift >= 32) ? 0 : leaf >>> shift;
+	}
+
+	/**
+	 * This function gets the first node of depth 'below' in the subtree rooted
+	 * at 'node', which has depth 'depth'.
+	 */
+	public int getFirstDescendant(int node, int depth, int below) {
+		return this.levelStart[below] + ((node - this.levelStart[depth]) << (this.bits * (below - depth)));
+	}
+
+	/**
+	 * This function gets the number of nodes of depth 'below' in a subtree rooted
+	 * at depth 'depth'.
+	 */
+	public int getDescendantCount(int depth, int below) {
+		return (depth == 0) ? this.levelSize[below] : 1 << (this.bits * (below - depth));
+	}
+
+	/**
+	 * This function gets the number of hashes in an authentication path that
+	 * reaches the root.
+	 *
+	 * @param compact - true for a sibling-only path without the root
+	 */
+	public int getPathLength(boolean compact) {
+		return this.getPathLength(this.depth, compact);
+	}
+
+	/**
+	 * This function gets the number of hashes in the lowest 'levels' levels of an
+	 * authentication path, without the root.
+	 *
+	 * @param compact - true for the siblings only; false for the whole groups
+	 */
+	public int getPathLength(int levels, boolean compact) {
+		int length = 0;
+		for (int d = this.depth; d > this.depth - levels; d--)
+			length = length + this.getFanOut(d - 1) - (compact ? 1 : 0);
+		return (levels == this.depth && compact == false) ? length + 1 : length;
+	}
+
+	/**
+	 * This function gets the number of levels of an authentication path of a
+	 * tree with 'arity' children per node, i.e. the hashes the verifier computes
+	 * above the leaf. Only the top group may be smaller than the others.
+	 *
+	 * @param length  - number of hashes in the path
+	 * @param compact - true for a sibling-only path without the root
+	 */
+	public static int getPathLevels(int length, int arity, boolean compact) {
+		if (compact)
+			return (length + arity - 2) / (arity - 1);
+		return Math.max(0, (length - 1 + arity - 1) / arity);
+	}
+
+	/**
+	 * This function computes the root value of an all-empty subtree for every
+	 * level. Empty leaves do not depend on their index, so one value per level
+	 * suffices.
+	 *
+	 * @param engine - the hash function of the tree
+	 * @return - an array whose t-th element is the root of an empty subtree with
+	 *         t levels of inner nodes, i.e. of a node of depth 'depth - t'
+	 */
+	public byte[][] emptyHashes(HashEngine engine) {
+		MessageDigest md = engine.newDigest();
+
+		byte[][] result = new byte[this.depth + 1][];
+		result[0] = MetaProofData.emptyLeafHash(engine);
+		for (int t = 1; t <= this.depth; t++) {
+			for (int i = 0; i < this.getFanOut(this.depth - t); i++)
+				md.update(result[t - 1]);
+			result[t] = md.digest();
+		}
+		return result;
+	}
+
+	public int getTreeHeight() {
+		return treeHeight;
+	}
+
+	public int getArity() {
+		return arity;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * This function gets the depth of the leaves, i.e. the number of levels of
+	 * inner nodes.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getLevelStart(int depth) {
+		return levelStart[depth];
+	}
+
+	public int getLevelSize(int depth) {
+		return levelSize[depth];
+	}
+
+	/**
+	 * This function gets the index of the first leaf node.
+	 */
+	public int getLeafStart() {
+		return levelStart[depth];
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+}
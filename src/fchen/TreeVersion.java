@@ -0,0 +1,182 @@
+package fchen;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is an immutable version of a hash tree. An update never writes the
+ * nodes seen by published versions; it copies the changed path into a new
+ * version, which holds only the changed nodes and leaves and reads everything
+ * else through its parent. The node store of the tree holds the oldest live
+ * version; once no reader holds that version, the changes of its successor are
+ * folded into the store and the old version becomes garbage.
+ *
+ * A reader pins a version without taking a lock, reads any number of leaves and
+ * paths that are all consistent with the root of that version, and releases it.
+ */
+public class TreeVersion {
+	private HashTree tree = null;
+	private long number = 0; // versions are numbered 0, 1, 2, ...
+	volatile TreeVersion parent = null; // the previous version; null once folded into the store
+	TreeVersion next = null; // the next version; only used by the writer
+	HashMap<Integer, byte[]> nodes = new HashMap<Integer, byte[]>(); // nodes changed by this version
+	HashMap<Integer, MetaProofData> leaves = new HashMap<Integer, MetaProofData>(); // leaves changed by this version
+	AtomicInteger pins = new AtomicInteger(0); // number of readers; -1 once retired
+
+	TreeVersion(HashTree tree, long number, TreeVersion parent) {
+		this.tree = tree;
+		this.number = number;
+		this.parent = parent;
+	}
+
+	/**
+	 * This function gets a copy of the value of a tree node in this version.
+	 *
+	 * @param node - node index; the root is at index 0
+	 * @return - the hash value of the node
+	 */
+	public byte[] getNode(int node) {
+		for (TreeVersion v = this; v != null; v = v.parent) {
+			byte[] value = v.nodes.get(node);
+			if (value != null)
+				return value.clone();
+		}
+		return this.tree.getHt().get(node);
+	}
+
+	/**
+	 * This function feeds the value of a tree node in this version into a digest.
+	 */
+	void update(MessageDigest md, int node) {
+		for (TreeVersion v = this; v != null; v = v.parent) {
+			byte[] value = v.nodes.get(node);
+			if (value != null) {
+				md.update(value);
+				return;
+			}
+		}
+		this.tree.getHt().update(md, node);
+	}
+
+	/**
+	 * This function gets the leaf tuple at 'index' in this version.
+	 *
+	 * @param index - the index of the slot; it starts with 0
+	 * @return - the leaf tuple, without authentication path
+	 */
+	public MetaProofData getLeaf(int index) {
+		for (TreeVersion v = this; v != null; v = v.parent) {
+			MetaProofData value = v.leaves.get(index);
+			if (value != null)
+				return value;
+		}
+		return this.tree.getLeafStore().get(index);
+	}
+
+	/**
+	 * This function gets the root hash value of this version.
+	 *
+	 * @return - The root hash value
+	 */
+	public byte[] getRoot() {
+		return this.getNode(0);
+	}
+
+	/**
+	 * This function gets the authentication path for the node with index 'index'.
+	 *
+	 * @param index
+	 *            - The index of the leaf node which is to be authenticated. It
+	 *            starts with 0.
+	 * @return - An authentication path from the bottom to the top, with
+	 *         corresponding index becoming large
+	 */
+	public byte[][] getAuthenticationPath(int index) {
+		TreeShape shape = this.tree.getShape();
+		byte[][] result = new byte[shape.getPathLength(false)][];
+
+		int node = shape.getLeafStart() + index;
+		int count = 0;
+		for (int depth = shape.getDepth(); depth >= 1; depth--) {
+			int first = shape.getGroupStart(node, depth); // the whole group of children
+			for (int i = 0; i < shape.getFanOut(depth - 1); i++)
+				result[count++] = this.getNode(first + i);
+			node = shape.getParent(node, depth);
+		}
+
+		result[count] = this.getNode(0);
+
+		return result;
+	}
+
+	/**
+	 * This function gets the compact authentication path for the leaf 'index':
+	 * only the siblings at every level, without the root.
+	 *
+	 * @param index
+	 *            - The index of the leaf node which is to be authenticated. It
+	 *            starts with 0.
+	 * @return - the sibling hashes from the bottom to the top
+	 */
+	public byte[][] getSiblingPath(int index) {
+		return this.getSiblingPath(index, this.tree.getDepth());
+	}
+
+	/**
+	 * This function gets the lowest 'length' levels of the compact
+	 * authentication path for the leaf 'index'; a verifier that caches the upper
+	 * levels of the tree (see Frontier) needs no more.
+	 *
+	 * @param index
+	 *            - The index of the leaf node which is to be authenticated. It
+	 *            starts with 0.
+	 * @param length
+	 *            - number of levels, at most the depth of the tree
+	 * @return - the sibling hashes of 'length' levels from the bottom upwards
+	 */
+	public byte[][] getSiblingPath(int index, int length) {
+		TreeShape shape = this.tree.getShape();
+		byte[][] result = new byte[shape.getPathLength(length, true)][];
+
+		int node = shape.getLeafStart() + index;
+		int count = 0;
+		for (int depth = shape.getDepth(); depth > shape.getDepth() - length; depth--) {
+			int first = shape.getGroupStart(node, depth);
+			for (int i = first; i < first + shape.getFanOut(depth - 1); i++)
+				if (i != node)
+					result[count++] = this.getNode(i);
+			node = shape.getParent(node, depth);
+		}
+
+		return result;
+	}
+
+	/**
+	 * This function gives up the version after reading. Every pinned version must
+	 * be released exactly once.
+	 */
+	public void release() {
+		this.pins.decrementAndGet();
+	}
+
+	public long getNumber() {
+		return number;
+	}
+
+	public int getLeafSize() {
+		return 1 << this.tree.getTreeHeight();
+	}
+
+	public int getBucketSize() {
+		return this.tree.getBucketSize();
+	}
+
+	public int getMaxProbes() {
+		return this.tree.getMaxProbes();
+	}
+
+	public HashTree getTree() {
+		return tree;
+	}
+}
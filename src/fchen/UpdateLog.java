@@ -0,0 +1,274 @@
+package fchen;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements an append-only write-ahead log of slot changes. Every
+ * addition or deletion is recorded as the new tuple (index, filename MAC, state)
+ * of its slot, so replaying a record twice does no harm. Records are numbered
+ * 1, 2, 3, ...; a tree file saved by a checkpoint holds the number of the last
+ * record it contains, and recovery replays only the records after it.
+ *
+ * The records of one update (one addition, one deletion, or one batch) form a
+ * frame: number of records (4 bytes) | number of the first record (8 bytes) |
+ * records | CRC32 of the frame (4 bytes). Each record: index (4 bytes) | state
+ * (1 byte) | filename MAC (hash size bytes). While the table grows, the state of
+ * a record for the new table carries NEXT_TABLE. A frame torn by a crash fails its
+ * checksum and is cut off, together with everything after it.
+ *
+ * Appending does not force the file. sync() forces it with group commit: one
+ * thread forces the file for all records appended so far, and the threads
+ * waiting meanwhile find their records already durable.
+ *
+ * If a frame cannot be written or the file cannot be forced, the log is broken:
+ * what reached the disk is unknown, so every later append() and sync() fails
+ * too, and the cloud must recover from the last checkpoint and the valid frames.
+ */
+public class UpdateLog {
+	public final static int NEXT_TABLE = 0x80; // the record is for the new table of a growing table
+
+	private FileChannel channel = null;
+	private int hashSize = 0;
+	private List<MetaProofData> tail = new ArrayList<MetaProofData>(); // records found when opening
+	private List<Boolean> tailTables = new ArrayList<Boolean>(); // for each record in 'tail': true for the new table
+	private long firstTailSequence = 1; // number of the first record in 'tail'
+	private volatile long appended = 0; // number of the last appended record
+	private volatile long durable = 0; // number of the last forced record
+	private volatile boolean broken = false; // a write or force failed; no record is accepted any more
+	private final Object syncLock = new Object();
+
+	/**
+	 * This function opens a log, creating it if needed. The valid records found in
+	 * the file are kept for 'getRecords()'; a torn frame at the end is cut off.
+	 *
+	 * @param file     - the path of the log file
+	 * @param hashSize - size of a filename MAC in bytes
+	 * @throws IOException if the file cannot be opened
+	 */
+	public UpdateLog(String file, int hashSize) throws IOException {
+		this.hashSize = hashSize;
+		this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+		long valid = 0; // length of the valid prefix of the file
+		CRC32 crc = new CRC32();
+		try {
+			while (true) {
+				byte[] head = new byte[12];
+				in.readFully(head);
+				int count = ByteBuffer.wrap(head).getInt();
+				long sequence = ByteBuffer.wrap(head).getLong(4);
+				if (count <= 0 || (long) count * this.recordSize() > this.channel.size())
+					break; // garbage instead of a frame header
+
+				byte[] records = new byte[count * this.recordSize()];
+				in.readFully(records);
+				crc.reset();
+				crc.update(head);
+				crc.update(records);
+				if (in.readInt() != (int) crc.getValue())
+					break;
+
+				if (this.tail.isEmpty())
+					this.firstTailSequence = sequence;
+				DataInputStream frame = new DataInputStream(new ByteArrayInputStream(records));
+				for (int i = 0; i < count; i++) {
+					int index = frame.readInt();
+					int state = frame.readUnsignedByte();
+					byte[] filename = new byte[this.hashSize];
+					frame.readFully(filename);
+					this.tail.add(new MetaProofData(index, filename, state & ~NEXT_TABLE));
+					this.tailTables.add((state & NEXT_TABLE) != 0);
+				}
+				this.appended = sequence + count - 1;
+				valid = valid + head.length + records.length + 4;
+			}
+		} catch (EOFException e) {
+			// a frame cut by the end of the file
+		}
+
+		this.channel.truncate(valid);
+		this.channel.position(valid);
+		this.durable = this.appended;
+	}
+
+	private int recordSize() {
+		return 4 + 1 + this.hashSize;
+	}
+
+	/**
+	 * This function gets the records of one table found in the file when it was
+	 * opened whose numbers are larger than 'sequence'.
+	 *
+	 * @param sequence  - number of the last record already in the tree
+	 * @param nextTable - true for the records of the new table of a growing table
+	 * @return the new slot tuples, in log order
+	 */
+	public List<MetaProofData> getRecords(long sequence, boolean nextTable) {
+		int skip = (int) Math.max(0, Math.min(this.tail.size(), sequence - this.firstTailSequence + 1));
+		List<MetaProofData> result = new ArrayList<MetaProofData>();
+		for (int i = skip; i < this.tail.size(); i++)
+			if (this.tailTables.get(i) == nextTable)
+				result.add(this.tail.get(i));
+		return result;
+	}
+
+	/**
+	 * This function appends the new tuples of the slots changed by one update as
+	 * one frame. The file is not forced.
+	 *
+	 * @param tuples     - the new slot tuples
+	 * @param nextTuples - the new slot tuples of the new table while the table grows
+	 * @return the number of the last appended record; pass it to sync()
+	 * @throws IOException if the frame could not be written or the log is broken;
+	 *                     the records are not appended then
+	 */
+	public synchronized long append(List<MetaProofData> tuples, List<MetaProofData> nextTuples) throws IOException {
+		int count = tuples.size() + nextTuples.size();
+		if (count == 0)
+			return this.appended;
+		if (this.broken)
+			throw new IOException("the update log is broken");
+
+		long first = this.appended + 1;
+		long start = -1; // position of the frame in the file
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 + count * this.recordSize());
+		DataOutputStream out = new DataOutputStream(buffer);
+		try {
+			out.writeInt(count);
+			out.writeLong(first);
+			for (MetaProofData tuple : tuples) {
+				out.writeInt(tuple.getIndex());
+				out.writeByte(tuple.getState());
+				out.write(tuple.getFilename());
+			}
+			for (MetaProofData tuple : nextTuples) {
+				out.writeInt(tuple.getIndex());
+				out.writeByte(tuple.getState() | NEXT_TABLE);
+				out.write(tuple.getFilename());
+			}
+			CRC32 crc = new CRC32();
+			crc.update(buffer.toByteArray());
+			out.writeInt((int) crc.getValue());
+
+			ByteBuffer frame = ByteBuffer.wrap(buffer.toByteArray());
+			start = this.channel.position();
+			while (frame.hasRemaining())
+				this.channel.write(frame);
+		} catch (IOException e) {
+			this.broken = true;
+			if (start >= 0)
+				this.cut(start);
+			throw e;
+		}
+
+		this.appended = first + count - 1;
+		return this.appended;
+	}
+
+	/**
+	 * This function cuts a partly written frame off the end of the file. If it
+	 * fails as well, recovery cuts the frame off, since it fails its checksum.
+	 */
+	private void cut(long start) {
+		try {
+			this.channel.truncate(start);
+			this.channel.position(start);
+		} catch (IOException e) {
+			System.out.println("Error occured when cutting a torn frame off the update log.");
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * This function returns once all records up to 'sequence' are on disk. If
+	 * another thread is forcing the file, it waits for that thread instead of
+	 * forcing again, so concurrent updates share one force.
+	 *
+	 * @param sequence - number of the last record that must be durable
+	 * @throws IOException if the file could not be forced or the log is broken;
+	 *                     the records may then be lost in a crash
+	 */
+	public void sync(long sequence) throws IOException {
+		if (this.durable >= sequence)
+			return;
+
+		synchronized (this.syncLock) {
+			if (this.durable >= sequence)
+				return; // forced by the previous holder of the lock
+			if (this.broken)
+				throw new IOException("the update log is broken");
+
+			long target = this.appended;
+			try {
+				this.channel.force(false);
+			} catch (IOException e) {
+				this.broken = true; // the failed pages may be dropped; forcing again proves nothing
+				throw e;
+			}
+			this.durable = target;
+		}
+	}
+
+	/**
+	 * This function empties the log after a checkpoint. The numbering continues.
+	 * The caller must make sure that no record is appended meanwhile.
+	 *
+	 * @throws IOException if the file could not be emptied; the log is broken then
+	 */
+	public synchronized void reset() throws IOException {
+		synchronized (this.syncLock) {
+			try {
+				this.channel.truncate(0);
+				this.channel.position(0);
+				this.channel.force(true);
+			} catch (IOException e) {
+				this.broken = true;
+				throw e;
+			}
+			this.durable = this.appended;
+			this.tail.clear();
+			this.tailTables.clear();
+		}
+	}
+
+	/**
+	 * This function sets the number of the last record, e.g. to the number saved
+	 * in a tree file when the log is empty.
+	 */
+	public synchronized void setSequence(long sequence) {
+		if (sequence > this.appended) {
+			this.appended = sequence;
+			this.durable = Math.max(this.durable, sequence);
+		}
+	}
+
+	public long getSequence() {
+		return appended;
+	}
+
+	/**
+	 * This function tells whether a write or force of the log failed, so that it
+	 * accepts no more records.
+	 */
+	public boolean isBroken() {
+		return broken;
+	}
+
+	public void close() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			System.out.println("Error occured when closing the update log.");
+			System.out.println(e);
+		}
+	}
+}
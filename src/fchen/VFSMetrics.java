@@ -0,0 +1,250 @@
+package fchen;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * This class collects the operational metrics of a DynamicVFS: latency
+ * histograms of searches, verifications, additions and deletions, the number of
+ * leaves probed per search, the number of hash computations per request, and
+ * the occupancy of the table. Recording is lock-free and allocates nothing, so
+ * the metrics are always on. They can be read directly, registered as a JMX
+ * MBean, or printed as a text snapshot.
+ *
+ * The occupancy refers to the table receiving additions, i.e. the new table
+ * while the table grows.
+ */
+public class VFSMetrics implements VFSMetricsMBean {
+	public final static int SEARCH = 0;
+	public final static int VERIFY = 1;
+	public final static int ADD = 2;
+	public final static int DELETE = 3;
+	public final static String[] OPERATIONS = { "search", "verify", "add", "delete" };
+	public final static int MAX_PROBE_LENGTH = 32; // longer probing sequences share the last counter
+
+	private DynamicVFS vfs = null;
+	private LatencyHistogram[] latency = new LatencyHistogram[OPERATIONS.length];
+	private AtomicLongArray hashOperations = new AtomicLongArray(OPERATIONS.length);
+	private AtomicLongArray probeLengths = new AtomicLongArray(MAX_PROBE_LENGTH + 1);
+	private AtomicLong failedVerifications = new AtomicLong(0);
+	private ObjectName name = null; // the JMX name, if registered
+
+	public VFSMetrics(DynamicVFS vfs) {
+		this.vfs = vfs;
+		for (int i = 0; i < this.latency.length; i++)
+			this.latency[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * This function records one request.
+	 *
+	 * @param operation - SEARCH, VERIFY, ADD or DELETE
+	 * @param startTime - the value of System.nanoTime() when the request started
+	 * @param hashes    - number of hash computations done for the request
+	 */
+	public void record(int operation, long startTime, long hashes) {
+		this.latency[operation].record(System.nanoTime() - startTime);
+		if (hashes > 0)
+			this.hashOperations.addAndGet(operation, hashes);
+	}
+
+	/**
+	 * This function records the number of leaves probed by a search.
+	 */
+	public void recordProbes(int leaves) {
+		this.probeLengths.incrementAndGet(Math.max(0, Math.min(leaves, MAX_PROBE_LENGTH)));
+	}
+
+	/**
+	 * This function records a verification that found the cloud cheating.
+	 */
+	public void recordFailure() {
+		this.failedVerifications.incrementAndGet();
+	}
+
+	/**
+	 * This function registers the metrics with the platform MBean server under
+	 * the name "fchen:type=DynamicVFS,name=" + name.
+	 *
+	 * @param name - a name telling this instance from others in the same JVM
+	 */
+	public synchronized void register(String name) {
+		try {
+			this.unregister();
+			ObjectName objectName = new ObjectName("fchen:type=DynamicVFS,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.name = objectName;
+		} catch (Exception e) {
+			System.out.println("Error occured when registering the metrics MBean.");
+			System.out.println(e);
+		}
+	}
+
+	public synchronized void unregister() {
+		if (this.name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+		} catch (Exception e) {
+			System.out.println("Error occured when unregistering the metrics MBean.");
+			System.out.println(e);
+		}
+		this.name = null;
+	}
+
+	/**
+	 * This function gets the latency histogram of an operation.
+	 *
+	 * @param operation - SEARCH, VERIFY, ADD or DELETE
+	 */
+	public LatencyHistogram getLatency(int operation) {
+		return latency[operation];
+	}
+
+	private long[] summary(int operation) {
+		LatencyHistogram h = this.latency[operation];
+		return new long[] { h.getCount(), Math.round(h.getMean()), h.getPercentile(50), h.getPercentile(90),
+				h.getPercentile(99), h.getPercentile(99.9), h.getMax() };
+	}
+
+	private double perRequest(int operation) {
+		long count = this.latency[operation].getCount();
+		return (count == 0) ? 0 : (double) this.hashOperations.get(operation) / count;
+	}
+
+	public long getSearches() {
+		return latency[SEARCH].getCount();
+	}
+
+	public long getVerifications() {
+		return latency[VERIFY].getCount();
+	}
+
+	public long getFailedVerifications() {
+		return failedVerifications.get();
+	}
+
+	public long getAdditions() {
+		return latency[ADD].getCount();
+	}
+
+	public long getDeletions() {
+		return latency[DELETE].getCount();
+	}
+
+	public long[] getSearchLatency() {
+		return this.summary(SEARCH);
+	}
+
+	public long[] getVerifyLatency() {
+		return this.summary(VERIFY);
+	}
+
+	public long[] getAddLatency() {
+		return this.summary(ADD);
+	}
+
+	public long[] getDeleteLatency() {
+		return this.summary(DELETE);
+	}
+
+	/**
+	 * This function gets the distribution of the probing sequence lengths:
+	 * element i is the number of searches that probed i leaves; the last element
+	 * counts all longer sequences.
+	 */
+	public long[] getProbeLengths() {
+		long[] result = new long[this.probeLengths.length()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = this.probeLengths.get(i);
+		return result;
+	}
+
+	public double getMeanProbeLength() {
+		long count = 0, sum = 0;
+		for (int i = 0; i < this.probeLengths.length(); i++) {
+			count = count + this.probeLengths.get(i);
+			sum = sum + i * this.probeLengths.get(i);
+		}
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	public double getHashOperationsPerVerify() {
+		return this.perRequest(VERIFY);
+	}
+
+	public double getHashOperationsPerAdd() {
+		return this.perRequest(ADD);
+	}
+
+	public double getHashOperationsPerDelete() {
+		return this.perRequest(DELETE);
+	}
+
+	public int getFiles() {
+		return vfs.getCurrentSize();
+	}
+
+	public int getSlots() {
+		return vfs.isGrowing() ? 2 * vfs.getLeafSize() * vfs.getBucketSize() : vfs.getLeafSize() * vfs.getBucketSize();
+	}
+
+	public int getUsedSlots() {
+		return vfs.getUsedSize();
+	}
+
+	public int getDeletedSlots() {
+		return vfs.getDeletedSize();
+	}
+
+	public double getLoadFactor() {
+		return vfs.getLoadFactor();
+	}
+
+	public boolean isGrowing() {
+		return vfs.isGrowing();
+	}
+
+	/**
+	 * This function prints all the metrics as text, one per line.
+	 */
+	public String getSnapshot() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.ROOT, "files %d, slots %d, used %d, deleted %d, load factor %.4f%s%n",
+				this.getFiles(), this.getSlots(), this.getUsedSlots(), this.getDeletedSlots(), this.getLoadFactor(),
+				this.isGrowing() ? ", growing" : ""));
+		text.append(String.format(Locale.ROOT, "%-8s %10s %10s %10s %10s %10s %10s %12s %10s%n", "latency", "count",
+				"mean(ns)", "p50", "p90", "p99", "p99.9", "max", "hashes/op"));
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			long[] s = this.summary(i);
+			text.append(String.format(Locale.ROOT, "%-8s %10d %10d %10d %10d %10d %10d %12d %10.1f%n",
+					OPERATIONS[i], s[0], s[1], s[2], s[3], s[4], s[5], s[6], this.perRequest(i)));
+		}
+		text.append("failed verifications ").append(this.getFailedVerifications()).append(System.lineSeparator());
+
+		text.append(String.format(Locale.ROOT, "probed leaves (mean %.3f):", this.getMeanProbeLength()));
+		long[] probes = this.getProbeLengths();
+		for (int i = 0; i < probes.length; i++)
+			if (probes[i] > 0)
+				text.append(' ').append(i).append(i == MAX_PROBE_LENGTH ? "+" : "").append('=').append(probes[i]);
+		text.append(System.lineSeparator());
+		return text.toString();
+	}
+
+	/**
+	 * This function sets all the counters and histograms to zero.
+	 */
+	public void reset() {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			this.latency[i].reset();
+			this.hashOperations.set(i, 0);
+		}
+		for (int i = 0; i < this.probeLengths.length(); i++)
+			this.probeLengths.set(i, 0);
+		this.failedVerifications.set(0);
+	}
+}
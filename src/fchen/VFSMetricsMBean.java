@@ -0,0 +1,52 @@
+package fchen;
+
+/**
+ * This interface is the JMX view of VFSMetrics. A latency attribute is the
+ * array {count, mean, 50th, 90th, 99th, 99.9th percentile, maximum}, in
+ * nanoseconds.
+ */
+public interface VFSMetricsMBean {
+	public long getSearches();
+
+	public long getVerifications();
+
+	public long getFailedVerifications();
+
+	public long getAdditions();
+
+	public long getDeletions();
+
+	public long[] getSearchLatency();
+
+	public long[] getVerifyLatency();
+
+	public long[] getAddLatency();
+
+	public long[] getDeleteLatency();
+
+	public long[] getProbeLengths();
+
+	public double getMeanProbeLength();
+
+	public double getHashOperationsPerVerify();
+
+	public double getHashOperationsPerAdd();
+
+	public double getHashOperationsPerDelete();
+
+	public int getFiles();
+
+	public int getSlots();
+
+	public int getUsedSlots();
+
+	public int getDeletedSlots();
+
+	public double getLoadFactor();
+
+	public boolean isGrowing();
+
+	public String getSnapshot();
+
+	public void reset();
+}